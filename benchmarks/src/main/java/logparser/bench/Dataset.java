@@ -0,0 +1,76 @@
+package logparser.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * A generated log directory, written on first use under {@code bench.data} (default
+ * {@code target/bench-data}) and reused by later runs with the same size and seed.
+ */
+public class Dataset {
+    private static final long SEED = 1;
+
+    private final Path dir;
+    private final long lines;
+    private final long bytes;
+
+    private Dataset(Path dir, long lines, long bytes) {
+        this.dir = dir;
+        this.lines = lines;
+        this.bytes = bytes;
+    }
+
+    public static synchronized Dataset of(String size) throws IOException {
+        Path root = Paths.get(System.getProperty("bench.data", "target/bench-data"));
+        Path dir = root.resolve(size + "-" + SEED);
+        Path propertiesFile = dir.resolve(LogGenerator.PROPERTIES);
+        Properties properties = new Properties();
+        if (Files.exists(propertiesFile)) {
+            try (Reader reader = Files.newBufferedReader(propertiesFile)) {
+                properties.load(reader);
+            }
+        } else {
+            properties = new LogGenerator(LogGenerator.parseSize(size), SEED).write(dir);
+        }
+        return new Dataset(dir, Long.parseLong(properties.getProperty("lines")),
+                Long.parseLong(properties.getProperty("bytes")));
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns {@code {after, before}} for a window in the middle of the generated time span that covers the
+     * given fraction of it, or {@code {null, null}} for the whole span.
+     */
+    public static Date[] window(double selectivity) {
+        if (selectivity >= 1) {
+            return new Date[]{null, null};
+        }
+        long seconds = ChronoUnit.SECONDS.between(LogGenerator.START, LogGenerator.END);
+        long length = (long) (seconds * selectivity);
+        LocalDateTime after = LogGenerator.START.plusSeconds((seconds - length) / 2);
+        return new Date[]{toDate(after), toDate(after.plusSeconds(length))};
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
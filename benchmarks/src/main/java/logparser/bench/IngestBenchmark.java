@@ -0,0 +1,63 @@
+package logparser.bench;
+
+import logparser.LogParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a log directory, from listing the files to a built index. Besides loads per second, JMH
+ * reports the {@code megabytes} and {@code lines} counters as rates, i.e. MB/s and lines/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+    @Param({"64M", "512M"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Dataset dataset;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            lines = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dataset = Dataset.of(size);
+    }
+
+    @Benchmark
+    public LogParser readLogs(Throughput throughput) {
+        LogParser parser = new LogParser(dataset.getDir(), threads);
+        throughput.megabytes += dataset.getBytes() / (double) (1 << 20);
+        throughput.lines += dataset.getLines();
+        return parser;
+    }
+}
@@ -0,0 +1,263 @@
+package logparser.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a directory of synthetic logs in the tab-separated format the parser reads. Output depends only on
+ * the target size and the seed: every file has its own random stream, so files are written in parallel and
+ * a run always produces the same bytes.
+ * <p>
+ * Users, IP addresses and tasks follow Zipf distributions, so a few of each dominate the way they do in real
+ * logs, and the names used by the benchmarks ({@link #TOP_USERS}, {@link #TOP_IPS}) are the most frequent.
+ * Each file covers a slice of {@link #START}..{@link #END} in proportion to its size, in roughly increasing
+ * time order with a little jitter, as rotated logs do. A {@code dataset.properties} file records the line and
+ * byte counts.
+ */
+public class LogGenerator {
+    public static final LocalDateTime START = LocalDateTime.of(2012, 1, 1, 0, 0, 0);
+    public static final LocalDateTime END = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
+    public static final String[] TOP_USERS = {"Amigo", "Vasya Pupkin", "Eduard Petrovich Morozko"};
+    public static final String[] TOP_IPS = {"127.0.0.1", "146.34.15.5", "192.168.100.2", "12.12.12.12"};
+    public static final String PROPERTIES = "dataset.properties";
+
+    private static final long FILE_SIZE = 256L << 20;
+    private static final int USERS = 20_000;
+    private static final int IPS = 50_000;
+    private static final int TASKS = 500;
+    private static final int JITTER_SECONDS = 120;
+    private static final String[] FIRST_NAMES = {"Ivan", "Petr", "Anna", "Maria", "Sergey", "Olga", "Dmitry",
+            "Elena", "Alexey", "Natalia", "Pavel", "Irina", "Nikolay", "Tatiana", "Andrey", "Svetlana"};
+    private static final String[] LAST_NAMES = {"Ivanov", "Petrov", "Sidorov", "Smirnov", "Kuznetsov", "Popov",
+            "Volkov", "Sokolov", "Lebedev", "Kozlov", "Novikov", "Morozov", "Orlov", "Pavlov", "Zaitsev"};
+
+    private final long size;
+    private final long seed;
+    private final Zipf users = new Zipf(USERS, 1.1);
+    private final Zipf ips = new Zipf(IPS, 1.2);
+    private final Zipf tasks = new Zipf(TASKS, 0.9);
+
+    public LogGenerator(long size, long seed) {
+        this.size = size;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: LogGenerator <directory> <size, e.g. 512M or 4G> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Properties properties = new LogGenerator(parseSize(args[1]), seed).write(Paths.get(args[0]));
+        System.out.println(properties);
+    }
+
+    /**
+     * Parses a byte count with an optional {@code K}, {@code M} or {@code G} suffix.
+     */
+    public static long parseSize(String text) {
+        String value = text.trim().toUpperCase();
+        int shift = 0;
+        if (value.endsWith("K")) {
+            shift = 10;
+        } else if (value.endsWith("M")) {
+            shift = 20;
+        } else if (value.endsWith("G")) {
+            shift = 30;
+        }
+        if (shift != 0) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) << shift;
+    }
+
+    /**
+     * Writes the logs into the directory and returns the recorded dataset properties.
+     */
+    public Properties write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        int files = (int) Math.max(1, (size + FILE_SIZE - 1) / FILE_SIZE);
+        long seconds = ChronoUnit.SECONDS.between(START, END);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int i = 0; i < files; i++) {
+                Path file = dir.resolve(String.format("app-%03d.log", i));
+                long fileSize = Math.min(FILE_SIZE, size - i * FILE_SIZE);
+                LocalDateTime first = START.plusSeconds((long) (seconds * ((double) i * FILE_SIZE / size)));
+                long span = (long) (seconds * ((double) fileSize / size));
+                long fileSeed = seed * 1_000_003 + i;
+                results.add(executor.submit(() -> writeFile(file, fileSize, first, span, fileSeed)));
+            }
+            long lines = 0;
+            long bytes = 0;
+            for (Future<long[]> result : results) {
+                long[] counts = result.get();
+                lines += counts[0];
+                bytes += counts[1];
+            }
+            Properties properties = new Properties();
+            properties.setProperty("size", Long.toString(size));
+            properties.setProperty("seed", Long.toString(seed));
+            properties.setProperty("files", Integer.toString(files));
+            properties.setProperty("lines", Long.toString(lines));
+            properties.setProperty("bytes", Long.toString(bytes));
+            try (Writer writer = Files.newBufferedWriter(dir.resolve(PROPERTIES))) {
+                properties.store(writer, "Generated by " + LogGenerator.class.getName());
+            }
+            return properties;
+        } catch (Exception e) {
+            throw e instanceof IOException ? (IOException) e : new IOException("Log generation failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes lines until the file reaches its size and returns {@code {lines, bytes}}.
+     */
+    private long[] writeFile(Path file, long fileSize, LocalDateTime first, long span, long fileSeed)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(fileSeed);
+        StringBuilder line = new StringBuilder(128);
+        long lines = 0;
+        long bytes = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            while (bytes < fileSize) {
+                long offset = span * bytes / fileSize + random.nextInt(-JITTER_SECONDS, JITTER_SECONDS + 1);
+                line.setLength(0);
+                appendLine(line, random, first.plusSeconds(Math.max(0, offset)));
+                byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(encoded);
+                bytes += encoded.length;
+                lines++;
+            }
+        }
+        return new long[]{lines, bytes};
+    }
+
+    private void appendLine(StringBuilder line, SplittableRandom random, LocalDateTime time) {
+        appendIp(line, ips.next(random));
+        line.append('\t');
+        appendUser(line, users.next(random));
+        line.append('\t');
+        appendTime(line, time, random.nextInt(8) == 0);
+        line.append('\t');
+        int event = random.nextInt(100);
+        if (event < 30) {
+            line.append("LOGIN");
+        } else if (event < 40) {
+            line.append("DOWNLOAD_PLUGIN");
+        } else if (event < 65) {
+            line.append("WRITE_MESSAGE");
+        } else if (event < 85) {
+            line.append("SOLVE_TASK ").append(tasks.next(random) + 1);
+        } else {
+            line.append("DONE_TASK ").append(tasks.next(random) + 1);
+        }
+        line.append('\t');
+        int status = random.nextInt(100);
+        line.append(status < 85 ? "OK" : status < 95 ? "FAILED" : "ERROR");
+        line.append('\n');
+    }
+
+    private static void appendIp(StringBuilder line, int rank) {
+        if (rank < TOP_IPS.length) {
+            line.append(TOP_IPS[rank]);
+            return;
+        }
+        // Spread the rest over a few subnets, so that subnet and range queries have something to find.
+        int subnet = rank % 4;
+        int host = rank / 4;
+        if (subnet == 0) {
+            line.append("146.34.").append(host >> 8 & 0xff).append('.').append(host & 0xff);
+        } else if (subnet == 1) {
+            line.append("192.168.").append(host >> 8 & 0xff).append('.').append(host & 0xff);
+        } else {
+            line.append(10 + (rank * 7 % 200)).append('.').append(host >> 8 & 0xff).append('.')
+                    .append(host & 0xff).append('.').append(subnet);
+        }
+    }
+
+    private static void appendUser(StringBuilder line, int rank) {
+        if (rank < TOP_USERS.length) {
+            line.append(TOP_USERS[rank]);
+            return;
+        }
+        line.append(FIRST_NAMES[rank % FIRST_NAMES.length]).append(' ')
+                .append(LAST_NAMES[rank / FIRST_NAMES.length % LAST_NAMES.length]);
+        int number = rank / (FIRST_NAMES.length * LAST_NAMES.length);
+        if (number > 0) {
+            line.append(' ').append(number);
+        }
+    }
+
+    /**
+     * Appends the time as {@code dd.MM.yyyy HH:mm:ss}, or unpadded when {@code unpadded} is set; the parser
+     * accepts both.
+     */
+    private static void appendTime(StringBuilder line, LocalDateTime time, boolean unpadded) {
+        appendNumber(line, time.getDayOfMonth(), unpadded).append('.');
+        appendNumber(line, time.getMonthValue(), unpadded).append('.');
+        line.append(time.getYear()).append(' ');
+        appendNumber(line, time.getHour(), unpadded).append(':');
+        appendNumber(line, time.getMinute(), unpadded).append(':');
+        appendNumber(line, time.getSecond(), unpadded);
+    }
+
+    private static StringBuilder appendNumber(StringBuilder line, int value, boolean unpadded) {
+        if (value < 10 && !unpadded) {
+            line.append('0');
+        }
+        return line.append(value);
+    }
+
+    /**
+     * Samples ranks {@code 0..n-1} with probability proportional to {@code 1 / (rank + 1)^exponent}.
+     */
+    private static class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            double value = random.nextDouble();
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
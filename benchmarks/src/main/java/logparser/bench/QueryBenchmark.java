@@ -0,0 +1,359 @@
+package logparser.bench;
+
+import logparser.Event;
+import logparser.LogParser;
+import logparser.Status;
+import logparser.store.EventIndex;
+import logparser.store.HyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every method of the query interfaces and QL execution over a loaded dataset. The date window is
+ * centred in the generated time span and covers the {@code selectivity} fraction of it; 1 queries without
+ * bounds. The result cache is cleared before each call unless {@code cached} is set, so by default the
+ * benchmarks measure the engine rather than cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final String USER = LogGenerator.TOP_USERS[1];
+    private static final String IP = LogGenerator.TOP_IPS[1];
+    private static final String SUBNET = "146.34.0.0/16";
+    private static final String FIRST_IP = "192.168.0.0";
+    private static final String LAST_IP = "192.168.255.255";
+    private static final int TASK = 18;
+    private static final int TOP = 10;
+    private static final long SESSION_GAP_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    @Param({"64M", "512M"})
+    public String size;
+
+    @Param({"0.01", "0.1", "1"})
+    public double selectivity;
+
+    @Param({"false"})
+    public boolean cached;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private LogParser parser;
+    private Date after;
+    private Date before;
+    private String dateCondition;
+    private Object[] dateParameters;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        parser = new LogParser(Dataset.of(size).getDir(), Runtime.getRuntime().availableProcessors(), false,
+                HyperLogLog.errorOf(EventIndex.DEFAULT_SKETCH_PRECISION), offHeap);
+        Date[] window = Dataset.window(selectivity);
+        after = window[0];
+        before = window[1];
+        dateCondition = after == null ? "" : " and date between ? and ?";
+        dateParameters = after == null ? new Object[0] : new Object[]{after, before};
+    }
+
+    private LogParser parser() {
+        if (!cached) {
+            parser.getResultCache().clear();
+        }
+        return parser;
+    }
+
+    private Object[] parameters(Object first) {
+        Object[] parameters = new Object[dateParameters.length + 1];
+        parameters[0] = first;
+        System.arraycopy(dateParameters, 0, parameters, 1, dateParameters.length);
+        return parameters;
+    }
+
+    @Benchmark
+    public Object getNumberOfUniqueIPs() {
+        return parser().getNumberOfUniqueIPs(after, before);
+    }
+
+    @Benchmark
+    public Object estimateNumberOfUniqueIPs() {
+        return parser().estimateNumberOfUniqueIPs(after, before);
+    }
+
+    @Benchmark
+    public Object getUniqueIPs() {
+        return parser().getUniqueIPs(after, before);
+    }
+
+    @Benchmark
+    public Object getIPsForUser() {
+        return parser().getIPsForUser(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getIPsForEvent() {
+        return parser().getIPsForEvent(Event.SOLVE_TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getIPsForStatus() {
+        return parser().getIPsForStatus(Status.FAILED, after, before);
+    }
+
+    @Benchmark
+    public Object getIPsForSubnet() {
+        return parser().getIPsForSubnet(SUBNET, after, before);
+    }
+
+    @Benchmark
+    public Object getIPsInRange() {
+        return parser().getIPsInRange(FIRST_IP, LAST_IP, after, before);
+    }
+
+    @Benchmark
+    public Object getAllUsers() {
+        return parser().getAllUsers();
+    }
+
+    @Benchmark
+    public Object getNumberOfUsers() {
+        return parser().getNumberOfUsers(after, before);
+    }
+
+    @Benchmark
+    public Object estimateNumberOfUsers() {
+        return parser().estimateNumberOfUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getNumberOfUserEvents() {
+        return parser().getNumberOfUserEvents(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getUsersForIP() {
+        return parser().getUsersForIP(IP, after, before);
+    }
+
+    @Benchmark
+    public Object getUsersForSubnet() {
+        return parser().getUsersForSubnet(SUBNET, after, before);
+    }
+
+    @Benchmark
+    public Object getUsersForIPRange() {
+        return parser().getUsersForIPRange(FIRST_IP, LAST_IP, after, before);
+    }
+
+    @Benchmark
+    public Object getLoggedUsers() {
+        return parser().getLoggedUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getDownloadedPluginUsers() {
+        return parser().getDownloadedPluginUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getWroteMessageUsers() {
+        return parser().getWroteMessageUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getSolvedTaskUsers() {
+        return parser().getSolvedTaskUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getSolvedTaskUsersForTask() {
+        return parser().getSolvedTaskUsers(after, before, TASK);
+    }
+
+    @Benchmark
+    public Object getDoneTaskUsers() {
+        return parser().getDoneTaskUsers(after, before);
+    }
+
+    @Benchmark
+    public Object getDoneTaskUsersForTask() {
+        return parser().getDoneTaskUsers(after, before, TASK);
+    }
+
+    @Benchmark
+    public Object getDatesForUserAndEvent() {
+        return parser().getDatesForUserAndEvent(USER, Event.LOGIN, after, before);
+    }
+
+    @Benchmark
+    public Object getDatesWhenSomethingFailed() {
+        return parser().getDatesWhenSomethingFailed(after, before);
+    }
+
+    @Benchmark
+    public Object getDatesWhenErrorHappened() {
+        return parser().getDatesWhenErrorHappened(after, before);
+    }
+
+    @Benchmark
+    public Object getDateWhenUserLoggedFirstTime() {
+        return parser().getDateWhenUserLoggedFirstTime(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getDateWhenUserSolvedTask() {
+        return parser().getDateWhenUserSolvedTask(USER, TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getDateWhenUserDoneTask() {
+        return parser().getDateWhenUserDoneTask(USER, TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getDatesWhenUserWroteMessage() {
+        return parser().getDatesWhenUserWroteMessage(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getDatesWhenUserDownloadedPlugin() {
+        return parser().getDatesWhenUserDownloadedPlugin(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getNumberOfAllEvents() {
+        return parser().getNumberOfAllEvents(after, before);
+    }
+
+    @Benchmark
+    public Object getAllEvents() {
+        return parser().getAllEvents(after, before);
+    }
+
+    @Benchmark
+    public Object getEventsForIP() {
+        return parser().getEventsForIP(IP, after, before);
+    }
+
+    @Benchmark
+    public Object getEventsForSubnet() {
+        return parser().getEventsForSubnet(SUBNET, after, before);
+    }
+
+    @Benchmark
+    public Object getEventsForIPRange() {
+        return parser().getEventsForIPRange(FIRST_IP, LAST_IP, after, before);
+    }
+
+    @Benchmark
+    public Object getEventsForUser() {
+        return parser().getEventsForUser(USER, after, before);
+    }
+
+    @Benchmark
+    public Object getFailedEvents() {
+        return parser().getFailedEvents(after, before);
+    }
+
+    @Benchmark
+    public Object getErrorEvents() {
+        return parser().getErrorEvents(after, before);
+    }
+
+    @Benchmark
+    public Object getNumberOfAttemptToSolveTask() {
+        return parser().getNumberOfAttemptToSolveTask(TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getNumberOfSuccessfulAttemptToSolveTask() {
+        return parser().getNumberOfSuccessfulAttemptToSolveTask(TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getAllSolvedTasksAndTheirNumber() {
+        return parser().getAllSolvedTasksAndTheirNumber(after, before);
+    }
+
+    @Benchmark
+    public Object getAllDoneTasksAndTheirNumber() {
+        return parser().getAllDoneTasksAndTheirNumber(after, before);
+    }
+
+    @Benchmark
+    public Object getTopIPs() {
+        return parser().getTopIPs(TOP, after, before);
+    }
+
+    @Benchmark
+    public Object getTopUsers() {
+        return parser().getTopUsers(TOP, Status.FAILED, after, before);
+    }
+
+    @Benchmark
+    public Object getTopTasks() {
+        return parser().getTopTasks(TOP, after, before);
+    }
+
+    @Benchmark
+    public Object getTopEvents() {
+        return parser().getTopEvents(TOP, Status.ERROR, after, before);
+    }
+
+    @Benchmark
+    public Object getTaskConversionTimes() {
+        return parser().getTaskConversionTimes(TASK, after, before);
+    }
+
+    @Benchmark
+    public Object getUserSessions() {
+        return parser().getUserSessions(USER, SESSION_GAP_MILLIS, after, before);
+    }
+
+    @Benchmark
+    public Object executeLiteral() {
+        return parser().execute("get ip for user = \"" + USER + "\"");
+    }
+
+    @Benchmark
+    public Object executeUserIps() {
+        return parser().execute("get ip for user = ?" + dateCondition, parameters(USER));
+    }
+
+    @Benchmark
+    public Object executeEventCount() {
+        return parser().execute("get count for event = ?" + dateCondition, parameters(Event.SOLVE_TASK));
+    }
+
+    @Benchmark
+    public Object executeDistinctIpCount() {
+        return parser().execute("get approx count distinct ip" + dateCondition, dateParameters);
+    }
+
+    @Benchmark
+    public Object executeTopIps() {
+        return parser().execute("get top " + TOP + " ip for status = ?" + dateCondition, parameters(Status.FAILED));
+    }
+
+    @Benchmark
+    public Object executeStatusDates() {
+        return parser().execute("get date for status = ?" + dateCondition, parameters(Status.ERROR));
+    }
+}
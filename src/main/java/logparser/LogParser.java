@@ -1,630 +1,955 @@
 package logparser;
 
+import logparser.cache.ResultCache;
+import logparser.ingest.IngestPipeline;
+import logparser.ingest.IngestReport;
+import logparser.ingest.LogTailer;
+import logparser.ingest.TimestampDecoder;
+import logparser.metrics.Metrics;
+import logparser.metrics.MetricsSnapshot;
+import logparser.metrics.QueryMetrics;
+import logparser.ql.PlanCache;
+import logparser.ql.QueryPlan;
 import logparser.query.*;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
+import logparser.store.Dictionary;
+import logparser.store.EventCursor;
+import logparser.store.EventIndex;
+import logparser.store.EventStore;
+import logparser.store.HyperLogLog;
+import logparser.store.IpRange;
+import logparser.store.ParallelScan;
+import logparser.store.RoaringBitmap;
+import logparser.store.SegmentFile;
+import logparser.store.Snapshot;
+import logparser.store.SourceFile;
+import logparser.store.TopCounts;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+public class LogParser implements LogQuery, TopQuery, ActivityQuery {
+    private static final int PLAN_CACHE_SIZE = 256;
+    private static final int RESULT_CACHE_SIZE = 1024;
+    private static final int RESULT_CACHE_TTL_MINUTES = 10;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
 
-public class LogParser implements IPQuery, UserQuery, DateQuery, EventQuery, QLQuery {
     private Path logDir;
-    private List<LogEntity> logEntities = new ArrayList<>();
-    private DateFormat simpleDateFormat = new SimpleDateFormat("d.M.yyyy H:m:s");
+    private int ingestThreads;
+    private boolean persistent;
+    private int sketchPrecision;
+    private long retentionMillis;
+    private boolean offHeap;
+    private EventStore liveStore;
+    private EventIndex liveIndex;
+    private volatile Snapshot snapshot;
+    private volatile LogTailer tailer;
+    private TimestampDecoder timestampDecoder = new TimestampDecoder();
+    private IngestReport ingestReport = new IngestReport();
+    private PlanCache planCache = new PlanCache(PLAN_CACHE_SIZE, timestampDecoder);
+    private ResultCache resultCache = new ResultCache(RESULT_CACHE_SIZE, RESULT_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+    private Metrics metrics = new Metrics(ingestReport, resultCache);
 
     public LogParser(Path logDir) {
+        this(logDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LogParser(Path logDir, int ingestThreads) {
+        this(logDir, ingestThreads, false);
+    }
+
+    /**
+     * Creates a parser that, when {@code persistent} is set, keeps the parsed data in a segment file in the
+     * log directory. Later starts restore the rows of unchanged log files from it and parse only the log files
+     * whose size or modification time changed.
+     */
+    public LogParser(Path logDir, int ingestThreads, boolean persistent) {
+        this(logDir, ingestThreads, persistent, HyperLogLog.errorOf(EventIndex.DEFAULT_SKETCH_PRECISION));
+    }
+
+    /**
+     * Creates a parser whose distinct-count estimates have at most the given relative standard error. Smaller
+     * errors take larger sketches: 2% costs 4 KB per day of logs for users and IP addresses each, 1% 16 KB.
+     */
+    public LogParser(Path logDir, int ingestThreads, boolean persistent, double distinctCountError) {
+        this(logDir, ingestThreads, persistent, distinctCountError, false);
+    }
+
+    /**
+     * Creates a parser that, when {@code offHeap} is set, keeps the columns of the parsed rows outside the Java
+     * heap, where they add nothing to garbage collection time. The indexes stay on the heap, so heap usage
+     * still grows with the rows, but about 40% less. Queries that scan many rows take about a third longer.
+     */
+    public LogParser(Path logDir, int ingestThreads, boolean persistent, double distinctCountError,
+                     boolean offHeap) {
         this.logDir = logDir;
+        this.ingestThreads = ingestThreads;
+        this.persistent = persistent;
+        this.sketchPrecision = HyperLogLog.precisionFor(distinctCountError);
+        this.offHeap = offHeap;
+        this.liveStore = new EventStore(offHeap);
         readLogs();
     }
 
     @Override
     public int getNumberOfUniqueIPs(Date after, Date before) {
-        return getUniqueIPs(after, before).size();
+        return cached("getNumberOfUniqueIPs", after, before, (store, index) ->
+                ids(index, store::getIpId, firstRow(store, after), endRow(store, before)).cardinality());
+    }
+
+    /**
+     * Estimates {@link #getNumberOfUniqueIPs} from the per-day sketches in time that does not grow with the
+     * number of rows or addresses, within the distinct-count error the parser was created with.
+     */
+    public int estimateNumberOfUniqueIPs(Date after, Date before) {
+        return cached("estimateNumberOfUniqueIPs", after, before, (store, index) ->
+                (int) index.estimateDistinctIps(store, firstRow(store, after), endRow(store, before)));
     }
 
     @Override
     public Set<String> getUniqueIPs(Date after, Date before) {
-        Set<String> result = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if (dateBetweenDates(logEntities.get(i).getDate(), after, before)) {
-                result.add(logEntities.get(i).getIp());
-            }
-        }
-        return result;
+        return cached("getUniqueIPs", after, before, (store, index) -> toStrings(store.getIpDictionary(),
+                ids(index, store::getIpId, firstRow(store, after), endRow(store, before))));
     }
 
     @Override
     public Set<String> getIPsForUser(String user, Date after, Date before) {
-        Set<String> result = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if (dateBetweenDates(logEntities.get(i).getDate(), after, before)) {
-                if (logEntities.get(i).getUser().equals(user)) {
-                    result.add(logEntities.get(i).getIp());
-                }
+        return cached("getIPsForUser", after, before, (store, index) -> {
+            int userId = store.getUserDictionary().idOf(user);
+            if (userId == Dictionary.NOT_FOUND) {
+                return new HashSet<>();
             }
-        }
-        return result;
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            BitSet ips = new BitSet();
+            index.byUser(userId).forEach(from, to, row -> ips.set(store.getIpId(row)));
+            return toStrings(store.getIpDictionary(), ips);
+        }, user);
     }
 
     @Override
     public Set<String> getIPsForEvent(Event event, Date after, Date before) {
-        Set<String> result = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if (dateBetweenDates(logEntities.get(i).getDate(), after, before)) {
-                if (logEntities.get(i).getEvent().equals(event)) {
-                    result.add(logEntities.get(i).getIp());
-                }
-            }
-        }
-        return result;
+        return cached("getIPsForEvent", after, before, (store, index) -> {
+            int eventCode = event.ordinal();
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            BitSet ips = new BitSet();
+            index.byEvent(eventCode).forEach(from, to, row -> ips.set(store.getIpId(row)));
+            return toStrings(store.getIpDictionary(), ips);
+        }, event);
     }
 
     @Override
     public Set<String> getIPsForStatus(Status status, Date after, Date before) {
-        Set<String> result = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if (dateBetweenDates(logEntities.get(i).getDate(), after, before)) {
-                if (logEntities.get(i).getStatus().equals(status)) {
-                    result.add(logEntities.get(i).getIp());
-                }
+        return cached("getIPsForStatus", after, before, (store, index) -> {
+            int statusCode = status.ordinal();
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            BitSet ips = new BitSet();
+            index.byStatus(statusCode).forEach(from, to, row -> ips.set(store.getIpId(row)));
+            return toStrings(store.getIpDictionary(), ips);
+        }, status);
+    }
+
+    @Override
+    public Set<String> getIPsForSubnet(String subnet, Date after, Date before) {
+        return cached("getIPsForSubnet", after, before,
+                (store, index) -> getIPsForRange(store, index, IpRange.parse(subnet), after, before), subnet);
+    }
+
+    @Override
+    public Set<String> getIPsInRange(String firstIp, String lastIp, Date after, Date before) {
+        return cached("getIPsInRange", after, before,
+                (store, index) -> getIPsForRange(store, index, IpRange.of(firstIp, lastIp), after, before),
+                firstIp, lastIp);
+    }
+
+    private Set<String> getIPsForRange(EventStore store, EventIndex index, IpRange range, Date after, Date before) {
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        BitSet ips = new BitSet();
+        for (int ipId : index.ipIdsInRange(range)) {
+            if (index.byIp(ipId).first(from, to) >= 0) {
+                ips.set(ipId);
             }
         }
-        return result;
+        return toStrings(store.getIpDictionary(), ips);
     }
 
     private void readLogs() {
+        long start = System.nanoTime();
+        List<Path> files = new ArrayList<>();
+        List<SourceFile> sourceFiles = new ArrayList<>();
         try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
             for (Path file : directoryStream) {
-                if (file.toString().toLowerCase().endsWith(".log")) {
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
-                        String line = null;
-                        while ((line = reader.readLine()) != null) {
-                            String[] params = line.split("\t");
-
-                            if (params.length != 5) {
-                                continue;
-                            }
-
-                            String ip = params[0];
-                            String user = params[1];
-                            Date date = readDate(params[2]);
-                            Event event = readEvent(params[3]);
-                            int eventAdditionalParameter = -1;
-                            if (event.equals(Event.SOLVE_TASK) || event.equals(Event.DONE_TASK)) {
-                                eventAdditionalParameter = readAdditionalParameter(params[3]);
-                            }
-                            Status status = readStatus(params[4]);
-
-                            LogEntity logEntity = new LogEntity(ip, user, date, event, eventAdditionalParameter, status);
-                            logEntities.add(logEntity);
-                        }
-                    }
+                if (IngestPipeline.isLogFile(file)) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    files.add(file);
+                    sourceFiles.add(new SourceFile(file.getFileName().toString(), attributes.size(),
+                            attributes.lastModifiedTime().toMillis()));
+                }
+            }
+            if (persistent) {
+                files = restoreSegment(files, sourceFiles);
+            }
+            if (liveIndex == null || !files.isEmpty()) {
+                new IngestPipeline(ingestThreads).ingest(files, liveStore, ingestReport);
+                liveStore.sortByTime();
+                liveIndex = EventIndex.build(liveStore, sketchPrecision);
+                if (persistent) {
+                    segmentFile().write(liveStore, liveIndex, sourceFiles);
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (liveIndex == null) {
+            liveStore.sortByTime();
+            liveIndex = EventIndex.build(liveStore, sketchPrecision);
+        }
+        snapshot = Snapshot.of(0, liveStore, liveIndex);
+        metrics.recordLoad(System.nanoTime() - start);
     }
 
-    private Date readDate(String lineToParse) {
-        Date date = null;
+    /**
+     * Loads the rows of unchanged files from the segment and returns the files that still have to be parsed.
+     */
+    private List<Path> restoreSegment(List<Path> files, List<SourceFile> sourceFiles) {
+        SegmentFile.Restored restored;
         try {
-            date = simpleDateFormat.parse(lineToParse);
-        } catch (ParseException e) {
+            restored = segmentFile().restore(sourceFiles);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return files;
+        }
+        if (restored == null) {
+            return files;
+        }
+        liveStore = restored.getStore();
+        liveIndex = restored.getIndex();
+        List<Path> changedFiles = new ArrayList<>();
+        Map<Path, Long> restoredFiles = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (restored.getSources().contains(sourceFiles.get(i).getName())) {
+                restoredFiles.put(files.get(i), sourceFiles.get(i).getSize());
+            } else {
+                changedFiles.add(files.get(i));
+            }
         }
-        return date;
-    }
-
-    private Event readEvent(String lineToParse) {
-        Event event = null;
-        if (lineToParse.contains("SOLVE_TASK")) {
-            event = Event.SOLVE_TASK;
-        } else if (lineToParse.contains("DONE_TASK")) {
-            event = Event.DONE_TASK;
-        } else {
-            switch (lineToParse) {
-                case "LOGIN": {
-                    event = Event.LOGIN;
-                    break;
-                }
-                case "DOWNLOAD_PLUGIN": {
-                    event = Event.DOWNLOAD_PLUGIN;
-                    break;
+        ingestReport.addRestored(restoredFiles, liveStore.size());
+        return changedFiles;
+    }
+
+    private SegmentFile segmentFile() {
+        return new SegmentFile(logDir.resolve(SegmentFile.DEFAULT_NAME), sketchPrecision, offHeap);
+    }
+
+    /**
+     * Starts following the log directory: lines appended to existing files and new {@code .log} files are
+     * parsed in the background and become visible to queries within seconds, without reparsing what is
+     * already loaded.
+     */
+    public void startTailing() throws IOException {
+        if (tailer == null) {
+            tailer = new LogTailer(logDir, ingestReport.getFiles(), ingestReport, this::publishTailedData);
+            tailer.start();
+        }
+    }
+
+    public void stopTailing() throws IOException {
+        if (tailer != null) {
+            tailer.close();
+            tailer = null;
+        }
+    }
+
+    /**
+     * Folds rows parsed by the tailer into the live store and indexes and publishes them as the next snapshot.
+     * Runs on the tailer thread. Rows that arrive in time order are appended and indexed incrementally. Rows
+     * older than the newest stored row, as when several hosts write files that are read in turn, are merged
+     * into place; only the rows from the first one that moves are indexed again, so a late row costs about
+     * the rows logged since its time. Queries keep reading the previous snapshot until the new one is complete.
+     */
+    private synchronized void publishTailedData() {
+        LogTailer tailer = this.tailer;
+        if (tailer == null || !tailer.hasPendingData()) {
+            return;
+        }
+        int from = liveStore.size();
+        tailer.drainTo(liveStore);
+        long[] timestamps = new long[liveStore.size() - from];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = liveStore.getTimestamp(from + i);
+        }
+        Arrays.sort(timestamps);
+        if (!liveStore.isSorted()) {
+            liveIndex.removeRows(liveStore, liveStore.mergePoint(from));
+            liveStore.mergeFrom(from);
+        }
+        liveIndex.addRows(liveStore, liveStore.size());
+        long epoch = snapshot.getEpoch() + 1;
+        resultCache.invalidate(epoch, timestamps);
+        snapshot = Snapshot.of(epoch, liveStore, liveIndex);
+        dropExpiredDays();
+    }
+
+    /**
+     * Keeps in memory only the days that end within the retention before the newest event, dropping older days
+     * now and whenever tailing adds rows; 0 keeps everything. Dropped rows stay in the log files, where a
+     * {@link StreamingLogParser} still answers queries over them without holding them in memory.
+     */
+    public synchronized void setRetention(long retention, TimeUnit unit) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("Negative retention: " + retention);
+        }
+        retentionMillis = unit.toMillis(retention);
+        dropExpiredDays();
+    }
+
+    /**
+     * Drops the days that ended before the retention and publishes the remaining rows as the next snapshot. The
+     * remaining rows are copied into a new store and indexed again; a drop only happens once the oldest
+     * retained day has expired, so at most once per day of logs.
+     */
+    private void dropExpiredDays() {
+        if (retentionMillis == 0 || liveStore.size() == 0) {
+            return;
+        }
+        long newest = liveStore.getTimestamp(liveStore.size() - 1);
+        int from = liveStore.firstRowAtOrAfter(Math.floorDiv(newest - retentionMillis, DAY_MILLIS) * DAY_MILLIS);
+        if (from == 0) {
+            return;
+        }
+        long first = liveStore.getTimestamp(0);
+        long last = liveStore.getTimestamp(from - 1);
+        liveStore = liveStore.copyRows(from, liveStore.size());
+        liveIndex = EventIndex.build(liveStore, sketchPrecision);
+        long epoch = snapshot.getEpoch() + 1;
+        resultCache.invalidate(epoch, first, last);
+        snapshot = Snapshot.of(epoch, liveStore, liveIndex);
+        metrics.recordDroppedRows(from);
+    }
+
+    /**
+     * Returns a batch whose queries are answered together in one pass over the loaded rows. Batched queries
+     * bypass the indexes and the result cache, so selective queries are usually answered faster by the methods
+     * themselves; the batch pays off for many queries that each touch most rows.
+     */
+    public QueryBatch newBatch() {
+        return new QueryBatch(sink -> {
+            EventStore store = snapshot.getStore();
+            EventCursor cursor = store.cursor();
+            for (int row = 0; row < store.size(); row++) {
+                cursor.moveTo(row);
+                sink.add(store.getIpDictionary().get(cursor.getIpId()),
+                        store.getUserDictionary().get(cursor.getUserId()), cursor.getTimestamp(),
+                        EventStore.eventOf(cursor.getEventCode()), cursor.getTask(),
+                        EventStore.statusOf(cursor.getStatusCode()), null);
+            }
+        }, planCache);
+    }
+
+    /**
+     * Returns the cache in front of the query methods, for its hit and miss counters.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the cached result of a query method over rows strictly between {@code after} and {@code before}.
+     */
+    private <T> T cached(String method, Date after, Date before, SnapshotQuery<T> query, Object... arguments) {
+        return cached(method, after == null ? 0 : after.getTime(),
+                before == null ? Long.MAX_VALUE : before.getTime(), query, arguments);
+    }
+
+    /**
+     * Bounds before the first or after the last stored timestamp select the same rows as no bound, so they are
+     * widened before keying; {@code getUniqueIPs(null, new Date())} then hits the same entry on every call.
+     */
+    private <T> T cached(String method, long after, long before, SnapshotQuery<T> query, Object... arguments) {
+        return cached(metrics.query(method), method, after, before, query, arguments);
+    }
+
+    /**
+     * Also records the latency of the call, the rows in its time window when it is computed and the size of
+     * its result.
+     */
+    private <T> T cached(QueryMetrics queryMetrics, String method, long after, long before, SnapshotQuery<T> query,
+                         Object... arguments) {
+        long start = System.nanoTime();
+        try {
+            Snapshot snapshot = this.snapshot;
+            EventStore store = snapshot.getStore();
+            if (store.size() > 0) {
+                if (after < store.getTimestamp(0)) {
+                    after = Long.MIN_VALUE;
                 }
-                case "WRITE_MESSAGE": {
-                    event = Event.WRITE_MESSAGE;
-                    break;
+                if (before > store.getTimestamp(store.size() - 1)) {
+                    before = Long.MAX_VALUE;
                 }
             }
+            long first = after;
+            long last = before;
+            T result = resultCache.get(method, snapshot.getEpoch(), after, before, () -> {
+                queryMetrics.addScanned(Math.max(0, store.firstRowAtOrAfter(last) - store.firstRowAfter(first)));
+                return query.run(store, snapshot.getIndex());
+            }, arguments);
+            queryMetrics.record(System.nanoTime() - start, resultSize(result));
+            return result;
+        } catch (RuntimeException e) {
+            queryMetrics.recordFailure(System.nanoTime() - start);
+            throw e;
         }
-        return event;
     }
 
-    private int readAdditionalParameter(String lineToParse) {
-        if (lineToParse.contains("SOLVE_TASK")) {
-            lineToParse = lineToParse.replace("SOLVE_TASK", "").replaceAll(" ", "");
-            return Integer.parseInt(lineToParse);
-        } else {
-            lineToParse = lineToParse.replace("DONE_TASK", "").replaceAll(" ", "");
-            return Integer.parseInt(lineToParse);
+    private static long resultSize(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
         }
+        return result == null ? 0 : 1;
     }
 
-    private Status readStatus(String lineToParse) {
-        Status status = null;
-        switch (lineToParse) {
-            case "OK": {
-                status = Status.OK;
-                break;
-            }
-            case "FAILED": {
-                status = Status.FAILED;
-                break;
-            }
-            case "ERROR": {
-                status = Status.ERROR;
-                break;
+    /**
+     * Returns the current ingest, query and cache metrics.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server, named after the log directory, and returns the name
+     * they were registered under.
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName("logparser:type=LogParser,dir=" + ObjectName.quote(logDir.toString()));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        return name;
+    }
+
+    /**
+     * Returns the outcome of loading the log directory, including the lines that were skipped and why.
+     */
+    public IngestReport getIngestReport() {
+        return ingestReport;
+    }
+
+    private static int firstRow(EventStore store, Date after) {
+        return store.firstRowAfter(after == null ? 0 : after.getTime());
+    }
+
+    private static int endRow(EventStore store, Date before) {
+        return store.firstRowAtOrAfter(before == null ? Long.MAX_VALUE : before.getTime());
+    }
+
+    /**
+     * Collects the dictionary ids of a column over {@code [from, to)}, scanning runs of whole days in parallel.
+     */
+    private static BitSet ids(EventIndex index, IntUnaryOperator column, int from, int to) {
+        return ParallelScan.scan(index, from, to, BitSet::new, (ids, first, last) -> {
+            for (int row = first; row < last; row++) {
+                ids.set(column.applyAsInt(row));
             }
-        }
-        return status;
+        }, BitSet::or);
     }
 
-    private boolean dateBetweenDates(Date current, Date after, Date before) {
-        if (after == null) {
-            after = new Date(0);
-        }
-        if (before == null) {
-            before = new Date(Long.MAX_VALUE);
+    private Set<String> toStrings(Dictionary dictionary, BitSet ids) {
+        Set<String> result = new HashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result.add(dictionary.get(id));
         }
-        return current.after(after) && current.before(before);
+        return result;
+    }
+
+    private Set<String> getUsersForEvent(EventStore store, EventIndex index, Event event, Date after, Date before) {
+        int eventCode = event.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        BitSet users = new BitSet();
+        index.byEvent(eventCode).forEach(from, to, row -> users.set(store.getUserId(row)));
+        return toStrings(store.getUserDictionary(), users);
+    }
+
+    private RoaringBitmap taskRows(EventIndex index, int eventCode, int task) {
+        return RoaringBitmap.and(index.byEvent(eventCode), index.byTask(task));
+    }
+
+    private Set<String> getUsersForTask(EventStore store, EventIndex index,
+            Event event, int task, Date after, Date before) {
+        int eventCode = event.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        BitSet users = new BitSet();
+        taskRows(index, eventCode, task).forEach(from, to, row -> users.set(store.getUserId(row)));
+        return toStrings(store.getUserDictionary(), users);
     }
 
     @Override
     public Set<String> getAllUsers() {
-        Set<String> allUsers = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            allUsers.add(le.getUser());
-        }
-        return allUsers;
+        return cached("getAllUsers", Long.MIN_VALUE, Long.MAX_VALUE, (store, index) -> {
+            Set<String> allUsers = new HashSet<>();
+            Dictionary users = store.getUserDictionary();
+            for (int id = 0; id < users.size(); id++) {
+                allUsers.add(users.get(id));
+            }
+            return allUsers;
+        });
     }
 
     @Override
     public int getNumberOfUsers(Date after, Date before) {
-        Set<String> uniqueUsers = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (dateBetweenDates(le.getDate(), after, before))
-                uniqueUsers.add(le.getUser());
-        }
-        return uniqueUsers.size();
+        return cached("getNumberOfUsers", after, before, (store, index) ->
+                ids(index, store::getUserId, firstRow(store, after), endRow(store, before)).cardinality());
+    }
+
+    /**
+     * Estimates {@link #getNumberOfUsers} from the per-day sketches, like {@link #estimateNumberOfUniqueIPs}.
+     */
+    public int estimateNumberOfUsers(Date after, Date before) {
+        return cached("estimateNumberOfUsers", after, before, (store, index) ->
+                (int) index.estimateDistinctUsers(store, firstRow(store, after), endRow(store, before)));
     }
 
     @Override
     public int getNumberOfUserEvents(String user, Date after, Date before) {
-        Set<Event> uniqueEvents = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (user.equals(le.getUser()) && dateBetweenDates(le.getDate(), after, before))
-                uniqueEvents.add(le.getEvent());
-        }
-        return uniqueEvents.size();
+        return cached("getNumberOfUserEvents", after, before, (store, index) -> {
+            int userId = store.getUserDictionary().idOf(user);
+            return getEventsForUser(index, userId, firstRow(store, after), endRow(store, before)).size();
+        }, user);
     }
 
     @Override
     public Set<String> getUsersForIP(String ip, Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (ip.equals(le.getIp()) && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
+        return cached("getUsersForIP", after, before, (store, index) -> {
+            int ipId = store.getIpDictionary().idOf(ip);
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            BitSet users = new BitSet();
+            index.byIp(ipId).forEach(from, to, row -> users.set(store.getUserId(row)));
+            return toStrings(store.getUserDictionary(), users);
+        }, ip);
+    }
+
+    @Override
+    public Set<String> getUsersForSubnet(String subnet, Date after, Date before) {
+        return cached("getUsersForSubnet", after, before,
+                (store, index) -> getUsersForRange(store, index, IpRange.parse(subnet), after, before), subnet);
+    }
+
+    @Override
+    public Set<String> getUsersForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return cached("getUsersForIPRange", after, before,
+                (store, index) -> getUsersForRange(store, index, IpRange.of(firstIp, lastIp), after, before),
+                firstIp, lastIp);
+    }
+
+    private Set<String> getUsersForRange(EventStore store, EventIndex index, IpRange range, Date after, Date before) {
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        BitSet users = new BitSet();
+        for (int ipId : index.ipIdsInRange(range)) {
+            index.byIp(ipId).forEach(from, to, row -> users.set(store.getUserId(row)));
         }
-        return users;
+        return toStrings(store.getUserDictionary(), users);
     }
 
     @Override
     public Set<String> getLoggedUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.LOGIN && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getLoggedUsers", after, before,
+                (store, index) -> getUsersForEvent(store, index, Event.LOGIN, after, before));
     }
 
     @Override
     public Set<String> getDownloadedPluginUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.DOWNLOAD_PLUGIN && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getDownloadedPluginUsers", after, before,
+                (store, index) -> getUsersForEvent(store, index, Event.DOWNLOAD_PLUGIN, after, before));
     }
 
     @Override
     public Set<String> getWroteMessageUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.WRITE_MESSAGE && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getWroteMessageUsers", after, before,
+                (store, index) -> getUsersForEvent(store, index, Event.WRITE_MESSAGE, after, before));
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.SOLVE_TASK && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getSolvedTaskUsers", after, before,
+                (store, index) -> getUsersForEvent(store, index, Event.SOLVE_TASK, after, before));
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.SOLVE_TASK && le.getEventAdditionalParameter() == task &&
-                    dateBetweenDates(le.getDate(), after, before))
-
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getSolvedTaskUsers", after, before,
+                (store, index) -> getUsersForTask(store, index, Event.SOLVE_TASK, task, after, before), task);
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.DONE_TASK && dateBetweenDates(le.getDate(), after, before))
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getDoneTaskUsers", after, before,
+                (store, index) -> getUsersForEvent(store, index, Event.DONE_TASK, after, before));
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getEvent() == Event.DONE_TASK && le.getEventAdditionalParameter() == task &&
-                    dateBetweenDates(le.getDate(), after, before))
-
-                users.add(le.getUser());
-        }
-        return users;
+        return cached("getDoneTaskUsers", after, before,
+                (store, index) -> getUsersForTask(store, index, Event.DONE_TASK, task, after, before), task);
     }
 
     @Override
     public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
+        return getDatesForUserAndEvent("getDatesForUserAndEvent", user, event, after, before);
+    }
+
+    /**
+     * Records the call under the name of the query method that was called, which may be one of the methods
+     * for a fixed event.
+     */
+    private Set<Date> getDatesForUserAndEvent(String method, String user, Event event, Date after, Date before) {
+        return cached(method, after, before, (store, index) -> {
+            int userId = store.getUserDictionary().idOf(user);
+            int eventCode = event.ordinal();
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            Set<Date> dates = new HashSet<>();
+            index.forEachUserEvent(userId, eventCode, from, to, row -> dates.add(new Date(store.getTimestamp(row))));
+            return dates;
+        }, user, event);
+    }
+
+    private Set<Date> getDatesForStatus(EventStore store, EventIndex index, Status status, Date after, Date before) {
+        int statusCode = status.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
         Set<Date> dates = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == event &&
-                    dateBetweenDates(le.getDate(), after, before)) {
-
-                dates.add(le.getDate());
-            }
-        }
+        index.byStatus(statusCode).forEach(from, to, row -> dates.add(new Date(store.getTimestamp(row))));
         return dates;
     }
 
     @Override
     public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getStatus() == Status.FAILED &&
-                    dateBetweenDates(le.getDate(), after, before)) {
-
-                dates.add(le.getDate());
-            }
-        }
-        return dates;
+        return cached("getDatesWhenSomethingFailed", after, before,
+                (store, index) -> getDatesForStatus(store, index, Status.FAILED, after, before));
     }
 
     @Override
     public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getStatus() == Status.ERROR &&
-                    dateBetweenDates(le.getDate(), after, before)) {
+        return cached("getDatesWhenErrorHappened", after, before,
+                (store, index) -> getDatesForStatus(store, index, Status.ERROR, after, before));
+    }
 
-                dates.add(le.getDate());
-            }
-        }
-        return dates;
+    private Date getFirstDate(EventStore store, EventIndex index,
+            String user, Event event, int task, Date after, Date before) {
+        int userId = store.getUserDictionary().idOf(user);
+        int eventCode = event.ordinal();
+        int row = index.firstUserEvent(userId, eventCode, task, firstRow(store, after), endRow(store, before));
+        return row < 0 ? null : new Date(store.getTimestamp(row));
     }
 
     @Override
     public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
-        Date loggedFirstTime = new Date(Long.MAX_VALUE);
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == Event.LOGIN &&
-                    dateBetweenDates(le.getDate(), after, before) &&
-                    le.getDate().getTime() < loggedFirstTime.getTime()) {
-
-                loggedFirstTime = le.getDate();
-            }
-        }
-        return loggedFirstTime.getTime() == Long.MAX_VALUE ? null : loggedFirstTime;
+        return cached("getDateWhenUserLoggedFirstTime", after, before,
+                (store, index) -> getFirstDate(store, index, user, Event.LOGIN, EventStore.NO_TASK, after, before),
+                user);
     }
 
     @Override
     public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
-        Date solvedFirstTime = new Date(Long.MAX_VALUE);
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == Event.SOLVE_TASK &&
-                    le.getEventAdditionalParameter() == task &&
-                    dateBetweenDates(le.getDate(), after, before) &&
-                    le.getDate().getTime() < solvedFirstTime.getTime()) {
-
-                solvedFirstTime = le.getDate();
-            }
-        }
-        return solvedFirstTime.getTime() == Long.MAX_VALUE ? null : solvedFirstTime;
+        return cached("getDateWhenUserSolvedTask", after, before,
+                (store, index) -> getFirstDate(store, index, user, Event.SOLVE_TASK, task, after, before), user, task);
     }
 
     @Override
     public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
-        Date doneFirstTime = new Date(Long.MAX_VALUE);
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == Event.DONE_TASK &&
-                    le.getEventAdditionalParameter() == task &&
-                    dateBetweenDates(le.getDate(), after, before) &&
-                    le.getDate().getTime() < doneFirstTime.getTime()) {
-
-                doneFirstTime = le.getDate();
-            }
-        }
-        return doneFirstTime.getTime() == Long.MAX_VALUE ? null : doneFirstTime;
+        return cached("getDateWhenUserDoneTask", after, before,
+                (store, index) -> getFirstDate(store, index, user, Event.DONE_TASK, task, after, before), user, task);
     }
 
     @Override
     public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == Event.WRITE_MESSAGE &&
-                    dateBetweenDates(le.getDate(), after, before)) {
-
-                dates.add(le.getDate());
-            }
-        }
-        return dates;
+        return getDatesForUserAndEvent("getDatesWhenUserWroteMessage", user, Event.WRITE_MESSAGE, after, before);
     }
 
     @Override
     public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity le : logEntities) {
-            if (le.getUser().equals(user) && le.getEvent() == Event.DOWNLOAD_PLUGIN &&
-                    dateBetweenDates(le.getDate(), after, before)) {
-
-                dates.add(le.getDate());
-            }
-        }
-        return dates;
+        return getDatesForUserAndEvent("getDatesWhenUserDownloadedPlugin", user, Event.DOWNLOAD_PLUGIN, after,
+                before);
     }
 
     @Override
     public int getNumberOfAllEvents(Date after, Date before) {
-        return getAllEvents(after, before).size();
+        return cached("getNumberOfAllEvents", after, before,
+                (store, index) -> getAllEvents(store, index, after, before).size());
     }
 
     @Override
     public Set<Event> getAllEvents(Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                map(LogEntity::getEvent).
-                collect(Collectors.toSet());
+        return cached("getAllEvents", after, before, (store, index) -> getAllEvents(store, index, after, before));
+    }
+
+    private Set<Event> getAllEvents(EventStore store, EventIndex index, Date after, Date before) {
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        Set<Event> events = EnumSet.noneOf(Event.class);
+        for (Event event : Event.values()) {
+            if (index.byEvent(event.ordinal()).first(from, to) >= 0) {
+                events.add(event);
+            }
+        }
+        return events;
     }
 
     @Override
     public Set<Event> getEventsForIP(String ip, Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getIp().equals(ip)).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                map(LogEntity::getEvent).
-                collect(Collectors.toSet());
+        return cached("getEventsForIP", after, before, (store, index) -> {
+            int ipId = store.getIpDictionary().idOf(ip);
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            Set<Event> events = EnumSet.noneOf(Event.class);
+            index.byIp(ipId).forEach(from, to, row -> events.add(store.getEvent(row)));
+            return events;
+        }, ip);
+    }
+
+    @Override
+    public Set<Event> getEventsForSubnet(String subnet, Date after, Date before) {
+        return cached("getEventsForSubnet", after, before,
+                (store, index) -> getEventsForRange(store, index, IpRange.parse(subnet), after, before), subnet);
+    }
+
+    @Override
+    public Set<Event> getEventsForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return cached("getEventsForIPRange", after, before,
+                (store, index) -> getEventsForRange(store, index, IpRange.of(firstIp, lastIp), after, before),
+                firstIp, lastIp);
+    }
+
+    private Set<Event> getEventsForRange(EventStore store, EventIndex index, IpRange range, Date after, Date before) {
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        Set<Event> events = EnumSet.noneOf(Event.class);
+        for (int ipId : index.ipIdsInRange(range)) {
+            index.byIp(ipId).forEach(from, to, row -> events.add(store.getEvent(row)));
+        }
+        return events;
     }
 
     @Override
     public Set<Event> getEventsForUser(String user, Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getUser().equals(user)).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                map(LogEntity::getEvent).
-                collect(Collectors.toSet());
+        return cached("getEventsForUser", after, before, (store, index) -> {
+            int userId = store.getUserDictionary().idOf(user);
+            return getEventsForUser(index, userId, firstRow(store, after), endRow(store, before));
+        }, user);
+    }
+
+    private static Set<Event> getEventsForUser(EventIndex index, int userId, int from, int to) {
+        Set<Event> events = EnumSet.noneOf(Event.class);
+        for (Event event : Event.values()) {
+            if (index.firstUserEvent(userId, event.ordinal(), EventStore.NO_TASK, from, to) >= 0) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private Set<Event> getEventsForStatus(EventStore store, EventIndex index, Status status, Date after, Date before) {
+        int statusCode = status.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        Set<Event> events = EnumSet.noneOf(Event.class);
+        index.byStatus(statusCode).forEach(from, to, row -> events.add(store.getEvent(row)));
+        return events;
     }
 
     @Override
     public Set<Event> getFailedEvents(Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getStatus() == Status.FAILED).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                map(LogEntity::getEvent).
-                collect(Collectors.toSet());
+        return cached("getFailedEvents", after, before,
+                (store, index) -> getEventsForStatus(store, index, Status.FAILED, after, before));
     }
 
     @Override
     public Set<Event> getErrorEvents(Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getStatus() == Status.ERROR).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                map(LogEntity::getEvent).
-                collect(Collectors.toSet());
+        return cached("getErrorEvents", after, before,
+                (store, index) -> getEventsForStatus(store, index, Status.ERROR, after, before));
+    }
+
+    private int getNumberOfTaskEvents(EventStore store, EventIndex index,
+            Event event, int task, Date after, Date before) {
+        int eventCode = event.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        return index.countEventTask(store, eventCode, task, from, to);
     }
 
     @Override
     public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
-        return (int) logEntities.stream().
-                filter(logEntity -> logEntity.getEvent() == Event.SOLVE_TASK).
-                filter(logEntity -> logEntity.getEventAdditionalParameter() == task).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                count();
+        return cached("getNumberOfAttemptToSolveTask", after, before,
+                (store, index) -> getNumberOfTaskEvents(store, index, Event.SOLVE_TASK, task, after, before), task);
     }
 
     @Override
     public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
-        return (int) logEntities.stream().
-                filter(logEntity -> logEntity.getEvent() == Event.DONE_TASK).
-                filter(logEntity -> logEntity.getEventAdditionalParameter() == task).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                count();
+        return cached("getNumberOfSuccessfulAttemptToSolveTask", after, before,
+                (store, index) -> getNumberOfTaskEvents(store, index, Event.DONE_TASK, task, after, before), task);
+    }
+
+    private Map<Integer, Integer> getAllTasksAndTheirNumber(EventStore store, EventIndex index,
+            Event event, Date after, Date before) {
+        int eventCode = event.ordinal();
+        int from = firstRow(store, after);
+        int to = endRow(store, before);
+        return index.countTasks(store, eventCode, from, to).toMap();
     }
 
     @Override
     public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getEvent() == Event.SOLVE_TASK).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                collect(Collectors.toMap(LogEntity::getEventAdditionalParameter,
-                        logEntity -> getNumberOfAttemptToSolveTask(logEntity.getEventAdditionalParameter(), after, before),
-                        (task, number) -> task));
+        return cached("getAllSolvedTasksAndTheirNumber", after, before,
+                (store, index) -> getAllTasksAndTheirNumber(store, index, Event.SOLVE_TASK, after, before));
     }
 
     @Override
     public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
-        return logEntities.stream().
-                filter(logEntity -> logEntity.getEvent() == Event.DONE_TASK).
-                filter(logEntity -> dateBetweenDates(logEntity.getDate(), after, before)).
-                collect(Collectors.toMap(LogEntity::getEventAdditionalParameter,
-                        logEntity -> getNumberOfSuccessfulAttemptToSolveTask(logEntity.getEventAdditionalParameter(), after, before),
-                        (task, number) -> task));
+        return cached("getAllDoneTasksAndTheirNumber", after, before,
+                (store, index) -> getAllTasksAndTheirNumber(store, index, Event.DONE_TASK, after, before));
     }
 
     @Override
-    public Set<Object> execute(String query) {
-        String get;
-        String filter = null;
-        String value = null;
-        String after = null;
-        String before = null;
-        Pattern pattern = Pattern.compile("get (ip|user|date|event|status)"
-                + "( for (ip|user|date|event|status) = \"(.*?)\")?" + "( and date between \"(.*?)\" and \"(.*?)\")?");
-        Matcher matcher = pattern.matcher(query);
-        matcher.find();
-        get = matcher.group(1);
-        if (matcher.group(2) != null) {
-            filter = matcher.group(3);
-            value = matcher.group(4);
-        }
+    public Map<String, Integer> getTopUsers(int k, Date after, Date before) {
+        return getTopUsers(k, null, after, before);
+    }
 
-        if (matcher.group(5) != null) {
-            after = matcher.group(6);
-            before = matcher.group(7);
-        }
+    @Override
+    public Map<String, Integer> getTopUsers(int k, Status status, Date after, Date before) {
+        return cached("getTopUsers", after, before, (store, index) -> toMap(index.topUsers(store, statusCode(status),
+                k, firstRow(store, after), endRow(store, before)), store.getUserDictionary()::get), k, status);
+    }
 
+    @Override
+    public Map<String, Integer> getTopIPs(int k, Date after, Date before) {
+        return getTopIPs(k, null, after, before);
+    }
 
-        List<LogEntity> filteredLogEntities = logEntities;
-        if (filter != null && value != null) {
-            String finValue = value;
-            switch (filter) {
-                case "ip":
-                    filteredLogEntities = logEntities.stream().
-                            filter(logEntity -> logEntity.getIp().equals(finValue)).
-                            collect(Collectors.toList());
-                    break;
-                case "user":
-                    filteredLogEntities = logEntities.stream().
-                            filter(logEntity -> logEntity.getUser().equals(finValue)).
-                            collect(Collectors.toList());
-                    break;
-                case "date":
-                    try {
-                        Date vDate = simpleDateFormat.parse(finValue);
-                        filteredLogEntities = logEntities.stream().
-                                filter(logEntity -> logEntity.getDate().getTime() == vDate.getTime()).
-                                collect(Collectors.toList());
-                    } catch (ParseException e) {
-                        e.printStackTrace();
-                    }
-                    break;
-                case "event":
-                    filteredLogEntities = logEntities.stream().
-                            filter(logEntity -> logEntity.getEvent() == Event.valueOf(finValue)).
-                            collect(Collectors.toList());
-                    break;
-                case "status":
-                    filteredLogEntities = logEntities.stream().
-                            filter(logEntity -> logEntity.getStatus() == Status.valueOf(finValue)).
-                            collect(Collectors.toList());
-                    break;
-            }
-        }
+    @Override
+    public Map<String, Integer> getTopIPs(int k, Status status, Date after, Date before) {
+        return cached("getTopIPs", after, before, (store, index) -> toMap(index.topIps(store, statusCode(status),
+                k, firstRow(store, after), endRow(store, before)), store.getIpDictionary()::get), k, status);
+    }
 
-        if (after != null && before != null) {
-            try {
-                Date afterDate = simpleDateFormat.parse(after);
-                Date beforeDate = simpleDateFormat.parse(before);
-                filteredLogEntities = filteredLogEntities.stream().
-                        filter(logEntity -> dateBetweenDates(logEntity.getDate(), afterDate, beforeDate)).
-                        collect(Collectors.toList());
+    @Override
+    public Map<Integer, Integer> getTopTasks(int k, Date after, Date before) {
+        return getTopTasks(k, null, after, before);
+    }
 
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    public Map<Integer, Integer> getTopTasks(int k, Status status, Date after, Date before) {
+        return cached("getTopTasks", after, before, (store, index) -> toMap(index.topTasks(store, statusCode(status),
+                k, firstRow(store, after), endRow(store, before)), task -> task), k, status);
+    }
 
-        switch (get) {
-            case "ip":
-                return filteredLogEntities.stream().map(LogEntity::getIp).collect(Collectors.toSet());
-            case "user":
-                return filteredLogEntities.stream().map(LogEntity::getUser).collect(Collectors.toSet());
-            case "date":
-                return filteredLogEntities.stream().map(LogEntity::getDate).collect(Collectors.toSet());
-            case "event":
-                return filteredLogEntities.stream().map(LogEntity::getEvent).collect(Collectors.toSet());
-            case "status":
-                return filteredLogEntities.stream().map(LogEntity::getStatus).collect(Collectors.toSet());
-            default:
-                return null;
-        }
+    @Override
+    public Map<Event, Integer> getTopEvents(int k, Date after, Date before) {
+        return getTopEvents(k, null, after, before);
     }
 
-    private class LogEntity {
-        private String ip;
-        private String user;
-        private Date date;
-        private Event event;
-        private int eventAdditionalParameter;
-        private Status status;
-
-        public LogEntity(String ip, String user, Date date, Event event, int eventAdditionalParameter, Status status) {
-            this.ip = ip;
-            this.user = user;
-            this.date = date;
-            this.event = event;
-            this.eventAdditionalParameter = eventAdditionalParameter;
-            this.status = status;
-        }
+    @Override
+    public Map<Event, Integer> getTopEvents(int k, Status status, Date after, Date before) {
+        return cached("getTopEvents", after, before, (store, index) -> toMap(index.topEvents(statusCode(status),
+                k, firstRow(store, after), endRow(store, before)), EventStore::eventOf), k, status);
+    }
 
-        public String getIp() {
-            return ip;
-        }
+    @Override
+    public Map<String, Long> getTaskConversionTimes(int task, Date after, Date before) {
+        return cached("getTaskConversionTimes", after, before, (store, index) -> {
+            int from = firstRow(store, after);
+            int to = endRow(store, before);
+            Dictionary users = store.getUserDictionary();
+            Map<String, Long> times = new HashMap<>();
+            for (int userId = 0; userId < users.size(); userId++) {
+                int login = index.firstUserEvent(userId, Event.LOGIN.ordinal(), EventStore.NO_TASK, from, to);
+                if (login < 0) {
+                    continue;
+                }
+                int solve = index.firstUserEvent(userId, Event.SOLVE_TASK.ordinal(), task, login + 1, to);
+                if (solve < 0) {
+                    continue;
+                }
+                int done = index.firstUserEvent(userId, Event.DONE_TASK.ordinal(), task, solve + 1, to);
+                if (done >= 0) {
+                    times.put(users.get(userId), store.getTimestamp(done) - store.getTimestamp(login));
+                }
+            }
+            return times;
+        }, task);
+    }
 
-        public String getUser() {
-            return user;
-        }
+    @Override
+    public Map<Date, Date> getUserSessions(String user, long maxGapMillis, Date after, Date before) {
+        return cached("getUserSessions", after, before, (store, index) -> {
+            int userId = store.getUserDictionary().idOf(user);
+            Map<Date, Date> sessions = new LinkedHashMap<>();
+            long[] session = {Long.MIN_VALUE, Long.MIN_VALUE};
+            index.byUser(userId).forEach(firstRow(store, after), endRow(store, before), row -> {
+                long timestamp = store.getTimestamp(row);
+                if (session[0] != Long.MIN_VALUE && timestamp - session[1] > maxGapMillis) {
+                    sessions.put(new Date(session[0]), new Date(session[1]));
+                    session[0] = Long.MIN_VALUE;
+                }
+                if (session[0] == Long.MIN_VALUE) {
+                    session[0] = timestamp;
+                }
+                session[1] = timestamp;
+            });
+            if (session[0] != Long.MIN_VALUE) {
+                sessions.put(new Date(session[0]), new Date(session[1]));
+            }
+            return sessions;
+        }, user, maxGapMillis);
+    }
 
-        public Date getDate() {
-            return date;
-        }
+    private static int statusCode(Status status) {
+        return status == null ? -1 : status.ordinal();
+    }
 
-        public Event getEvent() {
-            return event;
+    private static <T> Map<T, Integer> toMap(TopCounts top, IntFunction<T> decoder) {
+        Map<T, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < top.size(); i++) {
+            result.put(decoder.apply(top.getValue(i)), top.getCount(i));
         }
+        return result;
+    }
 
-        public int getEventAdditionalParameter() {
-            return eventAdditionalParameter;
-        }
+    @Override
+    public Set<Object> execute(String query) {
+        return execute(query, new Object[0]);
+    }
 
-        public Status getStatus() {
-            return status;
-        }
+    @Override
+    public Set<Object> execute(String query, Object... parameters) {
+        QueryPlan plan = planCache.get(query);
+        long[] window = plan.getTimeWindow(parameters);
+        Object[] arguments = new Object[parameters.length + 1];
+        arguments[0] = query;
+        System.arraycopy(parameters, 0, arguments, 1, parameters.length);
+        return cached(metrics.queryShape(plan.getQuery().getShape()), "execute", window[0], window[1],
+                (store, index) -> plan.execute(store, index, parameters), arguments);
+    }
+
+    /**
+     * A query over one snapshot of the data.
+     */
+    private interface SnapshotQuery<T> {
+        T run(EventStore store, EventIndex index);
     }
-}
\ No newline at end of file
+}
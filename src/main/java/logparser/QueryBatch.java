@@ -0,0 +1,114 @@
+package logparser;
+
+import logparser.ingest.EventSink;
+import logparser.ql.PlanCache;
+import logparser.query.LogQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Collects queries and answers all of them in a single pass over the data, routing every row to the
+ * accumulator of each query. A report of N queries then costs one pass instead of N:
+ * <pre>
+ * QueryBatch batch = parser.newBatch();
+ * QueryBatch.Result&lt;Set&lt;String&gt;&gt; ips = batch.add(query -&gt; query.getUniqueIPs(null, null));
+ * QueryBatch.Result&lt;Set&lt;Object&gt;&gt; users = batch.add("get user for event = ?", Event.LOGIN);
+ * batch.execute();
+ * ips.get();
+ * </pre>
+ * Each call passed to {@link #add(Function)} must make exactly one query method call on the view it is given;
+ * the value that call returns is only a placeholder. A batch is executed once and is not thread-safe.
+ */
+public class QueryBatch {
+    private final RowSource source;
+    private final LogQuery view;
+    private final List<Result<?>> results = new ArrayList<>();
+    private final List<EventSink> sinks = new ArrayList<>();
+    private Result<?> recording;
+    private boolean executed;
+
+    QueryBatch(RowSource source, PlanCache planCache) {
+        this.source = source;
+        this.view = new StreamingLogParser(source, planCache, this);
+    }
+
+    public <T> Result<T> add(Function<LogQuery, T> call) {
+        if (executed) {
+            throw new IllegalStateException("The batch has already been executed");
+        }
+        Result<T> result = new Result<>();
+        recording = result;
+        try {
+            call.apply(view);
+        } finally {
+            recording = null;
+        }
+        if (result.value == null) {
+            throw new IllegalArgumentException("A batched call must make exactly one query");
+        }
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Adds a QL query with {@code ?} parameters.
+     */
+    public Result<Set<Object>> add(String query, Object... parameters) {
+        return add(view -> view.execute(query, parameters));
+    }
+
+    /**
+     * Answers every query added so far in one pass over the data.
+     */
+    public void execute() throws IOException {
+        if (executed) {
+            throw new IllegalStateException("The batch has already been executed");
+        }
+        executed = true;
+        EventSink[] targets = sinks.toArray(new EventSink[0]);
+        source.scan((ip, user, timestamp, event, task, status, file) -> {
+            for (EventSink target : targets) {
+                target.add(ip, user, timestamp, event, task, status, file);
+            }
+        });
+        for (Result<?> result : results) {
+            result.done = true;
+        }
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Called by the view for the query of the call being added.
+     */
+    void record(EventSink sink, Supplier<?> value) {
+        if (recording == null || recording.value != null) {
+            throw new IllegalArgumentException("A batched call must make exactly one query");
+        }
+        recording.value = value;
+        sinks.add(sink);
+    }
+
+    /**
+     * The answer to one query of a batch, available once the batch has been executed.
+     */
+    public static class Result<T> {
+        private Supplier<?> value;
+        private boolean done;
+
+        @SuppressWarnings("unchecked")
+        public T get() {
+            if (!done) {
+                throw new IllegalStateException("The batch has not been executed yet");
+            }
+            return (T) value.get();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package logparser;
+
+import logparser.ingest.EventSink;
+
+import java.io.IOException;
+
+/**
+ * Passes every row of a data set to a sink, in one pass.
+ */
+interface RowSource {
+    void scan(EventSink sink) throws IOException;
+}
@@ -11,6 +11,8 @@ public class Solution {
         System.out.println(logParser.getIPsForUser("Vasya Pupkin", null, null));
         System.out.println(logParser.getIPsForEvent(Event.SOLVE_TASK, null, null));
         System.out.println(logParser.getIPsForStatus(Status.FAILED, null, null));
+        System.out.println(logParser.getIPsForSubnet("146.34.0.0/16", null, null));
+        System.out.println(logParser.getUsersForSubnet("192.168.0.0/16", null, null));
         System.out.println(logParser.getAllUsers());
         System.out.println(logParser.getNumberOfUsers(null, null));
         System.out.println(logParser.getNumberOfUserEvents("Vasya Pupkin", null, null));
@@ -31,6 +33,11 @@ public class Solution {
         System.out.println(logParser.getAllSolvedTasksAndTheirNumber(null, null));
         System.out.println(logParser.getAllDoneTasksAndTheirNumber(null, null));
         System.out.println(logParser.execute("get ip for user = \"Eduard Petrovich Morozko\" and date between \"11.12.2013 0:00:00\" and \"03.01.2014 23:59:59\""));
+        System.out.println(logParser.execute("get count for event = \"SOLVE_TASK\" and status = \"OK\" and task = 18"));
+        System.out.println(logParser.execute("get user for event = ? and date between ? and ?", Event.LOGIN,
+                "1.1.2013 0:00:00", "1.1.2015 0:00:00"));
+        System.out.println(logParser.getResultCache());
+        System.out.print(logParser.getMetrics());
 
     }
 }
\ No newline at end of file
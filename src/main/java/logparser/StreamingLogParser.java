@@ -0,0 +1,472 @@
+package logparser;
+
+import logparser.ingest.EventSink;
+import logparser.ingest.IngestPipeline;
+import logparser.ingest.IngestReport;
+import logparser.ingest.TimestampDecoder;
+import logparser.ql.PlanCache;
+import logparser.ql.StreamingQuery;
+import logparser.query.LogQuery;
+import logparser.store.IntCounts;
+import logparser.store.IpRange;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Answers the same queries as {@link LogParser} without loading the logs. Every call makes one pass over the
+ * log files through the ingest pipeline and keeps only what its answer needs: the distinct values, a counter
+ * or an earliest date. Memory therefore scales with the result and not with the logs, which makes this the
+ * parser for directories that do not fit in the heap. Over data that fits, {@link LogParser} answers
+ * repeated queries far faster.
+ * <p>
+ * Several queries can share a single pass through a {@link QueryBatch} from {@link #newBatch()}.
+ */
+public class StreamingLogParser implements LogQuery {
+    private static final int PLAN_CACHE_SIZE = 256;
+
+    private RowSource source;
+    private PlanCache planCache;
+    private QueryBatch recordingBatch;
+    private IngestReport ingestReport = new IngestReport();
+
+    public StreamingLogParser(Path logDir) {
+        this(logDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StreamingLogParser(Path logDir, int ingestThreads) {
+        this.source = sink -> scanFiles(logDir, ingestThreads, sink);
+        this.planCache = new PlanCache(PLAN_CACHE_SIZE, new TimestampDecoder());
+    }
+
+    /**
+     * Creates the view a {@link QueryBatch} hands to its calls: instead of scanning, every query is recorded in
+     * the batch and answered with its empty result.
+     */
+    StreamingLogParser(RowSource source, PlanCache planCache, QueryBatch recordingBatch) {
+        this.source = source;
+        this.planCache = planCache;
+        this.recordingBatch = recordingBatch;
+    }
+
+    /**
+     * Returns a batch whose queries are answered together in one pass over the log files.
+     */
+    public QueryBatch newBatch() {
+        return new QueryBatch(source, planCache);
+    }
+
+    /**
+     * Returns the outcome of the most recent pass over the log directory.
+     */
+    public IngestReport getIngestReport() {
+        return ingestReport;
+    }
+
+    private void scanFiles(Path logDir, int ingestThreads, EventSink sink) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
+            for (Path file : directoryStream) {
+                if (IngestPipeline.isLogFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        IngestReport report = new IngestReport();
+        new IngestPipeline(ingestThreads).stream(files, sink, report);
+        ingestReport = report;
+    }
+
+    /**
+     * Runs one pass feeding the sink and returns the result it accumulated.
+     */
+    private <T> T evaluate(EventSink sink, Supplier<T> result) {
+        if (recordingBatch != null) {
+            recordingBatch.record(sink, result);
+        } else {
+            try {
+                source.scan(sink);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return result.get();
+    }
+
+    /**
+     * Passes every row strictly between {@code after} and {@code before} to the consumer together with the
+     * accumulator, then finishes the accumulator into the result.
+     */
+    private <A, T> T evaluate(Date after, Date before, A accumulator, RowConsumer<A> consumer,
+                              Function<A, T> finisher) {
+        long from = after == null ? 0 : after.getTime();
+        long to = before == null ? Long.MAX_VALUE : before.getTime();
+        Row row = new Row();
+        EventSink sink = (ip, user, timestamp, event, task, status, source) -> {
+            if (timestamp > from && timestamp < to) {
+                row.ip = ip;
+                row.user = user;
+                row.timestamp = timestamp;
+                row.event = event;
+                row.task = task;
+                row.status = status;
+                consumer.accept(row, accumulator);
+            }
+        };
+        return evaluate(sink, () -> finisher.apply(accumulator));
+    }
+
+    private <A> A evaluate(Date after, Date before, A accumulator, RowConsumer<A> consumer) {
+        return evaluate(after, before, accumulator, consumer, Function.identity());
+    }
+
+    @Override
+    public int getNumberOfUniqueIPs(Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> ips.add(row.ip), Set::size);
+    }
+
+    @Override
+    public Set<String> getUniqueIPs(Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> ips.add(row.ip));
+    }
+
+    @Override
+    public Set<String> getIPsForUser(String user, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> {
+            if (row.user.equals(user)) {
+                ips.add(row.ip);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getIPsForEvent(Event event, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> {
+            if (row.event == event) {
+                ips.add(row.ip);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getIPsForStatus(Status status, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> {
+            if (row.status == status) {
+                ips.add(row.ip);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getIPsForSubnet(String subnet, Date after, Date before) {
+        return getIPsForRange(IpRange.parse(subnet), after, before);
+    }
+
+    @Override
+    public Set<String> getIPsInRange(String firstIp, String lastIp, Date after, Date before) {
+        return getIPsForRange(IpRange.of(firstIp, lastIp), after, before);
+    }
+
+    private Set<String> getIPsForRange(IpRange range, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, ips) -> {
+            if (range.contains(IpRange.pack(row.ip))) {
+                ips.add(row.ip);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getAllUsers() {
+        Set<String> users = new HashSet<>();
+        return evaluate((ip, user, timestamp, event, task, status, source) -> users.add(user), () -> users);
+    }
+
+    @Override
+    public int getNumberOfUsers(Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, users) -> users.add(row.user), Set::size);
+    }
+
+    @Override
+    public int getNumberOfUserEvents(String user, Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> {
+            if (row.user.equals(user)) {
+                events.add(row.event);
+            }
+        }, Set::size);
+    }
+
+    @Override
+    public Set<String> getUsersForIP(String ip, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, users) -> {
+            if (row.ip.equals(ip)) {
+                users.add(row.user);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getUsersForSubnet(String subnet, Date after, Date before) {
+        return getUsersForRange(IpRange.parse(subnet), after, before);
+    }
+
+    @Override
+    public Set<String> getUsersForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return getUsersForRange(IpRange.of(firstIp, lastIp), after, before);
+    }
+
+    private Set<String> getUsersForRange(IpRange range, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, users) -> {
+            if (range.contains(IpRange.pack(row.ip))) {
+                users.add(row.user);
+            }
+        });
+    }
+
+    private Set<String> getUsersForEvent(Event event, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, users) -> {
+            if (row.event == event) {
+                users.add(row.user);
+            }
+        });
+    }
+
+    private Set<String> getUsersForTask(Event event, int task, Date after, Date before) {
+        return evaluate(after, before, new HashSet<String>(), (row, users) -> {
+            if (row.event == event && row.task == task) {
+                users.add(row.user);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getLoggedUsers(Date after, Date before) {
+        return getUsersForEvent(Event.LOGIN, after, before);
+    }
+
+    @Override
+    public Set<String> getDownloadedPluginUsers(Date after, Date before) {
+        return getUsersForEvent(Event.DOWNLOAD_PLUGIN, after, before);
+    }
+
+    @Override
+    public Set<String> getWroteMessageUsers(Date after, Date before) {
+        return getUsersForEvent(Event.WRITE_MESSAGE, after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before) {
+        return getUsersForEvent(Event.SOLVE_TASK, after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
+        return getUsersForTask(Event.SOLVE_TASK, task, after, before);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before) {
+        return getUsersForEvent(Event.DONE_TASK, after, before);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
+        return getUsersForTask(Event.DONE_TASK, task, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
+        return evaluate(after, before, new HashSet<Date>(), (row, dates) -> {
+            if (row.event == event && row.user.equals(user)) {
+                dates.add(new Date(row.timestamp));
+            }
+        });
+    }
+
+    private Set<Date> getDatesForStatus(Status status, Date after, Date before) {
+        return evaluate(after, before, new HashSet<Date>(), (row, dates) -> {
+            if (row.status == status) {
+                dates.add(new Date(row.timestamp));
+            }
+        });
+    }
+
+    @Override
+    public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
+        return getDatesForStatus(Status.FAILED, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
+        return getDatesForStatus(Status.ERROR, after, before);
+    }
+
+    /**
+     * Files are not in time order, so the earliest matching timestamp is tracked over the whole pass.
+     */
+    private Date getFirstDate(String user, Event event, Integer task, Date after, Date before) {
+        return evaluate(after, before, new long[]{Long.MAX_VALUE}, (row, first) -> {
+            if (row.event == event && (task == null || row.task == task) && row.timestamp < first[0]
+                    && row.user.equals(user)) {
+                first[0] = row.timestamp;
+            }
+        }, first -> first[0] == Long.MAX_VALUE ? null : new Date(first[0]));
+    }
+
+    @Override
+    public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
+        return getFirstDate(user, Event.LOGIN, null, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
+        return getFirstDate(user, Event.SOLVE_TASK, task, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
+        return getFirstDate(user, Event.DONE_TASK, task, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
+        return getDatesForUserAndEvent(user, Event.WRITE_MESSAGE, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
+        return getDatesForUserAndEvent(user, Event.DOWNLOAD_PLUGIN, after, before);
+    }
+
+    @Override
+    public int getNumberOfAllEvents(Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> events.add(row.event),
+                Set::size);
+    }
+
+    @Override
+    public Set<Event> getAllEvents(Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> events.add(row.event));
+    }
+
+    @Override
+    public Set<Event> getEventsForIP(String ip, Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> {
+            if (row.ip.equals(ip)) {
+                events.add(row.event);
+            }
+        });
+    }
+
+    @Override
+    public Set<Event> getEventsForSubnet(String subnet, Date after, Date before) {
+        return getEventsForRange(IpRange.parse(subnet), after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return getEventsForRange(IpRange.of(firstIp, lastIp), after, before);
+    }
+
+    private Set<Event> getEventsForRange(IpRange range, Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> {
+            if (range.contains(IpRange.pack(row.ip))) {
+                events.add(row.event);
+            }
+        });
+    }
+
+    @Override
+    public Set<Event> getEventsForUser(String user, Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> {
+            if (row.user.equals(user)) {
+                events.add(row.event);
+            }
+        });
+    }
+
+    private Set<Event> getEventsForStatus(Status status, Date after, Date before) {
+        return evaluate(after, before, EnumSet.noneOf(Event.class), (row, events) -> {
+            if (row.status == status) {
+                events.add(row.event);
+            }
+        });
+    }
+
+    @Override
+    public Set<Event> getFailedEvents(Date after, Date before) {
+        return getEventsForStatus(Status.FAILED, after, before);
+    }
+
+    @Override
+    public Set<Event> getErrorEvents(Date after, Date before) {
+        return getEventsForStatus(Status.ERROR, after, before);
+    }
+
+    private int getNumberOfTaskEvents(Event event, int task, Date after, Date before) {
+        return evaluate(after, before, new int[1], (row, count) -> {
+            if (row.event == event && row.task == task) {
+                count[0]++;
+            }
+        }, count -> count[0]);
+    }
+
+    @Override
+    public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
+        return getNumberOfTaskEvents(Event.SOLVE_TASK, task, after, before);
+    }
+
+    @Override
+    public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
+        return getNumberOfTaskEvents(Event.DONE_TASK, task, after, before);
+    }
+
+    private Map<Integer, Integer> getAllTasksAndTheirNumber(Event event, Date after, Date before) {
+        return evaluate(after, before, new IntCounts(), (row, counts) -> {
+            if (row.event == event && row.task >= 0) {
+                counts.increment(row.task);
+            }
+        }, IntCounts::toMap);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
+        return getAllTasksAndTheirNumber(Event.SOLVE_TASK, after, before);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
+        return getAllTasksAndTheirNumber(Event.DONE_TASK, after, before);
+    }
+
+    @Override
+    public Set<Object> execute(String query) {
+        return execute(query, new Object[0]);
+    }
+
+    @Override
+    public Set<Object> execute(String query, Object... parameters) {
+        StreamingQuery streamingQuery = planCache.get(query).stream(parameters);
+        return evaluate(streamingQuery, streamingQuery::result);
+    }
+
+    private interface RowConsumer<A> {
+        void accept(Row row, A accumulator);
+    }
+
+    /**
+     * The current row of a pass; one instance is reused for all rows.
+     */
+    private static class Row {
+        private String ip;
+        private String user;
+        private long timestamp;
+        private Event event;
+        private int task;
+        private Status status;
+    }
+}
@@ -0,0 +1,293 @@
+package logparser.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Results of query methods keyed by method name and arguments. Every entry remembers the time window its
+ * result was computed from, as exclusive bounds on the timestamps, so that newly ingested rows only evict
+ * the entries whose window they fall into. Entries are also dropped after a time to live and, beyond the
+ * capacity, in least recently used order.
+ * <p>
+ * Cached sets and maps are returned as unmodifiable views. Dates are mutable, so a result that holds any,
+ * on its own or in a set, list or map, is copied on the way out, with every date cloned.
+ * <p>
+ * Results carry the epoch of the data version they were computed from. Invalidation moves the cache to the
+ * new epoch, and a result computed from an older version while new rows were published is returned to its
+ * caller but not stored, since its window may be missing the new rows.
+ */
+public class ResultCache {
+    private final int capacity;
+    private final long timeToLiveNanos;
+    private final Map<Key, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+    private long epoch;
+
+    public ResultCache(int capacity, long timeToLive, TimeUnit unit) {
+        this.capacity = capacity;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > ResultCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the method and arguments, computing and caching it on a miss.
+     *
+     * @param epoch  the version of the data the query reads
+     * @param after  exclusive lower bound of the timestamps the result depends on
+     * @param before exclusive upper bound of the timestamps the result depends on
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String method, long epoch, long after, long before, Supplier<T> query, Object... arguments) {
+        Key key = new Key(method, after, before, arguments);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created > timeToLiveNanos) {
+                entries.remove(key);
+                expirations++;
+                entry = null;
+            }
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (entry == null) {
+            Object result = query.get();
+            entry = new Entry(freeze(result), holdsDates(result), System.nanoTime());
+            synchronized (this) {
+                if (epoch >= this.epoch) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+        return (T) (entry.dated ? copy(entry.result) : entry.result);
+    }
+
+    /**
+     * Moves the cache to a new version of the data and drops the entries whose window contains any of the
+     * timestamps. Must be called before the version is published to queries.
+     *
+     * @param epoch      the new version
+     * @param timestamps timestamps of newly added rows, sorted ascending
+     */
+    public synchronized void invalidate(long epoch, long[] timestamps) {
+        this.epoch = Math.max(this.epoch, epoch);
+        if (timestamps.length == 0) {
+            return;
+        }
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            int index = firstAfter(timestamps, key.after);
+            if (index < timestamps.length && timestamps[index] < key.before) {
+                keys.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Moves the cache to a new version of the data and drops the entries whose window overlaps
+     * {@code [first, last]}, for rows removed between those timestamps.
+     */
+    public synchronized void invalidate(long epoch, long first, long last) {
+        this.epoch = Math.max(this.epoch, epoch);
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            if (key.after < last && key.before > first) {
+                keys.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + ", evictions="
+                + evictions + ", expirations=" + expirations + ", invalidations=" + invalidations + "}";
+    }
+
+    private static int firstAfter(long[] timestamps, long timestamp) {
+        int low = 0;
+        int high = timestamps.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static Object freeze(Object result) {
+        if (result instanceof Set) {
+            return Collections.unmodifiableSet((Set<?>) result);
+        }
+        if (result instanceof Map) {
+            return Collections.unmodifiableMap((Map<?, ?>) result);
+        }
+        if (result instanceof List) {
+            return Collections.unmodifiableList((List<?>) result);
+        }
+        return result;
+    }
+
+    private static boolean holdsDates(Object result) {
+        if (result instanceof Collection) {
+            for (Object element : (Collection<?>) result) {
+                if (element instanceof Date) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (result instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) result).entrySet()) {
+                if (entry.getKey() instanceof Date || entry.getValue() instanceof Date) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return result instanceof Date;
+    }
+
+    private static Object copy(Object result) {
+        if (result instanceof Set) {
+            Set<Object> copy = new LinkedHashSet<>();
+            for (Object element : (Set<?>) result) {
+                copy.add(copy(element));
+            }
+            return Collections.unmodifiableSet(copy);
+        }
+        if (result instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) result).entrySet()) {
+                copy.put(copy(entry.getKey()), copy(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        if (result instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<?>) result) {
+                copy.add(copy(element));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        return result instanceof Date ? ((Date) result).clone() : result;
+    }
+
+    private static class Entry {
+        private final Object result;
+        private final boolean dated;
+        private final long created;
+
+        Entry(Object result, boolean dated, long created) {
+            this.result = result;
+            this.dated = dated;
+            this.created = created;
+        }
+    }
+
+    private static class Key {
+        private final String method;
+        private final long after;
+        private final long before;
+        private final Object[] arguments;
+        private final int hash;
+
+        Key(String method, long after, long before, Object[] arguments) {
+            this.method = method;
+            this.after = after;
+            this.before = before;
+            this.arguments = arguments.clone();
+            for (int i = 0; i < this.arguments.length; i++) {
+                if (this.arguments[i] instanceof Date) {
+                    // Dates are mutable; key on the instant.
+                    this.arguments[i] = ((Date) this.arguments[i]).getTime();
+                }
+            }
+            this.hash = Objects.hash(method, after, before, Arrays.hashCode(this.arguments));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return after == key.after && before == key.before && method.equals(key.method)
+                    && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
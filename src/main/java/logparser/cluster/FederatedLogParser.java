@@ -0,0 +1,524 @@
+package logparser.cluster;
+
+import logparser.Event;
+import logparser.Status;
+import logparser.ql.Query;
+import logparser.ql.QueryParser;
+import logparser.query.LogQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Answers the queries of a {@link LogQuery} over the logs of many hosts, each loaded by its own
+ * {@link WorkerServer}. Every call is sent to all workers at once and their partial results are merged: sets
+ * are united, counts of rows are summed, counts of distinct values are taken from the united values, the
+ * earliest of the first dates is kept and task counts are added per task. QL counts are summed, while distinct
+ * counts and top values are computed again from the values and full counts of every worker. An approximate
+ * distinct count is answered exactly the same way, since the estimates of the workers cannot be added up.
+ * <p>
+ * A worker that fails or does not answer within the timeout is left out, so the result covers the other
+ * workers only; {@link #getLastFailures()} tells which workers are missing from the last result. Arguments that
+ * a worker rejects are rejected here with the same {@link IllegalArgumentException}.
+ */
+public class FederatedLogParser implements LogQuery, Closeable {
+    private static final Pattern COUNT_DISTINCT = Pattern.compile("^\\s*get\\s+(approx\\s+)?count\\s+distinct\\s+",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern TOP = Pattern.compile("^(\\s*get\\s+top\\s+)[0-9]+", Pattern.CASE_INSENSITIVE);
+    /**
+     * The largest number a QL top query takes, which asks a worker for the counts of all values.
+     */
+    private static final String ALL_VALUES = "999999999";
+
+    private final List<InetSocketAddress> workers;
+    private final long timeoutMillis;
+    private final ExecutorService calls = Executors.newCachedThreadPool();
+    /**
+     * Idle connections per worker, reused by later calls; a connection is dropped after any failure.
+     */
+    private final Map<InetSocketAddress, ConcurrentLinkedDeque<Connection>> idle = new HashMap<>();
+    /**
+     * Set by {@link #close()}, after which calls still in flight close their connections instead of keeping
+     * them idle.
+     */
+    private volatile boolean closed;
+    private final ThreadLocal<Map<InetSocketAddress, String>> lastFailures = ThreadLocal.withInitial(Map::of);
+
+    public FederatedLogParser(List<InetSocketAddress> workers, long timeout, TimeUnit unit) {
+        this.workers = List.copyOf(workers);
+        this.timeoutMillis = unit.toMillis(timeout);
+        for (InetSocketAddress worker : this.workers) {
+            idle.put(worker, new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    /**
+     * Runs one QL query over the workers, given as {@code host:port} separated by commas, and prints the
+     * result and the workers that did not answer.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FederatedLogParser <host:port>[,<host:port>...] <query> [timeout millis]");
+            System.exit(1);
+        }
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (String worker : args[0].split(",")) {
+            int colon = worker.lastIndexOf(':');
+            workers.add(new InetSocketAddress(worker.substring(0, colon),
+                    Integer.parseInt(worker.substring(colon + 1))));
+        }
+        long timeout = args.length > 2 ? Long.parseLong(args[2]) : 10_000;
+        try (FederatedLogParser parser = new FederatedLogParser(workers, timeout, TimeUnit.MILLISECONDS)) {
+            System.out.println(parser.execute(args[1]));
+            parser.getLastFailures().forEach((worker, reason) -> System.err.println(worker + ": " + reason));
+        }
+    }
+
+    /**
+     * Returns the workers that the last query of the calling thread left out, with the reason; empty when the
+     * result was complete.
+     */
+    public Map<InetSocketAddress, String> getLastFailures() {
+        return lastFailures.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        calls.shutdownNow();
+        for (ConcurrentLinkedDeque<Connection> connections : idle.values()) {
+            closeAll(connections);
+        }
+    }
+
+    private static void closeAll(ConcurrentLinkedDeque<Connection> connections) {
+        Connection connection;
+        while ((connection = connections.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public int getNumberOfUniqueIPs(Date after, Date before) {
+        return getUniqueIPs(after, before).size();
+    }
+
+    @Override
+    public Set<String> getUniqueIPs(Date after, Date before) {
+        return union("getUniqueIPs", after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForUser(String user, Date after, Date before) {
+        return union("getIPsForUser", user, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForEvent(Event event, Date after, Date before) {
+        return union("getIPsForEvent", event, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForStatus(Status status, Date after, Date before) {
+        return union("getIPsForStatus", status, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForSubnet(String subnet, Date after, Date before) {
+        return union("getIPsForSubnet", subnet, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsInRange(String firstIp, String lastIp, Date after, Date before) {
+        return union("getIPsInRange", firstIp, lastIp, after, before);
+    }
+
+    @Override
+    public Set<String> getAllUsers() {
+        return union("getAllUsers");
+    }
+
+    @Override
+    public int getNumberOfUsers(Date after, Date before) {
+        return union("execute", "get user for date between ? and ?",
+                new Object[]{bound(after, Long.MIN_VALUE), bound(before, Long.MAX_VALUE)}).size();
+    }
+
+    @Override
+    public int getNumberOfUserEvents(String user, Date after, Date before) {
+        return getEventsForUser(user, after, before).size();
+    }
+
+    @Override
+    public Set<String> getUsersForIP(String ip, Date after, Date before) {
+        return union("getUsersForIP", ip, after, before);
+    }
+
+    @Override
+    public Set<String> getUsersForSubnet(String subnet, Date after, Date before) {
+        return union("getUsersForSubnet", subnet, after, before);
+    }
+
+    @Override
+    public Set<String> getUsersForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return union("getUsersForIPRange", firstIp, lastIp, after, before);
+    }
+
+    @Override
+    public Set<String> getLoggedUsers(Date after, Date before) {
+        return union("getLoggedUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getDownloadedPluginUsers(Date after, Date before) {
+        return union("getDownloadedPluginUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getWroteMessageUsers(Date after, Date before) {
+        return union("getWroteMessageUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before) {
+        return union("getSolvedTaskUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
+        return union("getSolvedTaskUsers", after, before, task);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before) {
+        return union("getDoneTaskUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
+        return union("getDoneTaskUsers", after, before, task);
+    }
+
+    @Override
+    public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
+        return union("getDatesForUserAndEvent", user, event, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
+        return union("getDatesWhenSomethingFailed", after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
+        return union("getDatesWhenErrorHappened", after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
+        return earliest("getDateWhenUserLoggedFirstTime", user, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
+        return earliest("getDateWhenUserSolvedTask", user, task, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
+        return earliest("getDateWhenUserDoneTask", user, task, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
+        return union("getDatesWhenUserWroteMessage", user, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
+        return union("getDatesWhenUserDownloadedPlugin", user, after, before);
+    }
+
+    @Override
+    public int getNumberOfAllEvents(Date after, Date before) {
+        return getAllEvents(after, before).size();
+    }
+
+    @Override
+    public Set<Event> getAllEvents(Date after, Date before) {
+        return union("getAllEvents", after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForIP(String ip, Date after, Date before) {
+        return union("getEventsForIP", ip, after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForSubnet(String subnet, Date after, Date before) {
+        return union("getEventsForSubnet", subnet, after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForIPRange(String firstIp, String lastIp, Date after, Date before) {
+        return union("getEventsForIPRange", firstIp, lastIp, after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForUser(String user, Date after, Date before) {
+        return union("getEventsForUser", user, after, before);
+    }
+
+    @Override
+    public Set<Event> getFailedEvents(Date after, Date before) {
+        return union("getFailedEvents", after, before);
+    }
+
+    @Override
+    public Set<Event> getErrorEvents(Date after, Date before) {
+        return union("getErrorEvents", after, before);
+    }
+
+    @Override
+    public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
+        return sum("getNumberOfAttemptToSolveTask", task, after, before);
+    }
+
+    @Override
+    public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
+        return sum("getNumberOfSuccessfulAttemptToSolveTask", task, after, before);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
+        return sumPerKey("getAllSolvedTasksAndTheirNumber", after, before);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
+        return sumPerKey("getAllDoneTasksAndTheirNumber", after, before);
+    }
+
+    @Override
+    public Set<Object> execute(String query) {
+        return execute(query, new Object[0]);
+    }
+
+    /**
+     * Parses the query here, so a query with a syntax error is never sent, and merges the results by its
+     * projection.
+     */
+    @Override
+    public Set<Object> execute(String query, Object... parameters) {
+        Query parsed = QueryParser.parse(query);
+        Set<Object> result = new HashSet<>();
+        if (parsed.isCount()) {
+            int count = 0;
+            for (Object partial : fanOut("execute", query, parameters)) {
+                count += (Integer) ((Collection<?>) partial).iterator().next();
+            }
+            result.add(count);
+        } else if (parsed.isCountDistinct()) {
+            result.add(union("execute", COUNT_DISTINCT.matcher(query).replaceFirst("get "), parameters).size());
+        } else if (parsed.getTop() > 0) {
+            return top(TOP.matcher(query).replaceFirst("$1" + ALL_VALUES), parameters, parsed.getTop());
+        } else {
+            result.addAll(union("execute", query, parameters));
+        }
+        return result;
+    }
+
+    /**
+     * Adds up the counts of every value over the workers and keeps the {@code k} most frequent, ties in the
+     * order of the values' text.
+     */
+    private Set<Object> top(String query, Object[] parameters, int k) {
+        Map<Object, Integer> counts = new HashMap<>();
+        for (Object partial : fanOut("execute", query, parameters)) {
+            for (Object element : (Collection<?>) partial) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                counts.merge(entry.getKey(), (Integer) entry.getValue(), Integer::sum);
+            }
+        }
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<Object, Integer>comparingByValue().reversed()
+                .thenComparing(entry -> String.valueOf(entry.getKey())));
+        Set<Object> result = new LinkedHashSet<>();
+        for (Map.Entry<Object, Integer> entry : entries.subList(0, Math.min(k, entries.size()))) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+        }
+        return result;
+    }
+
+    private static Date bound(Date date, long unbounded) {
+        return date == null ? new Date(unbounded) : date;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Set<T> union(String method, Object... arguments) {
+        Set<T> union = new HashSet<>();
+        for (Object partial : fanOut(method, arguments)) {
+            union.addAll((Collection<T>) partial);
+        }
+        return union;
+    }
+
+    private int sum(String method, Object... arguments) {
+        int sum = 0;
+        for (Object partial : fanOut(method, arguments)) {
+            sum += (Integer) partial;
+        }
+        return sum;
+    }
+
+    private Date earliest(String method, Object... arguments) {
+        Date earliest = null;
+        for (Object partial : fanOut(method, arguments)) {
+            Date date = (Date) partial;
+            if (date != null && (earliest == null || date.before(earliest))) {
+                earliest = date;
+            }
+        }
+        return earliest;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Integer> sumPerKey(String method, Object... arguments) {
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (Object partial : fanOut(method, arguments)) {
+            ((Map<Integer, Integer>) partial).forEach((key, count) -> sums.merge(key, count, Integer::sum));
+        }
+        return sums;
+    }
+
+    /**
+     * Sends the call to every worker at once and returns the results of those that answered within the
+     * timeout, recording the others as the calling thread's last failures. Arguments that a worker rejects are
+     * rejected once every worker has been heard from, so the last failures still cover the call.
+     */
+    private List<Object> fanOut(String method, Object... arguments) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Future<Object>> futures = new ArrayList<>();
+        for (InetSocketAddress worker : workers) {
+            futures.add(calls.submit(() -> call(worker, method, arguments)));
+        }
+        List<Object> results = new ArrayList<>();
+        Map<InetSocketAddress, String> failures = new LinkedHashMap<>();
+        IllegalArgumentException rejected = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    failures.put(workers.get(i), "No answer within " + timeoutMillis + " ms");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IllegalArgumentException) {
+                        if (rejected == null) {
+                            rejected = (IllegalArgumentException) e.getCause();
+                        }
+                    } else {
+                        failures.put(workers.get(i), String.valueOf(e.getCause()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the workers", e);
+        } finally {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+        lastFailures.set(failures);
+        if (rejected != null) {
+            throw rejected;
+        }
+        return results;
+    }
+
+    private Object call(InetSocketAddress worker, String method, Object[] arguments) throws IOException {
+        if (closed) {
+            throw new IOException("The coordinator is closed");
+        }
+        Connection connection = idle.get(worker).poll();
+        if (connection == null) {
+            connection = new Connection(worker, (int) timeoutMillis);
+        }
+        try {
+            Wire.writeRequest(connection.out, method, arguments);
+            connection.out.flush();
+            byte status = connection.in.readByte();
+            Object result = status == Wire.OK ? Wire.read(connection.in) : Wire.readString(connection.in);
+            idle.get(worker).push(connection);
+            if (closed) {
+                // close() may have gone over the idle connections before this one was put back.
+                closeAll(idle.get(worker));
+            }
+            if (status == Wire.BAD_ARGUMENT) {
+                throw new IllegalArgumentException((String) result);
+            }
+            if (status != Wire.OK) {
+                throw new IOException("Worker failed: " + result);
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            if (!(e instanceof IllegalArgumentException)) {
+                connection.close();
+            }
+            throw e;
+        }
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(InetSocketAddress worker, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(worker, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package logparser.cluster;
+
+import logparser.Event;
+import logparser.Status;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The protocol between a {@link FederatedLogParser} and its {@link WorkerServer}s. A request is the name of a
+ * query method and its arguments; a response is a status byte followed by the result or an error message.
+ * Values are written with a one-byte tag: query arguments and results only ever hold nulls, numbers, strings,
+ * dates, events, statuses, sets, maps, map entries and argument arrays. Sets and maps keep their order.
+ */
+class Wire {
+    static final byte OK = 0;
+    static final byte BAD_ARGUMENT = 1;
+    static final byte FAILED = 2;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte STRING = 3;
+    private static final byte DATE = 4;
+    private static final byte EVENT = 5;
+    private static final byte STATUS = 6;
+    private static final byte SET = 7;
+    private static final byte MAP = 8;
+    private static final byte ENTRY = 9;
+    private static final byte ARRAY = 10;
+
+    private static final Event[] EVENTS = Event.values();
+    private static final Status[] STATUSES = Status.values();
+
+    static void writeRequest(DataOutput out, String method, Object[] arguments) throws IOException {
+        writeString(out, method);
+        out.writeInt(arguments.length);
+        for (Object argument : arguments) {
+            write(out, argument);
+        }
+    }
+
+    static void write(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Event) {
+            out.writeByte(EVENT);
+            out.writeByte(((Event) value).ordinal());
+        } else if (value instanceof Status) {
+            out.writeByte(STATUS);
+            out.writeByte(((Status) value).ordinal());
+        } else if (value instanceof Collection) {
+            out.writeByte(SET);
+            out.writeInt(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                write(out, element);
+            }
+        } else if (value instanceof Map) {
+            out.writeByte(MAP);
+            out.writeInt(((Map<?, ?>) value).size());
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else if (value instanceof Map.Entry) {
+            out.writeByte(ENTRY);
+            write(out, ((Map.Entry<?, ?>) value).getKey());
+            write(out, ((Map.Entry<?, ?>) value).getValue());
+        } else if (value instanceof Object[]) {
+            out.writeByte(ARRAY);
+            out.writeInt(((Object[]) value).length);
+            for (Object element : (Object[]) value) {
+                write(out, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot send a " + value.getClass().getName());
+        }
+    }
+
+    static Object read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case STRING:
+                return readString(in);
+            case DATE:
+                return new Date(in.readLong());
+            case EVENT:
+                return EVENTS[in.readByte()];
+            case STATUS:
+                return STATUSES[in.readByte()];
+            case SET: {
+                int size = in.readInt();
+                Set<Object> set = new LinkedHashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(read(in));
+                }
+                return set;
+            }
+            case MAP: {
+                int size = in.readInt();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(read(in), read(in));
+                }
+                return map;
+            }
+            case ENTRY:
+                return new AbstractMap.SimpleImmutableEntry<>(read(in), read(in));
+            case ARRAY: {
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = read(in);
+                }
+                return array;
+            }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
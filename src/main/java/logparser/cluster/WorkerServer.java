@@ -0,0 +1,162 @@
+package logparser.cluster;
+
+import logparser.LogParser;
+import logparser.query.LogQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves the queries of a {@link LogQuery} to {@link FederatedLogParser} coordinators over TCP. Each
+ * connection is handled on a thread of its own and carries requests one after another; a request names a
+ * method of {@link LogQuery} and gives its arguments, and is answered with the result or with the error it
+ * raised.
+ */
+public class WorkerServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+
+    private final LogQuery parser;
+    private final ServerSocket socket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    /**
+     * Accepted connections that are still being served. Coordinators keep connections open between requests,
+     * so closing the server socket alone would leave them served.
+     */
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    /**
+     * Query methods by name and number of parameters, which tells the overloads apart.
+     */
+    private final Map<String, Method> methods = new HashMap<>();
+
+    public WorkerServer(LogQuery parser, InetSocketAddress address) throws IOException {
+        this.parser = parser;
+        for (Method method : LogQuery.class.getMethods()) {
+            methods.put(method.getName() + "/" + method.getParameterCount(), method);
+        }
+        socket = new ServerSocket();
+        socket.bind(address);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: WorkerServer <log directory> [port]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        LogParser parser = new LogParser(Paths.get(args[0]));
+        parser.startTailing();
+        WorkerServer server = new WorkerServer(parser, new InetSocketAddress(port));
+        server.start();
+        System.out.println("Serving " + args[0] + " to coordinators on " + server.getAddress());
+    }
+
+    public void start() {
+        new Thread(this::accept, "worker-server-" + socket.getLocalPort()).start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(socket.getInetAddress(), socket.getLocalPort());
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Socket connection : open) {
+            connection.close();
+        }
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                open.add(connection);
+                try {
+                    connections.execute(() -> serve(connection));
+                } catch (RejectedExecutionException e) {
+                    connection.close();
+                }
+                if (socket.isClosed()) {
+                    // The server was closed while the connection was being accepted, after close() went over
+                    // the open connections.
+                    connection.close();
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setTcpNoDelay(true);
+            while (true) {
+                String name;
+                try {
+                    name = Wire.readString(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                Object[] arguments = new Object[in.readInt()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = Wire.read(in);
+                }
+                respond(out, name, arguments);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The coordinator closed the connection, usually after giving up on a slow answer, or the server
+            // was closed.
+        } finally {
+            open.remove(connection);
+        }
+    }
+
+    private void respond(DataOutputStream out, String name, Object[] arguments) throws IOException {
+        Method method = methods.get(name + "/" + arguments.length);
+        Object result;
+        try {
+            if (method == null) {
+                throw new IllegalArgumentException("No query method " + name + " with " + arguments.length
+                        + " arguments");
+            }
+            result = method.invoke(parser, arguments);
+        } catch (InvocationTargetException e) {
+            fail(out, e.getCause());
+            return;
+        } catch (IllegalArgumentException | IllegalAccessException e) {
+            fail(out, e);
+            return;
+        }
+        out.writeByte(Wire.OK);
+        Wire.write(out, result);
+    }
+
+    private static void fail(DataOutputStream out, Throwable error) throws IOException {
+        out.writeByte(error instanceof IllegalArgumentException ? Wire.BAD_ARGUMENT : Wire.FAILED);
+        Wire.writeString(out, String.valueOf(error.getMessage()));
+    }
+}
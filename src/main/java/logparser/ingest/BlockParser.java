@@ -0,0 +1,88 @@
+package logparser.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Splits blocks of log bytes into lines and tokenizes them into {@link EventBatch}es, handing every full batch
+ * to a sink. Skipped lines are recorded in the {@link IngestReport}. Instances are not thread-safe.
+ */
+class BlockParser {
+    static final int BATCH_SIZE = 8192;
+
+    private final Charset charset;
+    private final LineTokenizer tokenizer;
+    private final IngestReport report;
+    private final BatchSink sink;
+    private EventBatch batch = new EventBatch(BATCH_SIZE);
+    private long loadedLines;
+
+    BlockParser(Charset charset, TimestampDecoder timestampDecoder, IngestReport report, BatchSink sink) {
+        this.charset = charset;
+        this.tokenizer = new LineTokenizer(charset, timestampDecoder);
+        this.report = report;
+        this.sink = sink;
+    }
+
+    /**
+     * Parses every line in {@code [0, end)} of the block. The block starts at byte {@code offset} of the file.
+     */
+    void parse(Path file, long offset, ByteBuffer block, int end) throws InterruptedException {
+        String source = file.getFileName().toString();
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && block.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int terminator = lineEnd;
+            if (lineEnd > lineStart && block.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                parseLine(file, source, offset, block, lineStart, lineEnd, terminator == end);
+            }
+            lineStart = terminator + 1;
+        }
+    }
+
+    /**
+     * Parses one line. A skipped line without a newline at the end of a block is the end of a file that may
+     * still be being written, so it is also reported as unfinished.
+     */
+    private void parseLine(Path file, String source, long offset, ByteBuffer block, int lineStart, int lineEnd,
+                           boolean unterminated) throws InterruptedException {
+        LineError error = tokenizer.parse(block, lineStart, lineEnd, source, batch);
+        if (error == null) {
+            loadedLines++;
+        } else {
+            byte[] line = new byte[lineEnd - lineStart];
+            block.get(lineStart, line);
+            report.addSkipped(error, file, offset + lineStart, new String(line, charset));
+            if (unterminated) {
+                report.addUnfinished(file, offset + lineStart);
+            }
+        }
+        if (batch.isFull()) {
+            sink.accept(batch);
+            batch = new EventBatch(BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Hands over the partially filled batch and records the number of loaded lines.
+     */
+    void flush() throws InterruptedException {
+        report.addLoaded(loadedLines);
+        loadedLines = 0;
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+            batch = new EventBatch(BATCH_SIZE);
+        }
+    }
+
+    interface BatchSink {
+        void accept(EventBatch batch) throws InterruptedException;
+    }
+}
@@ -0,0 +1,55 @@
+package logparser.ingest;
+
+import logparser.Event;
+import logparser.Status;
+
+/**
+ * Fixed-size block of parsed rows handed from a parser worker to the appending thread.
+ */
+class EventBatch {
+    static final EventBatch END = new EventBatch(0);
+
+    private final String[] ips;
+    private final String[] users;
+    private final long[] timestamps;
+    private final Event[] events;
+    private final int[] tasks;
+    private final Status[] statuses;
+    private final String[] sources;
+    private int size;
+
+    EventBatch(int capacity) {
+        ips = new String[capacity];
+        users = new String[capacity];
+        timestamps = new long[capacity];
+        events = new Event[capacity];
+        tasks = new int[capacity];
+        statuses = new Status[capacity];
+        sources = new String[capacity];
+    }
+
+    void add(String ip, String user, long timestamp, Event event, int task, Status status, String source) {
+        ips[size] = ip;
+        users[size] = user;
+        timestamps[size] = timestamp;
+        events[size] = event;
+        tasks[size] = task;
+        statuses[size] = status;
+        sources[size] = source;
+        size++;
+    }
+
+    boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void appendTo(EventSink sink) {
+        for (int i = 0; i < size; i++) {
+            sink.add(ips[i], users[i], timestamps[i], events[i], tasks[i], statuses[i], sources[i]);
+        }
+    }
+}
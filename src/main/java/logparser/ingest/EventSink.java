@@ -0,0 +1,11 @@
+package logparser.ingest;
+
+import logparser.Event;
+import logparser.Status;
+
+/**
+ * Receives parsed rows in the order the pipeline hands them over. {@code EventStore::add} is one.
+ */
+public interface EventSink {
+    void add(String ip, String user, long timestamp, Event event, int task, Status status, String source);
+}
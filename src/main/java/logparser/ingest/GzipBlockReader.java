@@ -0,0 +1,316 @@
+package logparser.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a gzip file into blocks that end on a line boundary, for the parser workers of an
+ * {@link IngestPipeline}. Block offsets count uncompressed bytes.
+ * <p>
+ * Files made of several gzip members, as written by bgzip, by {@code pigz --independent} or by concatenating
+ * compressed rotations, are inflated member by member on a pool of decoders. Member starts are found by
+ * scanning for gzip headers; as a header signature can also occur inside compressed data, every candidate is
+ * inflated speculatively and only the members that chain from the start of the file, each ending where the
+ * next begins with a matching CRC, are used. Single-member files and files with large members are inflated
+ * as one stream instead.
+ */
+class GzipBlockReader {
+    private static final int BLOCK_SIZE = 4 << 20;
+    private static final int READ_SIZE = 64 << 10;
+    private static final long MAX_PARALLEL_MEMBER = 64L << 20;
+
+    private final ExecutorService decoders;
+    private final int parallelism;
+
+    interface BlockSink {
+        void accept(long offset, ByteBuffer bytes) throws InterruptedException;
+    }
+
+    GzipBlockReader(ExecutorService decoders, int parallelism) {
+        this.decoders = decoders;
+        this.parallelism = parallelism;
+    }
+
+    static boolean isGzip(Path file) {
+        return file.toString().toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Passes the blocks of the file to the sink and returns the compressed size.
+     */
+    long read(Path file, BlockSink sink) throws IOException, InterruptedException {
+        LineBlocks blocks = new LineBlocks(sink);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Integer> members = null;
+            MappedByteBuffer compressed = null;
+            if (parallelism > 1 && size <= Integer.MAX_VALUE) {
+                compressed = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                compressed.order(ByteOrder.LITTLE_ENDIAN);
+                members = findMembers(compressed);
+            }
+            if (members != null && members.size() > 1 && membersAreSmall(compressed, members)) {
+                readMembers(compressed, members, blocks);
+            } else {
+                readStream(file, blocks);
+            }
+            blocks.finish();
+            return size;
+        }
+    }
+
+    private void readStream(Path file, LineBlocks blocks) throws IOException, InterruptedException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), READ_SIZE)) {
+            byte[] chunk = new byte[READ_SIZE];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                blocks.write(chunk, 0, read);
+            }
+        }
+    }
+
+    private void readMembers(ByteBuffer compressed, List<Integer> candidates, LineBlocks blocks)
+            throws IOException, InterruptedException {
+        Deque<Integer> offsets = new ArrayDeque<>();
+        Deque<Future<Member>> decoded = new ArrayDeque<>();
+        int next = 0;
+        int position = 0;
+        try {
+            while (true) {
+                while (decoded.size() < parallelism && next < candidates.size()) {
+                    int offset = candidates.get(next++);
+                    offsets.add(offset);
+                    decoded.add(decoders.submit(() -> decodeMember(compressed, offset)));
+                }
+                if (decoded.isEmpty()) {
+                    break;
+                }
+                int offset = offsets.poll();
+                Future<Member> member = decoded.poll();
+                if (offset < position) {
+                    // A header signature inside the compressed data of a member already read.
+                    member.cancel(true);
+                    continue;
+                }
+                if (offset > position) {
+                    position = readMember(compressed, position, blocks);
+                }
+                if (offset == position) {
+                    Member result = get(member);
+                    blocks.write(result.data, 0, result.length);
+                    position = result.end;
+                } else {
+                    member.cancel(true);
+                }
+            }
+            while (position < compressed.limit() && isHeader(compressed, position)) {
+                position = readMember(compressed, position, blocks);
+            }
+        } finally {
+            for (Future<Member> member : decoded) {
+                member.cancel(true);
+            }
+        }
+    }
+
+    private int readMember(ByteBuffer compressed, int offset, LineBlocks blocks)
+            throws IOException, InterruptedException {
+        Member member = decodeMember(compressed, offset);
+        blocks.write(member.data, 0, member.length);
+        return member.end;
+    }
+
+    private Member get(Future<Member> member) throws IOException, InterruptedException {
+        try {
+            return member.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Decompression failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the offsets of everything that looks like a gzip member header.
+     */
+    private static List<Integer> findMembers(ByteBuffer compressed) {
+        List<Integer> members = new ArrayList<>();
+        for (int i = 0; i + 10 <= compressed.limit(); i++) {
+            if (isHeader(compressed, i)) {
+                members.add(i);
+            }
+        }
+        return members;
+    }
+
+    private static boolean isHeader(ByteBuffer buffer, int offset) {
+        if (offset + 10 > buffer.limit() || buffer.get(offset) != 0x1f || buffer.get(offset + 1) != (byte) 0x8b
+                || buffer.get(offset + 2) != 8 || (buffer.get(offset + 3) & 0xe0) != 0) {
+            return false;
+        }
+        int extraFlags = buffer.get(offset + 8);
+        int os = buffer.get(offset + 9) & 0xff;
+        return (extraFlags == 0 || extraFlags == 2 || extraFlags == 4) && (os <= 13 || os == 255);
+    }
+
+    /**
+     * Checks the uncompressed sizes recorded in the trailers in front of each candidate, so that parallel
+     * decoding never holds more than a few small members in memory.
+     */
+    private static boolean membersAreSmall(ByteBuffer compressed, List<Integer> members) {
+        for (int i = 1; i <= members.size(); i++) {
+            int end = i < members.size() ? members.get(i) : compressed.limit();
+            if (end - 4 < 0 || Integer.toUnsignedLong(compressed.getInt(end - 4)) > MAX_PARALLEL_MEMBER) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Member decodeMember(ByteBuffer compressed, int offset) throws IOException {
+        int flags = compressed.get(offset + 3);
+        int position = offset + 10;
+        if ((flags & 4) != 0) {
+            position += 2 + (compressed.getShort(position) & 0xffff);
+        }
+        if ((flags & 8) != 0) {
+            position = skipString(compressed, position);
+        }
+        if ((flags & 16) != 0) {
+            position = skipString(compressed, position);
+        }
+        if ((flags & 2) != 0) {
+            position += 2;
+        }
+        if (position >= compressed.limit()) {
+            throw new ZipException("Truncated gzip header at " + offset);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed.slice(position, compressed.limit() - position));
+            int expected = compressed.limit() >= 4 ? compressed.getInt(compressed.limit() - 4) : 0;
+            byte[] data = new byte[(int) Math.min(Math.max(expected, READ_SIZE), MAX_PARALLEL_MEMBER)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated gzip member at " + offset);
+                }
+                length += inflated;
+            }
+            int end = position + (int) inflater.getBytesRead();
+            if (end + 8 > compressed.limit()) {
+                throw new ZipException("Truncated gzip trailer at " + offset);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if (compressed.getInt(end) != (int) crc.getValue() || compressed.getInt(end + 4) != length) {
+                throw new ZipException("Corrupt gzip member at " + offset);
+            }
+            return new Member(data, length, end + 8);
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt gzip member at " + offset + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int skipString(ByteBuffer buffer, int position) {
+        while (position < buffer.limit() && buffer.get(position) != 0) {
+            position++;
+        }
+        return position + 1;
+    }
+
+    private static class Member {
+        private final byte[] data;
+        private final int length;
+        private final int end;
+
+        Member(byte[] data, int length, int end) {
+            this.data = data;
+            this.length = length;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Collects uncompressed bytes and hands them on in blocks of about {@link #BLOCK_SIZE} that end after a
+     * newline. Every block gets its own array, since the workers parse it while the next one fills.
+     */
+    private static class LineBlocks {
+        private final BlockSink sink;
+        private byte[] buffer = new byte[BLOCK_SIZE];
+        private int length;
+        private long offset;
+
+        LineBlocks(BlockSink sink) {
+            this.sink = sink;
+        }
+
+        void write(byte[] data, int start, int count) throws InterruptedException {
+            while (count > 0) {
+                if (length == buffer.length) {
+                    flushLines();
+                }
+                int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(data, start, buffer, length, copied);
+                length += copied;
+                start += copied;
+                count -= copied;
+            }
+        }
+
+        void finish() throws InterruptedException {
+            if (length > 0) {
+                emit(length);
+            }
+        }
+
+        private void flushLines() throws InterruptedException {
+            int end = length;
+            while (end > 0 && buffer[end - 1] != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                // A single line fills the whole buffer.
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                return;
+            }
+            emit(end);
+        }
+
+        private void emit(int end) throws InterruptedException {
+            byte[] rest = new byte[Math.max(BLOCK_SIZE, length - end)];
+            System.arraycopy(buffer, end, rest, 0, length - end);
+            sink.accept(offset, ByteBuffer.wrap(buffer, 0, end).slice());
+            offset += end;
+            length -= end;
+            buffer = rest;
+        }
+    }
+}
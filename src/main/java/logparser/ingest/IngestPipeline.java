@@ -0,0 +1,253 @@
+package logparser.ingest;
+
+import logparser.store.EventStore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads log files into an {@link EventStore} in three stages connected by bounded queues:
+ * a reader memory-maps each file and cuts it into blocks that end on a line boundary, a pool of workers
+ * tokenizes blocks into {@link EventBatch}es, and the calling thread appends the batches to the store.
+ * The bounded queues also let the rows be streamed through an {@link EventSink} in constant memory.
+ * <p>
+ * Gzip-compressed logs are inflated by the reader stage, with the members of multi-member files decoded
+ * on a pool of decoders, so decompression overlaps with parsing.
+ */
+public class IngestPipeline {
+    private static final long REGION_SIZE = 256L << 20;
+    private static final int BLOCK_SIZE = 4 << 20;
+    private static final Block END_OF_BLOCKS = new Block(null, 0, null);
+
+    private final int workers;
+    private final long regionSize;
+    private final long maxRegionSize;
+    private final TimestampDecoder timestampDecoder = new TimestampDecoder();
+    private final BlockingQueue<Block> blocks;
+    private final BlockingQueue<EventBatch> batches;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Tells whether the file is a log the pipeline can read: a {@code .log} file or a gzip-compressed
+     * {@code .log.gz} file.
+     */
+    public static boolean isLogFile(Path file) {
+        String name = file.toString().toLowerCase();
+        return name.endsWith(".log") || name.endsWith(".log.gz");
+    }
+
+    public IngestPipeline(int workers) {
+        this(workers, REGION_SIZE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param regionSize    bytes of a file mapped at a time
+     * @param maxRegionSize the most a region grows to hold one long line; a longer line fails its file
+     */
+    IngestPipeline(int workers, long regionSize, long maxRegionSize) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required: " + workers);
+        }
+        this.workers = workers;
+        this.regionSize = regionSize;
+        this.maxRegionSize = maxRegionSize;
+        this.blocks = new ArrayBlockingQueue<>(workers * 2);
+        this.batches = new ArrayBlockingQueue<>(workers * 4);
+    }
+
+    public IngestReport ingest(List<Path> files, EventStore store) throws IOException {
+        return ingest(files, store, new IngestReport());
+    }
+
+    /**
+     * Loads the files into the store and adds the outcome to an existing report.
+     */
+    public IngestReport ingest(List<Path> files, EventStore store, IngestReport report) throws IOException {
+        return stream(files, store::add, report);
+    }
+
+    /**
+     * Parses the files and passes every row to the sink on the calling thread, without keeping any of them.
+     */
+    public IngestReport stream(List<Path> files, EventSink sink, IngestReport report) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 1);
+        ExecutorService decoders = files.stream().anyMatch(GzipBlockReader::isGzip)
+                ? Executors.newFixedThreadPool(workers) : null;
+        try {
+            GzipBlockReader gzipReader = new GzipBlockReader(decoders, workers);
+            executor.execute(() -> run(() -> readFiles(files, gzipReader, report)));
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> run(() -> parseBlocks(report)));
+            }
+            appendBatches(sink);
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Log ingestion was interrupted");
+        } finally {
+            executor.shutdownNow();
+            if (decoders != null) {
+                decoders.shutdownNow();
+            }
+        }
+    }
+
+    private void appendBatches(EventSink sink) throws IOException, InterruptedException {
+        int finishedWorkers = 0;
+        while (finishedWorkers < workers) {
+            EventBatch batch = batches.poll(100, TimeUnit.MILLISECONDS);
+            checkFailure();
+            if (batch == EventBatch.END) {
+                finishedWorkers++;
+            } else if (batch != null) {
+                batch.appendTo(sink);
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause != null) {
+            throw new IOException("Log ingestion failed", cause);
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            task.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Queues the blocks of every file. A file that cannot be read is recorded in the report with the bytes
+     * queued before the error, and the next file is read, as a malformed line is skipped.
+     */
+    private void readFiles(List<Path> files, GzipBlockReader gzipReader, IngestReport report)
+            throws InterruptedException {
+        for (Path file : files) {
+            long[] position = new long[1];
+            try {
+                if (GzipBlockReader.isGzip(file)) {
+                    report.addFile(file, gzipReader.read(file,
+                            (offset, bytes) -> blocks.put(new Block(file, offset, bytes))));
+                } else {
+                    report.addFile(file, readFile(file, position));
+                }
+            } catch (IOException e) {
+                report.addFile(file, position[0]);
+                report.addFailed(file, String.valueOf(e.getMessage()));
+            }
+        }
+        for (int i = 0; i < workers; i++) {
+            blocks.put(END_OF_BLOCKS);
+        }
+    }
+
+    /**
+     * Queues the blocks of the file and returns the number of bytes read. The position holds the end of the
+     * blocks queued so far, for a read that fails.
+     */
+    private long readFile(Path file, long[] position) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long regionSize = this.regionSize;
+            while (position[0] < size) {
+                int length = (int) Math.min(regionSize, size - position[0]);
+                boolean lastRegion = position[0] + length == size;
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position[0], length);
+                int offset = 0;
+                while (offset < length) {
+                    int blockEnd = lineEndAfter(region, Math.min(offset + BLOCK_SIZE, length) - 1, length);
+                    if (blockEnd < 0) {
+                        blockEnd = lastRegion ? length : lastLineEnd(region, offset, length);
+                        if (blockEnd <= offset) {
+                            break;
+                        }
+                    }
+                    blocks.put(new Block(file, position[0] + offset, region.slice(offset, blockEnd - offset)));
+                    offset = blockEnd;
+                }
+                if (offset == 0 && !lastRegion) {
+                    // A single line is longer than the mapped region.
+                    if (regionSize >= maxRegionSize) {
+                        throw new IOException("Line at byte " + position[0] + " of " + file
+                                + " is longer than the largest mapped region");
+                    }
+                    regionSize = Math.min(regionSize * 2, maxRegionSize);
+                }
+                position[0] += offset;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Returns the offset just past the first newline at or after {@code from}, or -1 if there is none.
+     */
+    private int lineEndAfter(ByteBuffer buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset just past the last newline in {@code [from, end)}, or -1 if there is none.
+     */
+    private int lastLineEnd(ByteBuffer buffer, int from, int end) {
+        for (int i = end - 1; i >= from; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void parseBlocks(IngestReport report) throws InterruptedException {
+        BlockParser parser = new BlockParser(Charset.defaultCharset(), timestampDecoder, report, batches::put);
+        Block block;
+        while ((block = blocks.take()) != END_OF_BLOCKS) {
+            parser.parse(block.file, block.offset, block.bytes, block.bytes.limit());
+        }
+        parser.flush();
+        batches.put(EventBatch.END);
+    }
+
+    private static class Block {
+        private final Path file;
+        private final long offset;
+        private final ByteBuffer bytes;
+
+        Block(Path file, long offset, ByteBuffer bytes) {
+            this.file = file;
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,106 @@
+package logparser.ingest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of ingestion: how many lines were loaded, how many were skipped and why, the location of the first
+ * few skipped lines, up to which byte each file was read, and which files could not be read to the end.
+ */
+public class IngestReport {
+    private static final int MAX_SAMPLES = 20;
+
+    private long loadedLines;
+    private final long[] skippedLines = new long[LineError.values().length];
+    private final List<String> samples = new ArrayList<>();
+    private final Map<Path, Long> files = new LinkedHashMap<>();
+    private final Map<Path, Long> unfinishedLines = new HashMap<>();
+    private final Map<Path, String> failedFiles = new LinkedHashMap<>();
+
+    synchronized void addFile(Path file, long bytesRead) {
+        if (files.put(file, bytesRead) != null) {
+            // Read again by the tailer, which only stops after complete lines.
+            unfinishedLines.remove(file);
+        }
+    }
+
+    /**
+     * Records that the last line of the file, starting at the given byte, had no newline and was skipped, so
+     * it is read again once the writer finishes it.
+     */
+    synchronized void addUnfinished(Path file, long lineStart) {
+        unfinishedLines.put(file, lineStart);
+    }
+
+    /**
+     * Records that reading the file stopped early because of an error. Rows from before the error are kept,
+     * and the other files are still loaded.
+     */
+    synchronized void addFailed(Path file, String reason) {
+        failedFiles.put(file, reason);
+    }
+
+    /**
+     * Records files whose rows were restored from a saved segment instead of being parsed.
+     */
+    public synchronized void addRestored(Map<Path, Long> restoredFiles, long lines) {
+        files.putAll(restoredFiles);
+        loadedLines += lines;
+    }
+
+    synchronized void addLoaded(long lines) {
+        loadedLines += lines;
+    }
+
+    synchronized void addSkipped(LineError error, Path file, long offset, String line) {
+        skippedLines[error.ordinal()]++;
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(file + " at byte " + offset + ": " + error + ": " + line);
+        }
+    }
+
+    public synchronized long getLoadedLines() {
+        return loadedLines;
+    }
+
+    public synchronized long getSkippedLines() {
+        long total = 0;
+        for (long count : skippedLines) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized long getSkippedLines(LineError error) {
+        return skippedLines[error.ordinal()];
+    }
+
+    /**
+     * Returns every ingested file with the number of bytes read from it, up to the start of a skipped
+     * unfinished last line. Tailing continues from there.
+     */
+    public synchronized Map<Path, Long> getFiles() {
+        Map<Path, Long> checkpoints = new LinkedHashMap<>(files);
+        unfinishedLines.forEach((file, lineStart) -> checkpoints.merge(file, lineStart, Math::min));
+        return Collections.unmodifiableMap(checkpoints);
+    }
+
+    /**
+     * Returns the files that could not be read to the end, with the reason.
+     */
+    public synchronized Map<Path, String> getFailedFiles() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failedFiles));
+    }
+
+    /**
+     * Returns descriptions of the first skipped lines, each with its file, byte offset and reason.
+     */
+    public synchronized List<String> getSamples() {
+        return Collections.unmodifiableList(new ArrayList<>(samples));
+    }
+}
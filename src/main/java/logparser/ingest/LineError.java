@@ -0,0 +1,12 @@
+package logparser.ingest;
+
+/**
+ * Reason a log line was skipped during ingestion.
+ */
+public enum LineError {
+    FIELD_COUNT,
+    DATE,
+    EVENT,
+    TASK,
+    STATUS
+}
@@ -0,0 +1,156 @@
+package logparser.ingest;
+
+import logparser.Event;
+import logparser.Status;
+import logparser.store.EventStore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses tab-separated log lines straight from a byte buffer. Fields are located by scanning for tabs,
+ * event and status are matched byte by byte, the task number is read in place, and users and IPs come from
+ * a {@link StringCache}. Instances are not thread-safe; every parser worker owns its own.
+ */
+class LineTokenizer {
+    private static final int FIELDS = 5;
+    private static final byte[][] EVENT_NAMES = names(Event.values());
+    private static final byte[][] STATUS_NAMES = names(Status.values());
+
+    private final StringCache ips;
+    private final StringCache users;
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+    private final TimestampDecoder timestampDecoder;
+
+    LineTokenizer(Charset charset, TimestampDecoder timestampDecoder) {
+        this.timestampDecoder = timestampDecoder;
+        ips = new StringCache(charset);
+        users = new StringCache(charset);
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+
+    /**
+     * Parses the line in {@code [start, end)} of the named source file into the batch. Returns null on success,
+     * or the reason the line was skipped. The line must not include its terminator.
+     */
+    LineError parse(ByteBuffer buffer, int start, int end, String source, EventBatch batch) {
+        // Trailing tabs are ignored, the same way String.split drops trailing empty fields.
+        while (end > start && buffer.get(end - 1) == '\t') {
+            end--;
+        }
+        if (!split(buffer, start, end)) {
+            return LineError.FIELD_COUNT;
+        }
+
+        long timestamp = timestampDecoder.decode(buffer, fieldStarts[2], fieldEnds[2]);
+        if (timestamp == TimestampDecoder.INVALID) {
+            return LineError.DATE;
+        }
+        int eventCode = readEvent(buffer, fieldStarts[3], fieldEnds[3]);
+        if (eventCode < 0) {
+            return LineError.EVENT;
+        }
+        Event event = EventStore.eventOf(eventCode);
+        int task = EventStore.NO_TASK;
+        if (event == Event.SOLVE_TASK || event == Event.DONE_TASK) {
+            task = readTask(buffer, fieldStarts[3] + EVENT_NAMES[eventCode].length, fieldEnds[3]);
+            if (task == EventStore.NO_TASK) {
+                return LineError.TASK;
+            }
+        }
+        int statusCode = match(STATUS_NAMES, buffer, fieldStarts[4], fieldEnds[4]);
+        if (statusCode < 0) {
+            return LineError.STATUS;
+        }
+
+        batch.add(ips.get(buffer, fieldStarts[0], fieldEnds[0]), users.get(buffer, fieldStarts[1], fieldEnds[1]),
+                timestamp, event, task, EventStore.statusOf(statusCode), source);
+        return null;
+    }
+
+    private boolean split(ByteBuffer buffer, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        int field = 0;
+        fieldStarts[0] = start;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\t') {
+                if (field == FIELDS - 1) {
+                    return false;
+                }
+                fieldEnds[field++] = i;
+                fieldStarts[field] = i + 1;
+            }
+        }
+        fieldEnds[field] = end;
+        return field == FIELDS - 1;
+    }
+
+    private int readEvent(ByteBuffer buffer, int start, int end) {
+        int code = match(EVENT_NAMES, buffer, start, end);
+        if (code >= 0) {
+            return code;
+        }
+        for (Event event : new Event[]{Event.SOLVE_TASK, Event.DONE_TASK}) {
+            byte[] name = EVENT_NAMES[event.ordinal()];
+            if (end - start > name.length && startsWith(name, buffer, start)
+                    && buffer.get(start + name.length) == ' ') {
+                return event.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the task number after the event name, returns {@link EventStore#NO_TASK} if it is missing or is
+     * not a plain non-negative number. Signs are rejected, so no task parses to the sentinel.
+     */
+    private int readTask(ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end || end - start > 9) {
+            return EventStore.NO_TASK;
+        }
+        int task = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return EventStore.NO_TASK;
+            }
+            task = task * 10 + digit;
+        }
+        return task;
+    }
+
+    private static int match(byte[][] names, ByteBuffer buffer, int start, int end) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].length == end - start && startsWith(names[i], buffer, start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] name, ByteBuffer buffer, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,224 @@
+package logparser.ingest;
+
+import logparser.store.EventStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a log directory after the initial load. A background thread watches the directory, reads the bytes
+ * appended to each {@code .log} file since its checkpoint and parses the complete lines into batches that
+ * wait until {@link #drainTo(EventStore)} is called; a listener, if given, is run on the tailer thread after
+ * every pass that queued new batches. A trailing line without a newline stays unread until it is finished.
+ * Compressed {@code .log.gz} files are not followed, since rotation writes them in one go from a log that was
+ * already read.
+ * <p>
+ * Checkpoints are keyed by the file key (the inode on most file systems), so a file renamed during rotation
+ * keeps its offset and its remaining lines are read under the new name, a new file at the old name is read
+ * from its start, and a file that shrank is read again from the beginning.
+ */
+public class LogTailer implements Closeable {
+    private static final int READ_SIZE = 4 << 20;
+
+    private final Path logDir;
+    private final IngestReport report;
+    private final WatchService watchService;
+    private final BlockParser parser;
+    private final Map<Object, Long> offsets = new HashMap<>();
+    private final Queue<EventBatch> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final Runnable listener;
+    private volatile boolean closed;
+
+    /**
+     * Creates a tailer that continues from the given number of bytes already read from each file.
+     */
+    public LogTailer(Path logDir, Map<Path, Long> checkpoints, IngestReport report) throws IOException {
+        this(logDir, checkpoints, report, () -> {
+        });
+    }
+
+    /**
+     * Creates a tailer that runs the listener whenever new batches are waiting to be drained.
+     */
+    public LogTailer(Path logDir, Map<Path, Long> checkpoints, IngestReport report, Runnable listener)
+            throws IOException {
+        this.logDir = logDir;
+        this.listener = listener;
+        this.report = report;
+        this.parser = new BlockParser(Charset.defaultCharset(), new TimestampDecoder(), report, pending::add);
+        for (Map.Entry<Path, Long> checkpoint : checkpoints.entrySet()) {
+            try {
+                offsets.put(fileKey(checkpoint.getKey()), checkpoint.getValue());
+            } catch (NoSuchFileException e) {
+                // Rotated away before tailing started; nothing to continue.
+            }
+        }
+        this.watchService = logDir.getFileSystem().newWatchService();
+        logDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "log-tailer-" + logDir.getFileName());
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public boolean hasPendingData() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Appends all parsed rows waiting in the queue to the store.
+     */
+    public void drainTo(EventStore store) {
+        EventBatch batch;
+        while ((batch = pending.poll()) != null) {
+            batch.appendTo(store::add);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        thread.interrupt();
+    }
+
+    private void watch() {
+        try {
+            // Pick up anything written between the initial load and the registration of the watch.
+            scanDirectory();
+            notifyListener();
+            while (!closed) {
+                WatchKey key = watchService.poll(1, TimeUnit.SECONDS);
+                if (key == null) {
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scanDirectory();
+                    } else {
+                        Path file = logDir.resolve((Path) event.context());
+                        if (isFollowed(file)) {
+                            readAppended(file);
+                        }
+                    }
+                }
+                key.reset();
+                notifyListener();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void notifyListener() {
+        if (hasPendingData()) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void scanDirectory() throws IOException, InterruptedException {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
+            for (Path file : directoryStream) {
+                if (isFollowed(file)) {
+                    readAppended(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the file is a {@code .log} file or one that was read under another name, such as a log
+     * rotated to {@code app.log.1}, whose last lines may have been written just before the rename.
+     */
+    private boolean isFollowed(Path file) throws IOException {
+        if (file.toString().toLowerCase().endsWith(".log")) {
+            return true;
+        }
+        try {
+            return offsets.containsKey(fileKey(file));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void readAppended(Path file) throws IOException, InterruptedException {
+        Object key;
+        try {
+            key = fileKey(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        long offset = offsets.getOrDefault(key, 0L);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                // Truncated and rewritten in place.
+                offset = 0;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_SIZE, Math.max(size - offset, 1)));
+            while (offset < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - offset));
+                channel.read(buffer, offset);
+                int end = lastLineEnd(buffer, buffer.position());
+                if (end == 0) {
+                    if (buffer.position() < buffer.capacity()) {
+                        // Only an unfinished line is left.
+                        break;
+                    }
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                parser.parse(file, offset, buffer, end);
+                offset += end;
+            }
+            parser.flush();
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        offsets.put(key, offset);
+        report.addFile(file, offset);
+    }
+
+    private int lastLineEnd(ByteBuffer buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static Object fileKey(Path file) throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        return key != null ? key : file.toAbsolutePath();
+    }
+}
@@ -0,0 +1,96 @@
+package logparser.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Open-addressing table from byte sequences to canonical {@code String}s. A string is decoded only the first
+ * time its bytes are seen, so repeated users and IPs cost a hash and a byte comparison per line. A full table
+ * is emptied rather than grown past {@link #MAX_SIZE}, which keeps workers in constant memory on inputs with
+ * unbounded numbers of distinct values.
+ */
+class StringCache {
+    static final int MAX_SIZE = 1 << 16;
+
+    private final Charset charset;
+    private byte[][] keys = new byte[64][];
+    private int[] hashes = new int[64];
+    private String[] values = new String[64];
+    private int size;
+
+    StringCache(Charset charset) {
+        this.charset = charset;
+    }
+
+    String get(ByteBuffer buffer, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] key = keys[slot];
+            if (key == null) {
+                return insert(slot, hash, buffer, start, end);
+            }
+            if (hashes[slot] == hash && equals(key, buffer, start, end)) {
+                return values[slot];
+            }
+        }
+    }
+
+    private boolean equals(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String insert(int slot, int hash, ByteBuffer buffer, int start, int end) {
+        byte[] key = new byte[end - start];
+        buffer.get(start, key);
+        String value = new String(key, charset);
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        if (++size >= MAX_SIZE) {
+            clear();
+        } else if (size * 2 > keys.length) {
+            rehash();
+        }
+        return value;
+    }
+
+    private void clear() {
+        keys = new byte[64][];
+        hashes = new int[64];
+        values = new String[64];
+        size = 0;
+    }
+
+    private void rehash() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        String[] oldValues = values;
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        values = new String[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package logparser.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+
+/**
+ * Decodes log timestamps in the {@code d.M.yyyy H:m:s} format to epoch millis in a given time zone.
+ * The epoch offset of each day is cached, so a line that shares its date with a recent line costs only
+ * digit parsing and one multiply-add. Instances are thread-safe: cache slots hold immutable entries and
+ * a lost update only means the day is computed again.
+ */
+public class TimestampDecoder {
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final int CACHE_SIZE = 256;
+    private static final int MAX_DIGITS = 9;
+
+    private final ZoneId zone;
+    private final Day[] days = new Day[CACHE_SIZE];
+
+    public TimestampDecoder() {
+        this(ZoneId.systemDefault());
+    }
+
+    public TimestampDecoder(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Decodes the timestamp in {@code [start, end)}, returns {@link #INVALID} if it is malformed.
+     */
+    public long decode(ByteBuffer buffer, int start, int end) {
+        long dayOfMonth = number(buffer, start, end, '.');
+        long month = number(buffer, next(dayOfMonth), end, '.');
+        long year = number(buffer, next(month), end, ' ');
+        long hour = number(buffer, next(year), end, ':');
+        long minute = number(buffer, next(hour), end, ':');
+        long second = number(buffer, next(minute), end, (char) 0);
+        if (second < 0 || next(second) != end) {
+            return INVALID;
+        }
+        return toMillis(value(dayOfMonth), value(month), value(year), value(hour), value(minute), value(second));
+    }
+
+    public long decode(String text) throws ParseException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        long millis = decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+        if (millis == INVALID) {
+            throw new ParseException("Unparseable date: \"" + text + "\"", 0);
+        }
+        return millis;
+    }
+
+    /**
+     * Reads a number and the separator that follows it. Returns the value in the high half and the position
+     * after the separator in the low half, or -1 if the input is malformed. A previous failure propagates.
+     */
+    private static long number(ByteBuffer buffer, int position, int end, char separator) {
+        if (position < 0) {
+            return -1;
+        }
+        int value = 0;
+        int digits = 0;
+        while (position < end) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (++digits > MAX_DIGITS) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        if (separator != 0) {
+            if (position == end || buffer.get(position) != separator) {
+                return -1;
+            }
+            position++;
+        }
+        return ((long) value << 32) | position;
+    }
+
+    private static int next(long number) {
+        return number < 0 ? -1 : (int) number;
+    }
+
+    private static int value(long number) {
+        return (int) (number >>> 32);
+    }
+
+    private long toMillis(int dayOfMonth, int month, int year, int hour, int minute, int second) {
+        if (dayOfMonth > 31 || month > 12 || hour > 23 || minute > 59 || second > 59) {
+            // Larger days and months would spill into the neighbouring fields of the cache key.
+            return INVALID;
+        }
+        long key = ((long) year << 9) | (month << 5) | dayOfMonth;
+        int slot = (int) (key ^ (key >>> 9)) & (CACHE_SIZE - 1);
+        Day day = days[slot];
+        if (day == null || day.key != key) {
+            try {
+                day = new Day(key, LocalDate.of(year, month, dayOfMonth), zone);
+            } catch (DateTimeException | ArithmeticException e) {
+                // Not a date, or a year so far out that its epoch millis overflow a long.
+                return INVALID;
+            }
+            days[slot] = day;
+        }
+        if (!day.uniform) {
+            // The zone offset changes during this day, so resolve the local time through the zone rules.
+            // Ambiguous times take the later offset, the way SimpleDateFormat resolves them.
+            return LocalDateTime.of(year, month, dayOfMonth, hour, minute, second)
+                    .atZone(zone).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+        }
+        return day.midnight + ((hour * 60L + minute) * 60L + second) * 1000L;
+    }
+
+    private static class Day {
+        private final long key;
+        private final long midnight;
+        private final boolean uniform;
+
+        Day(long key, LocalDate date, ZoneId zone) {
+            this.key = key;
+            this.midnight = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            long nextMidnight = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            // A day whose clocks skip midnight starts at the transition itself, which must count for the day.
+            ZoneOffsetTransition transition = zone.getRules().nextTransition(Instant.ofEpochMilli(midnight - 1));
+            this.uniform = transition == null || transition.toEpochSecond() * 1000L >= nextMidnight;
+        }
+    }
+}
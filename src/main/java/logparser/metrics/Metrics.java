@@ -0,0 +1,168 @@
+package logparser.metrics;
+
+import logparser.cache.ResultCache;
+import logparser.ingest.IngestReport;
+import logparser.ingest.LineError;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a parser: what was ingested, taken from its {@link IngestReport}, latency histograms and
+ * row counts per query method and per QL query shape, and the counters of its {@link ResultCache}. Recording
+ * uses only atomic adders, so the registry can stay on in production; readers pull a {@link #snapshot()} or
+ * read the same values over JMX.
+ */
+public class Metrics implements MetricsMXBean {
+    /**
+     * Beyond this many distinct shapes, further ones are counted together under {@link #OTHER_SHAPES}.
+     */
+    private static final int MAX_SHAPES = 256;
+    private static final String OTHER_SHAPES = "(other)";
+
+    private final IngestReport ingestReport;
+    private final ResultCache resultCache;
+    private final ConcurrentMap<String, QueryMetrics> queries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueryMetrics> queryShapes = new ConcurrentHashMap<>();
+    private final LongAdder droppedRows = new LongAdder();
+    private volatile long loadNanos;
+
+    public Metrics(IngestReport ingestReport, ResultCache resultCache) {
+        this.ingestReport = ingestReport;
+        this.resultCache = resultCache;
+    }
+
+    public QueryMetrics query(String method) {
+        QueryMetrics metrics = queries.get(method);
+        return metrics != null ? metrics : queries.computeIfAbsent(method, name -> new QueryMetrics());
+    }
+
+    public QueryMetrics queryShape(String shape) {
+        QueryMetrics metrics = queryShapes.get(shape);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (queryShapes.size() >= MAX_SHAPES) {
+            shape = OTHER_SHAPES;
+        }
+        return queryShapes.computeIfAbsent(shape, name -> new QueryMetrics());
+    }
+
+    public void recordLoad(long nanos) {
+        loadNanos = nanos;
+    }
+
+    /**
+     * Counts rows dropped from memory by the retention of the parser.
+     */
+    public void recordDroppedRows(long rows) {
+        droppedRows.add(rows);
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(getLoadedLines(), getSkippedLinesByReason(), getBytesIngested(),
+                getFilesIngested(), getLoadMillis(), getQueries(), getQueryShapes(), getCacheHits(),
+                getCacheMisses());
+    }
+
+    @Override
+    public long getLoadedLines() {
+        return ingestReport.getLoadedLines();
+    }
+
+    @Override
+    public long getSkippedLines() {
+        return ingestReport.getSkippedLines();
+    }
+
+    @Override
+    public Map<String, Long> getSkippedLinesByReason() {
+        Map<String, Long> skipped = new HashMap<>();
+        for (LineError error : LineError.values()) {
+            skipped.put(error.name(), ingestReport.getSkippedLines(error));
+        }
+        return skipped;
+    }
+
+    @Override
+    public long getBytesIngested() {
+        long bytes = 0;
+        for (long size : ingestReport.getFiles().values()) {
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getFilesIngested() {
+        return ingestReport.getFiles().size();
+    }
+
+    @Override
+    public double getLoadMillis() {
+        return loadNanos / 1e6;
+    }
+
+    @Override
+    public long getDroppedRows() {
+        return droppedRows.sum();
+    }
+
+    @Override
+    public Map<String, QueryStats> getQueries() {
+        return snapshot(queries);
+    }
+
+    @Override
+    public Map<String, QueryStats> getQueryShapes() {
+        return snapshot(queryShapes);
+    }
+
+    @Override
+    public long getCacheHits() {
+        return resultCache.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return resultCache.getMisses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return resultCache.getEvictions();
+    }
+
+    @Override
+    public long getCacheExpirations() {
+        return resultCache.getExpirations();
+    }
+
+    @Override
+    public long getCacheInvalidations() {
+        return resultCache.getInvalidations();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return resultCache.size();
+    }
+
+    /**
+     * Clears the query statistics. Ingest and cache counters describe the loaded data and are kept.
+     */
+    @Override
+    public void reset() {
+        queries.values().forEach(QueryMetrics::reset);
+        queryShapes.values().forEach(QueryMetrics::reset);
+    }
+
+    private static Map<String, QueryStats> snapshot(Map<String, QueryMetrics> metrics) {
+        Map<String, QueryStats> stats = new HashMap<>();
+        metrics.forEach((name, queryMetrics) -> stats.put(name, queryMetrics.snapshot()));
+        return stats;
+    }
+}
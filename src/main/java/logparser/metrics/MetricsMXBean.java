@@ -0,0 +1,40 @@
+package logparser.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link Metrics} registry. Every attribute is read from live counters when it is fetched.
+ */
+public interface MetricsMXBean {
+    long getLoadedLines();
+
+    long getSkippedLines();
+
+    Map<String, Long> getSkippedLinesByReason();
+
+    long getBytesIngested();
+
+    int getFilesIngested();
+
+    double getLoadMillis();
+
+    long getDroppedRows();
+
+    Map<String, QueryStats> getQueries();
+
+    Map<String, QueryStats> getQueryShapes();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    long getCacheExpirations();
+
+    long getCacheInvalidations();
+
+    int getCacheSize();
+
+    void reset();
+}
@@ -0,0 +1,100 @@
+package logparser.metrics;
+
+import java.util.Map;
+
+/**
+ * The state of a {@link Metrics} registry at one point in time.
+ */
+public class MetricsSnapshot {
+    private final long loadedLines;
+    private final Map<String, Long> skippedLinesByReason;
+    private final long bytesIngested;
+    private final int filesIngested;
+    private final double loadMillis;
+    private final Map<String, QueryStats> queries;
+    private final Map<String, QueryStats> queryShapes;
+    private final long cacheHits;
+    private final long cacheMisses;
+
+    MetricsSnapshot(long loadedLines, Map<String, Long> skippedLinesByReason, long bytesIngested,
+                    int filesIngested, double loadMillis, Map<String, QueryStats> queries,
+                    Map<String, QueryStats> queryShapes, long cacheHits, long cacheMisses) {
+        this.loadedLines = loadedLines;
+        this.skippedLinesByReason = Map.copyOf(skippedLinesByReason);
+        this.bytesIngested = bytesIngested;
+        this.filesIngested = filesIngested;
+        this.loadMillis = loadMillis;
+        this.queries = Map.copyOf(queries);
+        this.queryShapes = Map.copyOf(queryShapes);
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+    }
+
+    public long getLoadedLines() {
+        return loadedLines;
+    }
+
+    public long getSkippedLines() {
+        long total = 0;
+        for (long count : skippedLinesByReason.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public Map<String, Long> getSkippedLinesByReason() {
+        return skippedLinesByReason;
+    }
+
+    public long getBytesIngested() {
+        return bytesIngested;
+    }
+
+    public int getFilesIngested() {
+        return filesIngested;
+    }
+
+    /**
+     * Returns how long loading the log directory took, including building the index.
+     */
+    public double getLoadMillis() {
+        return loadMillis;
+    }
+
+    /**
+     * Returns statistics by query method name. QL queries are counted by shape in {@link #getQueryShapes()}.
+     */
+    public Map<String, QueryStats> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Returns statistics of QL queries by shape: the query text with every value replaced by {@code ?}.
+     */
+    public Map<String, QueryStats> getQueryShapes() {
+        return queryShapes;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("loaded %d lines, %d bytes from %d files in %.1f ms, skipped %s%n",
+                loadedLines, bytesIngested, filesIngested, loadMillis, skippedLinesByReason));
+        text.append(String.format("cache hits %d, misses %d%n", cacheHits, cacheMisses));
+        queries.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> text.append(entry.getKey()).append(": ").append(entry.getValue())
+                        .append(System.lineSeparator()));
+        queryShapes.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> text.append('"').append(entry.getKey()).append("\": ").append(entry.getValue())
+                        .append(System.lineSeparator()));
+        return text.toString();
+    }
+}
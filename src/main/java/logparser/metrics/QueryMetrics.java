@@ -0,0 +1,46 @@
+package logparser.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one query method or QL query shape.
+ */
+public class QueryMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+
+    /**
+     * Records a completed call with the number of values it returned.
+     */
+    public void record(long nanos, long returned) {
+        latency.record(nanos);
+        rowsReturned.add(returned);
+    }
+
+    public void recordFailure(long nanos) {
+        latency.record(nanos);
+        failures.increment();
+    }
+
+    /**
+     * Records the rows a call had to look at; cache hits scan nothing.
+     */
+    public void addScanned(long rows) {
+        rowsScanned.add(rows);
+    }
+
+    public QueryStats snapshot() {
+        return new QueryStats(latency.getCount(), failures.sum(), rowsScanned.sum(), rowsReturned.sum(),
+                latency.getMeanNanos(), latency.getPercentileNanos(50), latency.getPercentileNanos(90),
+                latency.getPercentileNanos(99), latency.getMaxNanos());
+    }
+
+    void reset() {
+        latency.reset();
+        failures.reset();
+        rowsScanned.reset();
+        rowsReturned.reset();
+    }
+}
@@ -0,0 +1,88 @@
+package logparser.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable statistics of one query method or QL query shape. Latencies are in microseconds.
+ */
+public class QueryStats {
+    private final long calls;
+    private final long failures;
+    private final long rowsScanned;
+    private final long rowsReturned;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    QueryStats(long calls, long failures, long rowsScanned, long rowsReturned, long meanNanos, long p50Nanos,
+               long p90Nanos, long p99Nanos, long maxNanos) {
+        this(calls, failures, rowsScanned, rowsReturned, meanNanos / 1e3, p50Nanos / 1e3, p90Nanos / 1e3,
+                p99Nanos / 1e3, maxNanos / 1e3);
+    }
+
+    @ConstructorProperties({"calls", "failures", "rowsScanned", "rowsReturned", "meanMicros", "p50Micros",
+            "p90Micros", "p99Micros", "maxMicros"})
+    public QueryStats(long calls, long failures, long rowsScanned, long rowsReturned, double meanMicros,
+                      double p50Micros, double p90Micros, double p99Micros, double maxMicros) {
+        this.calls = calls;
+        this.failures = failures;
+        this.rowsScanned = rowsScanned;
+        this.rowsReturned = rowsReturned;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the rows in the time windows of the calls that were computed rather than served from the cache.
+     */
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /**
+     * Returns the values returned: set and map sizes, or one for a single date or number.
+     */
+    public long getRowsReturned() {
+        return rowsReturned;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP90Micros() {
+        return p90Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("calls=%d failures=%d scanned=%d returned=%d mean=%.1fus p50=%.1fus p90=%.1fus "
+                        + "p99=%.1fus max=%.1fus", calls, failures, rowsScanned, rowsReturned, meanMicros, p50Micros,
+                p90Micros, p99Micros, maxMicros);
+    }
+}
@@ -0,0 +1,66 @@
+package logparser.ql;
+
+/**
+ * A {@code field = value} or {@code date between first and last} condition. Each operand is either a literal
+ * or the index of a {@code ?} parameter.
+ */
+public class Condition {
+    public static final int LITERAL = -1;
+
+    private final Field field;
+    private final boolean between;
+    private final String[] literals;
+    private final int[] parameters;
+    private final int[] positions;
+
+    private Condition(Field field, boolean between, String[] literals, int[] parameters, int[] positions) {
+        this.field = field;
+        this.between = between;
+        this.literals = literals;
+        this.parameters = parameters;
+        this.positions = positions;
+    }
+
+    static Condition equalTo(Field field, String literal, int parameter, int position) {
+        return new Condition(field, false, new String[]{literal}, new int[]{parameter}, new int[]{position});
+    }
+
+    static Condition between(Field field, String firstLiteral, int firstParameter, int firstPosition,
+                             String lastLiteral, int lastParameter, int lastPosition) {
+        return new Condition(field, true, new String[]{firstLiteral, lastLiteral},
+                new int[]{firstParameter, lastParameter}, new int[]{firstPosition, lastPosition});
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public boolean isBetween() {
+        return between;
+    }
+
+    public int getOperandCount() {
+        return literals.length;
+    }
+
+    /**
+     * Returns the literal text of an operand, or null if the operand is a parameter.
+     */
+    public String getLiteral(int operand) {
+        return literals[operand];
+    }
+
+    /**
+     * Returns the parameter index of an operand, or {@link #LITERAL}.
+     */
+    public int getParameter(int operand) {
+        return parameters[operand];
+    }
+
+    /**
+     * Returns the offset of an operand in the query text.
+     */
+    public int getPosition(int operand) {
+        return positions[operand];
+    }
+}
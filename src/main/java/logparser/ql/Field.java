@@ -0,0 +1,25 @@
+package logparser.ql;
+
+/**
+ * Columns a query can return or filter on.
+ */
+public enum Field {
+    IP,
+    USER,
+    DATE,
+    EVENT,
+    STATUS,
+    TASK;
+
+    /**
+     * Returns the field named by a query word, or null if the word is not a field.
+     */
+    static Field of(String word) {
+        for (Field field : values()) {
+            if (field.name().equalsIgnoreCase(word)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
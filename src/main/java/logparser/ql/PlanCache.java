@@ -0,0 +1,34 @@
+package logparser.ql;
+
+import logparser.ingest.TimestampDecoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled plans keyed by query text, evicting the least recently used plan beyond the capacity. Queries
+ * that differ only in their values should use {@code ?} parameters to share one plan.
+ */
+public class PlanCache {
+    private final TimestampDecoder timestampDecoder;
+    private final Map<String, QueryPlan> plans;
+
+    public PlanCache(int capacity, TimestampDecoder timestampDecoder) {
+        this.timestampDecoder = timestampDecoder;
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized QueryPlan get(String query) {
+        QueryPlan plan = plans.get(query);
+        if (plan == null) {
+            plan = QueryPlan.compile(query, timestampDecoder);
+            plans.put(query, plan);
+        }
+        return plan;
+    }
+}
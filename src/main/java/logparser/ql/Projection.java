@@ -0,0 +1,258 @@
+package logparser.ql;
+
+import logparser.store.Dictionary;
+import logparser.store.EventStore;
+import logparser.store.IntCounts;
+import logparser.store.TopCounts;
+
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Collects the result of a query from the matching rows. Dictionary columns are collected as ids and turned
+ * into values once at the end.
+ */
+abstract class Projection implements IntConsumer {
+    abstract Set<Object> result();
+
+    /**
+     * Adds the rows collected by another projection of the same kind, for scans split into parts.
+     */
+    abstract void merge(Projection other);
+
+    int distinctCount() {
+        return result().size();
+    }
+
+    static Projection of(Field field, EventStore store) {
+        if (field == null) {
+            return new Count();
+        }
+        switch (field) {
+            case IP:
+                return new Ids(store.getIpDictionary(), store::getIpId);
+            case USER:
+                return new Ids(store.getUserDictionary(), store::getUserId);
+            case DATE:
+                return new Dates(store);
+            case EVENT:
+                return new Codes(store::getEventCode, code -> EventStore.eventOf(code));
+            case STATUS:
+                return new Codes(store::getStatusCode, code -> EventStore.statusOf(code));
+            case TASK:
+                return new Codes(store::getTask, code -> code);
+            default:
+                throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    /**
+     * Returns a projection that counts the rows per value of the field and keeps the {@code k} most frequent.
+     */
+    static Projection top(Field field, EventStore store, int k) {
+        switch (field) {
+            case IP:
+                return new Top(store::getIpId, store.getIpDictionary()::get, k);
+            case USER:
+                return new Top(store::getUserId, store.getUserDictionary()::get, k);
+            case EVENT:
+                return new Top(store::getEventCode, EventStore::eventOf, k);
+            case STATUS:
+                return new Top(store::getStatusCode, EventStore::statusOf, k);
+            case TASK:
+                return new Top(store::getTask, code -> code, k);
+            default:
+                throw new IllegalArgumentException("No top values of " + field);
+        }
+    }
+
+    /**
+     * Returns the values and counts as entries, most frequent first.
+     */
+    static Set<Object> entries(TopCounts top, Decoder decoder) {
+        Set<Object> result = new LinkedHashSet<>();
+        for (int i = 0; i < top.size(); i++) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(decoder.decode(top.getValue(i)), top.getCount(i)));
+        }
+        return result;
+    }
+
+    static Set<Object> count(int count) {
+        Set<Object> result = new HashSet<>();
+        result.add(count);
+        return result;
+    }
+
+    interface Column {
+        int get(int row);
+    }
+
+    interface Decoder {
+        Object decode(int code);
+    }
+
+    private static class Count extends Projection {
+        private int count;
+
+        @Override
+        public void accept(int row) {
+            count++;
+        }
+
+        @Override
+        void merge(Projection other) {
+            count += ((Count) other).count;
+        }
+
+        @Override
+        Set<Object> result() {
+            return count(count);
+        }
+    }
+
+    private static class Ids extends Projection {
+        private final Dictionary dictionary;
+        private final Column column;
+        private final BitSet ids = new BitSet();
+
+        Ids(Dictionary dictionary, Column column) {
+            this.dictionary = dictionary;
+            this.column = column;
+        }
+
+        @Override
+        public void accept(int row) {
+            ids.set(column.get(row));
+        }
+
+        @Override
+        void merge(Projection other) {
+            ids.or(((Ids) other).ids);
+        }
+
+        @Override
+        int distinctCount() {
+            return ids.cardinality();
+        }
+
+        @Override
+        Set<Object> result() {
+            Set<Object> result = new HashSet<>();
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                result.add(dictionary.get(id));
+            }
+            return result;
+        }
+    }
+
+    private static class Codes extends Projection {
+        private final Column column;
+        private final Decoder decoder;
+        private final BitSet codes = new BitSet();
+
+        Codes(Column column, Decoder decoder) {
+            this.column = column;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void accept(int row) {
+            int code = column.get(row);
+            if (code >= 0) {
+                codes.set(code);
+            }
+        }
+
+        @Override
+        void merge(Projection other) {
+            codes.or(((Codes) other).codes);
+        }
+
+        @Override
+        int distinctCount() {
+            return codes.cardinality();
+        }
+
+        @Override
+        Set<Object> result() {
+            Set<Object> result = new HashSet<>();
+            for (int code = codes.nextSetBit(0); code >= 0; code = codes.nextSetBit(code + 1)) {
+                result.add(decoder.decode(code));
+            }
+            return result;
+        }
+    }
+
+    private static class Top extends Projection {
+        private final Column column;
+        private final Decoder decoder;
+        private final int k;
+        private final IntCounts counts = new IntCounts();
+
+        Top(Column column, Decoder decoder, int k) {
+            this.column = column;
+            this.decoder = decoder;
+            this.k = k;
+        }
+
+        @Override
+        public void accept(int row) {
+            int code = column.get(row);
+            if (code >= 0) {
+                counts.increment(code);
+            }
+        }
+
+        @Override
+        void merge(Projection other) {
+            counts.addAll(((Top) other).counts);
+        }
+
+        @Override
+        int distinctCount() {
+            return counts.size();
+        }
+
+        @Override
+        Set<Object> result() {
+            return entries(TopCounts.of(counts, k), decoder);
+        }
+    }
+
+    /**
+     * Rows arrive in time order, so equal timestamps are adjacent and only the first of each run is kept.
+     */
+    private static class Dates extends Projection {
+        private final EventStore store;
+        private final Set<Object> result = new HashSet<>();
+        private long last = Long.MIN_VALUE;
+
+        Dates(EventStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void accept(int row) {
+            long timestamp = store.getTimestamp(row);
+            if (timestamp != last) {
+                result.add(new Date(timestamp));
+                last = timestamp;
+            }
+        }
+
+        @Override
+        void merge(Projection other) {
+            result.addAll(((Dates) other).result);
+        }
+
+        @Override
+        Set<Object> result() {
+            return result;
+        }
+    }
+}
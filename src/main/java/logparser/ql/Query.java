@@ -0,0 +1,130 @@
+package logparser.ql;
+
+import java.util.List;
+
+/**
+ * Parsed form of a query: what to return and the conditions every row must meet.
+ */
+public class Query {
+    private final Field projection;
+    private final boolean countDistinct;
+    private final boolean approximate;
+    private final int top;
+    private final List<Condition> conditions;
+    private final int parameterCount;
+    private final String shape;
+
+    /**
+     * @param projection the field whose distinct values are returned, or null to count the matching rows
+     */
+    public Query(Field projection, List<Condition> conditions, int parameterCount) {
+        this(projection, false, conditions, parameterCount);
+    }
+
+    /**
+     * @param countDistinct whether the distinct values of the projection are counted rather than returned
+     */
+    public Query(Field projection, boolean countDistinct, List<Condition> conditions, int parameterCount) {
+        this(projection, countDistinct, 0, conditions, parameterCount);
+    }
+
+    /**
+     * @param top the number of most frequent values of the projection to return with their counts, or 0 to
+     *            return all of them without counts
+     */
+    public Query(Field projection, boolean countDistinct, int top, List<Condition> conditions,
+                 int parameterCount) {
+        this(projection, countDistinct, false, top, conditions, parameterCount);
+    }
+
+    /**
+     * @param approximate whether the distinct count of users or IP addresses may be estimated from the index
+     *                    sketches; it then takes date conditions only
+     */
+    public Query(Field projection, boolean countDistinct, boolean approximate, int top, List<Condition> conditions,
+                 int parameterCount) {
+        if ((countDistinct || top > 0) && projection == null) {
+            throw new IllegalArgumentException("A distinct count or top values need a field");
+        }
+        if (approximate && (!countDistinct || projection != Field.USER && projection != Field.IP
+                || conditions.stream().anyMatch(condition -> condition.getField() != Field.DATE))) {
+            throw new IllegalArgumentException("An approximate count is a distinct count of users or IP addresses"
+                    + " with date conditions only");
+        }
+        this.projection = projection;
+        this.countDistinct = countDistinct;
+        this.approximate = approximate;
+        this.top = top;
+        this.conditions = List.copyOf(conditions);
+        this.parameterCount = parameterCount;
+        this.shape = shape(projection, countDistinct, approximate, top, this.conditions);
+    }
+
+    public Field getProjection() {
+        return projection;
+    }
+
+    public boolean isCount() {
+        return projection == null;
+    }
+
+    /**
+     * Tells whether the query returns the number of distinct values of its projection.
+     */
+    public boolean isCountDistinct() {
+        return countDistinct;
+    }
+
+    /**
+     * Tells whether the distinct count may be an estimate within the distinct-count error of the parser rather
+     * than the exact number.
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * Returns how many of the most frequent values of the projection the query returns, or 0 if it is not a
+     * top query. A top query returns {@code Map.Entry}s from values to their counts, most frequent first.
+     */
+    public int getTop() {
+        return top;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Returns the query in canonical form with every value, literal or parameter, written as {@code ?}, so
+     * that queries which differ only in their values share a shape.
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    private static String shape(Field projection, boolean countDistinct, boolean approximate, int top,
+                                List<Condition> conditions) {
+        StringBuilder shape = new StringBuilder("get ");
+        if (approximate) {
+            shape.append("approx ");
+        }
+        if (countDistinct) {
+            shape.append("count distinct ");
+        }
+        if (top > 0) {
+            shape.append("top ? ");
+        }
+        shape.append(projection == null ? "count" : projection.name().toLowerCase());
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
+            shape.append(i == 0 ? " for " : " and ").append(condition.getField().name().toLowerCase());
+            shape.append(condition.isBetween() ? " between ? and ?" : " = ?");
+        }
+        return shape.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package logparser.ql;
+
+/**
+ * Splits query text into words, double-quoted strings, {@code =} and {@code ?} parameter markers. A string
+ * runs to the next double quote; there are no escapes.
+ */
+class QueryLexer {
+    private final String text;
+    private int position;
+
+    QueryLexer(String text) {
+        this.text = text;
+    }
+
+    Token next() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        int start = position;
+        if (position == text.length()) {
+            return new Token(Token.Type.END, "", start);
+        }
+        char c = text.charAt(position);
+        if (c == '"') {
+            int end = text.indexOf('"', position + 1);
+            if (end < 0) {
+                throw new QuerySyntaxException("Unterminated string", text, start);
+            }
+            position = end + 1;
+            return new Token(Token.Type.STRING, text.substring(start + 1, end), start);
+        }
+        if (c == '=') {
+            position++;
+            return new Token(Token.Type.EQUALS, "=", start);
+        }
+        if (c == '?') {
+            position++;
+            return new Token(Token.Type.PARAMETER, "?", start);
+        }
+        while (position < text.length() && isWordChar(text.charAt(position))) {
+            position++;
+        }
+        if (position == start) {
+            throw new QuerySyntaxException("Unexpected character '" + c + "'", text, start);
+        }
+        return new Token(Token.Type.WORD, text.substring(start, position), start);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
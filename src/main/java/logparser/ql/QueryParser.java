@@ -0,0 +1,159 @@
+package logparser.ql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser for the query language:
+ * <pre>
+ * query      = "get" projection [ ( "for" | "and" ) condition { "and" condition } ]
+ * projection = field | "count" [ "distinct" field ] | "approx" "count" "distinct" ( "user" | "ip" )
+ *            | "top" number field
+ * condition  = field "=" value | "date" "between" value "and" value
+ * value      = string | word | "?"
+ * </pre>
+ * An approximate distinct count takes date conditions only.
+ */
+public class QueryParser {
+    private final String text;
+    private final QueryLexer lexer;
+    private Token token;
+    private int parameterCount;
+
+    private QueryParser(String text) {
+        this.text = text;
+        this.lexer = new QueryLexer(text);
+        this.token = lexer.next();
+    }
+
+    public static Query parse(String text) {
+        return new QueryParser(text).query();
+    }
+
+    private Query query() {
+        expectWord("get");
+        Field projection = null;
+        boolean countDistinct = false;
+        boolean approximate = false;
+        int top = 0;
+        if (token.isWord("approx")) {
+            advance();
+            expectWord("count");
+            expectWord("distinct");
+            if (!token.isWord("user") && !token.isWord("ip")) {
+                throw error("An approximate distinct count needs user or ip");
+            }
+            projection = field();
+            countDistinct = true;
+            approximate = true;
+        } else if (token.isWord("count")) {
+            advance();
+            if (token.isWord("distinct")) {
+                advance();
+                projection = field();
+                countDistinct = true;
+            }
+        } else if (token.isWord("top")) {
+            advance();
+            top = number();
+            projection = field();
+            if (projection == Field.DATE) {
+                throw error("Top values need a field other than date");
+            }
+        } else {
+            projection = field();
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (token.isWord("for") || token.isWord("and")) {
+            advance();
+            conditions.add(condition(approximate));
+            while (token.isWord("and")) {
+                advance();
+                conditions.add(condition(approximate));
+            }
+        }
+        if (token.getType() != Token.Type.END) {
+            throw error("Unexpected '" + token.getText() + "'");
+        }
+        return new Query(projection, countDistinct, approximate, top, conditions, parameterCount);
+    }
+
+    private Condition condition(boolean approximate) {
+        if (approximate && !token.isWord("date")) {
+            throw error("An approximate distinct count takes date conditions only");
+        }
+        Field field = field();
+        if (field == Field.DATE && token.isWord("between")) {
+            advance();
+            int firstPosition = token.getPosition();
+            String firstLiteral = literal();
+            int firstParameter = parameter();
+            advance();
+            expectWord("and");
+            int lastPosition = token.getPosition();
+            String lastLiteral = literal();
+            int lastParameter = parameter();
+            advance();
+            return Condition.between(field, firstLiteral, firstParameter, firstPosition, lastLiteral, lastParameter,
+                    lastPosition);
+        }
+        if (token.getType() != Token.Type.EQUALS) {
+            throw error("Expected '='");
+        }
+        advance();
+        int position = token.getPosition();
+        String literal = literal();
+        int parameter = parameter();
+        advance();
+        return Condition.equalTo(field, literal, parameter, position);
+    }
+
+    private Field field() {
+        Field field = token.getType() == Token.Type.WORD ? Field.of(token.getText()) : null;
+        if (field == null) {
+            throw error("Expected a field");
+        }
+        advance();
+        return field;
+    }
+
+    private int number() {
+        if (token.getType() != Token.Type.WORD || !token.getText().matches("[1-9][0-9]{0,8}")) {
+            throw error("Expected a positive number");
+        }
+        int number = Integer.parseInt(token.getText());
+        advance();
+        return number;
+    }
+
+    private String literal() {
+        switch (token.getType()) {
+            case STRING:
+            case WORD:
+                return token.getText();
+            case PARAMETER:
+                return null;
+            default:
+                throw error("Expected a value");
+        }
+    }
+
+    private int parameter() {
+        return token.getType() == Token.Type.PARAMETER ? parameterCount++ : Condition.LITERAL;
+    }
+
+    private void expectWord(String word) {
+        if (!token.isWord(word)) {
+            throw error("Expected '" + word + "'");
+        }
+        advance();
+    }
+
+    private void advance() {
+        token = lexer.next();
+    }
+
+    private QuerySyntaxException error(String message) {
+        return new QuerySyntaxException(message, text, token.getPosition());
+    }
+}
@@ -0,0 +1,417 @@
+package logparser.ql;
+
+import logparser.Event;
+import logparser.Status;
+import logparser.ingest.TimestampDecoder;
+import logparser.store.EventIndex;
+import logparser.store.EventStore;
+import logparser.store.IpRange;
+import logparser.store.ParallelScan;
+import logparser.store.RoaringBitmap;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * A compiled query. Literal values are resolved once at compile time; dictionary ids are looked up on each
+ * execution, so a plan stays valid while rows are added and can be cached and shared between threads.
+ * <p>
+ * Date conditions narrow the row range by binary search on the time-sorted store. Every other condition
+ * contributes an index bitmap; the smallest one drives a single pass over the range and the others are
+ * checked against the columns of each driven row, so no intermediate row sets are built. Long ranges are
+ * scanned in parallel, one run of whole days per thread. A count with a single event or status condition is
+ * answered from the index rollups. Distinct counts are exact unless the query asks for an approximate one,
+ * {@code get approx count distinct user} or {@code ip} with date conditions only, which is estimated from the
+ * sketches of the index within the distinct-count error of the parser. Top values of a user, IP address, task or
+ * event with date and status conditions only come from the index.
+ */
+public class QueryPlan {
+    private final String text;
+    private final Query query;
+    private final TimestampDecoder timestampDecoder;
+    private final Object[][] values;
+
+    private QueryPlan(String text, Query query, TimestampDecoder timestampDecoder) {
+        this.text = text;
+        this.query = query;
+        this.timestampDecoder = timestampDecoder;
+        this.values = new Object[query.getConditions().size()][];
+        for (int i = 0; i < values.length; i++) {
+            Condition condition = query.getConditions().get(i);
+            values[i] = new Object[condition.getOperandCount()];
+            for (int operand = 0; operand < values[i].length; operand++) {
+                if (condition.getParameter(operand) == Condition.LITERAL) {
+                    values[i][operand] = resolve(condition.getField(), condition.getLiteral(operand),
+                            condition.getPosition(operand));
+                }
+            }
+        }
+    }
+
+    public static QueryPlan compile(String text, TimestampDecoder timestampDecoder) {
+        return new QueryPlan(text, QueryParser.parse(text), timestampDecoder);
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public Set<Object> execute(EventStore store, EventIndex index, Object... parameters) {
+        checkParameters(parameters);
+        int from = 0;
+        int to = store.size();
+        List<Filter> filters = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            Condition condition = query.getConditions().get(i);
+            Object value = value(i, 0, parameters);
+            switch (condition.getField()) {
+                case DATE:
+                    if (condition.isBetween()) {
+                        Object last = value(i, 1, parameters);
+                        if (value != null && last != null) {
+                            from = Math.max(from, store.firstRowAfter((Long) value));
+                            to = Math.min(to, store.firstRowAtOrAfter((Long) last));
+                        }
+                    } else if (value != null) {
+                        from = Math.max(from, store.firstRowAtOrAfter((Long) value));
+                        to = Math.min(to, store.firstRowAfter((Long) value));
+                    }
+                    break;
+                case USER: {
+                    int userId = store.getUserDictionary().idOf((String) value);
+                    RoaringBitmap rows = index.byUser(userId);
+                    filters.add(new Filter(rows, rows::rangeCardinality, row -> store.getUserId(row) == userId));
+                    break;
+                }
+                case IP: {
+                    if (value instanceof IpRange) {
+                        BitSet ipIds = new BitSet();
+                        for (int ipId : index.ipIdsInRange((IpRange) value)) {
+                            ipIds.set(ipId);
+                        }
+                        RoaringBitmap rows = index.byIpRange((IpRange) value);
+                        filters.add(new Filter(rows, rows::rangeCardinality, row -> ipIds.get(store.getIpId(row))));
+                    } else {
+                        int ipId = store.getIpDictionary().idOf((String) value);
+                        RoaringBitmap rows = index.byIp(ipId);
+                        filters.add(new Filter(rows, rows::rangeCardinality, row -> store.getIpId(row) == ipId));
+                    }
+                    break;
+                }
+                case EVENT: {
+                    int eventCode = (Integer) value;
+                    filters.add(new Filter(index.byEvent(eventCode),
+                            (first, last) -> index.countEvent(eventCode, first, last),
+                            row -> store.getEventCode(row) == eventCode));
+                    break;
+                }
+                case STATUS: {
+                    int statusCode = (Integer) value;
+                    filters.add(new Filter(index.byStatus(statusCode),
+                            (first, last) -> index.countStatus(statusCode, first, last),
+                            row -> store.getStatusCode(row) == statusCode));
+                    break;
+                }
+                case TASK: {
+                    int task = (Integer) value;
+                    RoaringBitmap rows = index.byTask(task);
+                    filters.add(new Filter(rows, rows::rangeCardinality, row -> store.getTask(row) == task));
+                    break;
+                }
+            }
+        }
+        if (from >= to) {
+            return query.isCount() || query.isCountDistinct() ? Projection.count(0) : new HashSet<>();
+        }
+        if (query.getTop() > 0) {
+            Set<Object> top = topFromIndex(store, index, from, to, parameters);
+            if (top != null) {
+                return top;
+            }
+        }
+        if (filters.isEmpty()) {
+            if (query.isCount()) {
+                return Projection.count(to - from);
+            }
+            if (query.isApproximate() && query.getProjection() == Field.USER) {
+                return Projection.count((int) index.estimateDistinctUsers(store, from, to));
+            }
+            if (query.isApproximate() && query.getProjection() == Field.IP) {
+                return Projection.count((int) index.estimateDistinctIps(store, from, to));
+            }
+            return result(ParallelScan.scan(index, from, to, () -> projection(store), (projection, first, last) -> {
+                for (int row = first; row < last; row++) {
+                    projection.accept(row);
+                }
+            }, Projection::merge));
+        }
+        Filter driver = filters.get(0);
+        int driverCardinality = driver.rows.cardinality();
+        for (Filter filter : filters) {
+            int cardinality = filter.rows.cardinality();
+            if (cardinality < driverCardinality) {
+                driver = filter;
+                driverCardinality = cardinality;
+            }
+        }
+        filters.remove(driver);
+        if (filters.isEmpty() && query.isCount()) {
+            return Projection.count(driver.counter.count(from, to));
+        }
+        RoaringBitmap rows = driver.rows;
+        IntPredicate[] checks = new IntPredicate[filters.size()];
+        for (int i = 0; i < checks.length; i++) {
+            checks[i] = filters.get(i).test;
+        }
+        return result(ParallelScan.scan(index, from, to, () -> projection(store), (projection, first, last) -> {
+            if (checks.length == 0) {
+                rows.forEach(first, last, projection);
+                return;
+            }
+            rows.forEach(first, last, row -> {
+                for (IntPredicate check : checks) {
+                    if (!check.test(row)) {
+                        return;
+                    }
+                }
+                projection.accept(row);
+            });
+        }, Projection::merge));
+    }
+
+    private Projection projection(EventStore store) {
+        return query.getTop() > 0 ? Projection.top(query.getProjection(), store, query.getTop())
+                : Projection.of(query.getProjection(), store);
+    }
+
+    /**
+     * Answers a top query from the index when its only conditions are dates and at most one status; returns
+     * null otherwise.
+     */
+    private Set<Object> topFromIndex(EventStore store, EventIndex index, int from, int to, Object[] parameters) {
+        int statusCode = -1;
+        for (int i = 0; i < values.length; i++) {
+            Field field = query.getConditions().get(i).getField();
+            if (field == Field.STATUS && statusCode < 0) {
+                statusCode = (Integer) value(i, 0, parameters);
+            } else if (field != Field.DATE) {
+                return null;
+            }
+        }
+        int k = query.getTop();
+        switch (query.getProjection()) {
+            case USER:
+                return Projection.entries(index.topUsers(store, statusCode, k, from, to),
+                        store.getUserDictionary()::get);
+            case IP:
+                return Projection.entries(index.topIps(store, statusCode, k, from, to),
+                        store.getIpDictionary()::get);
+            case TASK:
+                return Projection.entries(index.topTasks(store, statusCode, k, from, to), code -> code);
+            case EVENT:
+                return Projection.entries(index.topEvents(statusCode, k, from, to), EventStore::eventOf);
+            default:
+                return null;
+        }
+    }
+
+    private Set<Object> result(Projection projection) {
+        return query.isCountDistinct() ? Projection.count(projection.distinctCount()) : projection.result();
+    }
+
+    /**
+     * Returns an accumulator that evaluates the query over rows passed to it one by one, for data that is
+     * streamed rather than stored.
+     */
+    public StreamingQuery stream(Object... parameters) {
+        checkParameters(parameters);
+        List<StreamingQuery.RowTest> tests = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            Condition condition = query.getConditions().get(i);
+            Object value = value(i, 0, parameters);
+            switch (condition.getField()) {
+                case DATE:
+                    if (condition.isBetween()) {
+                        Object last = value(i, 1, parameters);
+                        if (value != null && last != null) {
+                            long after = (Long) value;
+                            long before = (Long) last;
+                            tests.add((ip, user, timestamp, event, task, status) ->
+                                    timestamp > after && timestamp < before);
+                        }
+                    } else if (value != null) {
+                        long date = (Long) value;
+                        tests.add((ip, user, timestamp, event, task, status) -> timestamp == date);
+                    }
+                    break;
+                case USER:
+                    tests.add((ip, user, timestamp, event, task, status) -> user.equals(value));
+                    break;
+                case IP:
+                    if (value instanceof IpRange) {
+                        IpRange range = (IpRange) value;
+                        tests.add((ip, user, timestamp, event, task, status) -> range.contains(IpRange.pack(ip)));
+                    } else {
+                        tests.add((ip, user, timestamp, event, task, status) -> ip.equals(value));
+                    }
+                    break;
+                case EVENT: {
+                    int eventCode = (Integer) value;
+                    tests.add((ip, user, timestamp, event, task, status) -> event.ordinal() == eventCode);
+                    break;
+                }
+                case STATUS: {
+                    int statusCode = (Integer) value;
+                    tests.add((ip, user, timestamp, event, task, status) -> status.ordinal() == statusCode);
+                    break;
+                }
+                case TASK: {
+                    int taskNumber = (Integer) value;
+                    tests.add((ip, user, timestamp, event, task, status) -> task == taskNumber);
+                    break;
+                }
+            }
+        }
+        return new StreamingQuery(query.getProjection(), query.isCountDistinct(), query.getTop(), tests);
+    }
+
+    private void checkParameters(Object[] parameters) {
+        if (parameters.length != query.getParameterCount()) {
+            throw new IllegalArgumentException("Expected " + query.getParameterCount() + " parameters, got "
+                    + parameters.length);
+        }
+    }
+
+    private interface RangeCounter {
+        int count(int from, int to);
+    }
+
+    /**
+     * A condition as an index bitmap of candidate rows, a way to count them in a row range and a check of
+     * a single row.
+     */
+    private static class Filter {
+        private final RoaringBitmap rows;
+        private final RangeCounter counter;
+        private final IntPredicate test;
+
+        Filter(RoaringBitmap rows, RangeCounter counter, IntPredicate test) {
+            this.rows = rows;
+            this.counter = counter;
+            this.test = test;
+        }
+    }
+
+    /**
+     * Returns exclusive bounds {@code {after, before}} on the timestamps of the rows the query can match.
+     */
+    public long[] getTimeWindow(Object... parameters) {
+        long after = Long.MIN_VALUE;
+        long before = Long.MAX_VALUE;
+        for (int i = 0; i < values.length; i++) {
+            Condition condition = query.getConditions().get(i);
+            if (condition.getField() != Field.DATE) {
+                continue;
+            }
+            Object value = value(i, 0, parameters);
+            if (condition.isBetween()) {
+                Object last = value(i, 1, parameters);
+                if (value != null && last != null) {
+                    after = Math.max(after, (Long) value);
+                    before = Math.min(before, (Long) last);
+                }
+            } else if (value != null) {
+                after = Math.max(after, (Long) value - 1);
+                before = Math.min(before, (Long) value + 1);
+            }
+        }
+        return new long[]{after, before};
+    }
+
+    private Object value(int condition, int operand, Object[] parameters) {
+        Condition target = query.getConditions().get(condition);
+        int parameter = target.getParameter(operand);
+        if (parameter == Condition.LITERAL) {
+            return values[condition][operand];
+        }
+        Object value = parameters[parameter];
+        if (value == null) {
+            throw new IllegalArgumentException("Parameter " + parameter + " is null");
+        }
+        Field field = target.getField();
+        if (field == Field.DATE && value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (field == Field.EVENT && value instanceof Event) {
+            return ((Event) value).ordinal();
+        }
+        if (field == Field.STATUS && value instanceof Status) {
+            return ((Status) value).ordinal();
+        }
+        if (field == Field.TASK && value instanceof Number) {
+            return task(((Number) value).intValue(), value, target.getPosition(operand));
+        }
+        return resolve(field, value.toString(), target.getPosition(operand));
+    }
+
+    /**
+     * Converts a value to the form the executor compares: epoch millis for dates, ordinals for events and
+     * statuses, an {@link IpRange} for subnets and address ranges, and the text itself otherwise. A date that
+     * does not parse is a syntax error at the position of its operand.
+     */
+    /**
+     * Returns the task, which must not be negative: no task is stored as {@link EventStore#NO_TASK}.
+     */
+    private int task(int task, Object value, int position) {
+        if (task < 0) {
+            throw new QuerySyntaxException("Negative task \"" + value + "\"", text, position);
+        }
+        return task;
+    }
+
+    private Object resolve(Field field, String value, int position) {
+        switch (field) {
+            case DATE:
+                try {
+                    return timestampDecoder.decode(value);
+                } catch (ParseException e) {
+                    throw new QuerySyntaxException("Unparseable date \"" + value + "\"", text, position);
+                }
+            case EVENT:
+                try {
+                    return Event.valueOf(value).ordinal();
+                } catch (IllegalArgumentException e) {
+                    throw new QuerySyntaxException("Unknown event \"" + value + "\"", text, position);
+                }
+            case STATUS:
+                try {
+                    return Status.valueOf(value).ordinal();
+                } catch (IllegalArgumentException e) {
+                    throw new QuerySyntaxException("Unknown status \"" + value + "\"", text, position);
+                }
+            case TASK:
+                try {
+                    return task(Integer.parseInt(value), value, position);
+                } catch (NumberFormatException e) {
+                    throw new QuerySyntaxException("Unparseable task \"" + value + "\"", text, position);
+                }
+            case IP:
+                if (value.indexOf('/') >= 0 || value.indexOf('-') >= 0) {
+                    try {
+                        return IpRange.parse(value);
+                    } catch (IllegalArgumentException e) {
+                        throw new QuerySyntaxException(e.getMessage(), text, position);
+                    }
+                }
+                return value;
+            default:
+                return value;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package logparser.ql;
+
+/**
+ * Thrown when a query does not follow the grammar. The position is the offset of the offending token.
+ */
+public class QuerySyntaxException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public QuerySyntaxException(String message, String query, int position) {
+        super(message + " at position " + position + " in: " + query);
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
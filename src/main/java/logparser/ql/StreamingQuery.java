@@ -0,0 +1,98 @@
+package logparser.ql;
+
+import logparser.Event;
+import logparser.Status;
+import logparser.ingest.EventSink;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a query over rows as they stream past, keeping only the result: the distinct projected values
+ * or their number, or a count. Created by {@link QueryPlan#stream(Object...)}.
+ */
+public class StreamingQuery implements EventSink {
+    private final Field projection;
+    private final boolean countDistinct;
+    private final int top;
+    private final RowTest[] tests;
+    private final Set<Object> values = new HashSet<>();
+    private final Map<Object, Integer> counts = new HashMap<>();
+    private int count;
+
+    interface RowTest {
+        boolean test(String ip, String user, long timestamp, Event event, int task, Status status);
+    }
+
+    StreamingQuery(Field projection, boolean countDistinct, int top, List<RowTest> tests) {
+        this.projection = projection;
+        this.countDistinct = countDistinct;
+        this.top = top;
+        this.tests = tests.toArray(new RowTest[0]);
+    }
+
+    @Override
+    public void add(String ip, String user, long timestamp, Event event, int task, Status status, String source) {
+        for (RowTest test : tests) {
+            if (!test.test(ip, user, timestamp, event, task, status)) {
+                return;
+            }
+        }
+        if (projection == null) {
+            count++;
+            return;
+        }
+        Object value = null;
+        switch (projection) {
+            case IP:
+                value = ip;
+                break;
+            case USER:
+                value = user;
+                break;
+            case DATE:
+                value = new Date(timestamp);
+                break;
+            case EVENT:
+                value = event;
+                break;
+            case STATUS:
+                value = status;
+                break;
+            case TASK:
+                value = task >= 0 ? task : null;
+                break;
+        }
+        if (value == null) {
+            return;
+        }
+        if (top > 0) {
+            counts.merge(value, 1, Integer::sum);
+        } else {
+            values.add(value);
+        }
+    }
+
+    public Set<Object> result() {
+        if (projection == null) {
+            return Projection.count(count);
+        }
+        if (top > 0) {
+            List<Map.Entry<Object, Integer>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort(Map.Entry.<Object, Integer>comparingByValue().reversed());
+            Set<Object> result = new LinkedHashSet<>();
+            for (Map.Entry<Object, Integer> entry : entries.subList(0, Math.min(top, entries.size()))) {
+                result.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            return result;
+        }
+        return countDistinct ? Projection.count(values.size()) : values;
+    }
+}
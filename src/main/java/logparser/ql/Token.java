@@ -0,0 +1,37 @@
+package logparser.ql;
+
+class Token {
+    enum Type {
+        WORD,
+        STRING,
+        EQUALS,
+        PARAMETER,
+        END
+    }
+
+    private final Type type;
+    private final String text;
+    private final int position;
+
+    Token(Type type, String text, int position) {
+        this.type = type;
+        this.text = text;
+        this.position = position;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    boolean isWord(String word) {
+        return type == Type.WORD && text.equalsIgnoreCase(word);
+    }
+}
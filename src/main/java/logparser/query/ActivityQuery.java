@@ -0,0 +1,23 @@
+package logparser.query;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Queries that follow each user's events in time order: the funnel from logging in to solving and then
+ * completing a task, and the sessions of a user.
+ */
+public interface ActivityQuery {
+    /**
+     * Returns, for every user who logged in, then tried to solve the task and then completed it, the
+     * milliseconds from their first login to the completion. Each step is the first of its event after the
+     * previous one.
+     */
+    Map<String, Long> getTaskConversionTimes(int task, Date after, Date before);
+
+    /**
+     * Returns the sessions of the user in time order, as the date of the first event of each session mapped to
+     * the date of its last one. A session ends when the user has no event for more than the gap.
+     */
+    Map<Date, Date> getUserSessions(String user, long maxGapMillis, Date after, Date before);
+}
@@ -13,6 +13,10 @@ public interface EventQuery {
 
     Set<Event> getEventsForIP(String ip, Date after, Date before);
 
+    Set<Event> getEventsForSubnet(String subnet, Date after, Date before);
+
+    Set<Event> getEventsForIPRange(String firstIp, String lastIp, Date after, Date before);
+
     Set<Event> getEventsForUser(String user, Date after, Date before);
 
     Set<Event> getFailedEvents(Date after, Date before);
@@ -16,4 +16,8 @@ public interface IPQuery {
     Set<String> getIPsForEvent(Event event, Date after, Date before);
 
     Set<String> getIPsForStatus(Status status, Date after, Date before);
+
+    Set<String> getIPsForSubnet(String subnet, Date after, Date before);
+
+    Set<String> getIPsInRange(String firstIp, String lastIp, Date after, Date before);
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package logparser.query;
+
+/**
+ * All the query interfaces a log parser answers.
+ */
+public interface LogQuery extends IPQuery, UserQuery, DateQuery, EventQuery, QLQuery {
+}
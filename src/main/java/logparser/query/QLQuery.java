@@ -2,6 +2,17 @@ package logparser.query;
 
 import java.util.Set;
 
+/**
+ * Answers queries of the query language. Counts and distinct counts are exact; only
+ * {@code get approx count distinct user} or {@code ip}, which takes date conditions only, may answer with an
+ * estimate, within the distinct-count error of the implementation.
+ */
 public interface QLQuery {
     Set<Object> execute(String query);
-}
\ No newline at end of file
+
+    /**
+     * Executes a query whose {@code ?} markers are replaced by the parameters in order. Plans are cached by
+     * query text, so repeated queries with different values share one compiled plan.
+     */
+    Set<Object> execute(String query, Object... parameters);
+}
@@ -0,0 +1,30 @@
+package logparser.query;
+
+import logparser.Event;
+import logparser.Status;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Heavy-hitter queries: the {@code k} most frequent values of a column with their numbers of events, most
+ * frequent first, optionally counting only events with a status. Values and counts are exact; daily
+ * summaries only narrow down which values have to be counted over long ranges.
+ */
+public interface TopQuery {
+    Map<String, Integer> getTopUsers(int k, Date after, Date before);
+
+    Map<String, Integer> getTopUsers(int k, Status status, Date after, Date before);
+
+    Map<String, Integer> getTopIPs(int k, Date after, Date before);
+
+    Map<String, Integer> getTopIPs(int k, Status status, Date after, Date before);
+
+    Map<Integer, Integer> getTopTasks(int k, Date after, Date before);
+
+    Map<Integer, Integer> getTopTasks(int k, Status status, Date after, Date before);
+
+    Map<Event, Integer> getTopEvents(int k, Date after, Date before);
+
+    Map<Event, Integer> getTopEvents(int k, Status status, Date after, Date before);
+}
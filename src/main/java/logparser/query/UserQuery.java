@@ -12,6 +12,10 @@ public interface UserQuery {
 
     Set<String> getUsersForIP(String ip, Date after, Date before);
 
+    Set<String> getUsersForSubnet(String subnet, Date after, Date before);
+
+    Set<String> getUsersForIPRange(String firstIp, String lastIp, Date after, Date before);
+
     Set<String> getLoggedUsers(Date after, Date before);
 
     Set<String> getDownloadedPluginUsers(Date after, Date before);
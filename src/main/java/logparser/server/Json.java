@@ -0,0 +1,115 @@
+package logparser.server;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes query results as JSON: collections as arrays, maps as objects keyed by the key's text, map entries
+ * such as the values and counts of top queries as {@code {"key": ..., "value": ...}}, numbers and
+ * booleans as they are, dates, also as keys, as ISO-8601 local date-times with their offset, and anything
+ * else as a string.
+ */
+class Json {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    private final ZoneId zone;
+
+    Json(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    String write(Object value) {
+        StringBuilder json = new StringBuilder();
+        write(json, value);
+        return json.toString();
+    }
+
+    String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        string(json, message);
+        return json.append('}').toString();
+    }
+
+    private void write(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Date) {
+            string(json, date((Date) value));
+        } else if (value instanceof Collection) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                write(json, element);
+            }
+            json.append(']');
+        } else if (value instanceof Map.Entry) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+            json.append("{\"key\":");
+            write(json, entry.getKey());
+            json.append(",\"value\":");
+            write(json, entry.getValue());
+            json.append('}');
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                Object key = entry.getKey();
+                string(json, key instanceof Date ? date((Date) key) : String.valueOf(key));
+                json.append(':');
+                write(json, entry.getValue());
+            }
+            json.append('}');
+        } else {
+            string(json, value.toString());
+        }
+    }
+
+    private String date(Date date) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(date.getTime()).atZone(zone));
+    }
+
+    private static void string(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
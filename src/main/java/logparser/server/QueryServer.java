@@ -0,0 +1,392 @@
+package logparser.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import logparser.Event;
+import logparser.LogParser;
+import logparser.Status;
+import logparser.ingest.TimestampDecoder;
+import logparser.query.ActivityQuery;
+import logparser.query.LogQuery;
+import logparser.query.QLQuery;
+import logparser.query.TopQuery;
+import logparser.store.EventIndex;
+import logparser.store.HyperLogLog;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the queries of a {@link LogQuery} over HTTP with JSON results:
+ * <ul>
+ * <li>{@code GET /ql?q=<query>&p=<parameter>...} executes a QL query, with one {@code p} per {@code ?}
+ * marker in order;</li>
+ * <li>{@code GET /query/<method>?arg=<value>...&after=<date>&before=<date>} calls a typed query method,
+ * with one {@code arg} per parameter that is not one of the two dates, in order. Dates are given in the log
+ * format or as epoch millis, and a missing date is no bound. The methods of {@link TopQuery} and
+ * {@link ActivityQuery} are served too when the parser answers them;</li>
+ * <li>{@code GET /stats} reports the queries in flight, shed and timed out.</li>
+ * </ul>
+ * Every request runs on its own thread, a virtual thread when the runtime has them, so a slow client holds
+ * no pooled thread. At most {@code maxInFlight} queries are evaluated at once; a request that arrives when
+ * all of them are taken is shed with {@code 503} rather than queued. A query that does not finish within
+ * its timeout, the server's or a smaller one given as {@code timeout=<millis>}, is answered with
+ * {@code 504} and interrupted; it keeps its slot until it actually stops.
+ */
+public class QueryServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    private final LogQuery parser;
+    private final HttpServer server;
+    private final ExecutorService requests = newThreadPerTaskExecutor();
+    private final ExecutorService queries = newThreadPerTaskExecutor();
+    private final Semaphore slots;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+    private final TimestampDecoder timestampDecoder = new TimestampDecoder();
+    private final Json json = new Json(ZoneId.systemDefault());
+    private final Map<String, List<Method>> methods;
+    private final AtomicLong shedRequests = new AtomicLong();
+    private final AtomicLong timedOutQueries = new AtomicLong();
+
+    public QueryServer(LogQuery parser, InetSocketAddress address, int maxInFlight, long timeout, TimeUnit unit)
+            throws IOException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one query in flight is required: " + maxInFlight);
+        }
+        this.parser = parser;
+        this.methods = queryMethods(parser);
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+        this.timeoutMillis = unit.toMillis(timeout);
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requests);
+        server.createContext("/ql", exchange -> handle(exchange, this::qlQuery));
+        server.createContext("/query/", exchange -> handle(exchange, this::typedQuery));
+        server.createContext("/stats", exchange -> {
+            try {
+                send(exchange, 200, json.write(stats()));
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException, JMException {
+        if (args.length < 1) {
+            System.err.println("Usage: QueryServer <log directory> [port] [max queries in flight] [timeout millis]"
+                    + " [retention days] [off-heap]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors() * 8;
+        long timeout = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_TIMEOUT_MILLIS;
+        boolean offHeap = args.length > 5 && Boolean.parseBoolean(args[5]);
+        LogParser parser = new LogParser(Paths.get(args[0]), Runtime.getRuntime().availableProcessors(), false,
+                HyperLogLog.errorOf(EventIndex.DEFAULT_SKETCH_PRECISION), offHeap);
+        if (args.length > 4) {
+            parser.setRetention(Long.parseLong(args[4]), TimeUnit.DAYS);
+        }
+        parser.startTailing();
+        parser.registerMBean();
+        QueryServer server = new QueryServer(parser, new InetSocketAddress(port), maxInFlight, timeout,
+                TimeUnit.MILLISECONDS);
+        server.start();
+        System.out.println("Serving " + args[0] + " on " + server.getAddress());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to {@code delaySeconds} for the exchanges in progress and interrupts
+     * the queries still running.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        requests.shutdown();
+        queries.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getQueriesInFlight() {
+        return maxInFlight - slots.availablePermits();
+    }
+
+    public long getShedRequests() {
+        return shedRequests.get();
+    }
+
+    public long getTimedOutQueries() {
+        return timedOutQueries.get();
+    }
+
+    /**
+     * Returns an executor that starts a thread per task: a virtual thread on runtimes that have them, found
+     * reflectively so the build keeps its source level, and a platform thread from a cached pool otherwise.
+     */
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, 405, json.error("Only GET is supported"));
+                return;
+            }
+            Callable<Object> query;
+            long timeout;
+            try {
+                Map<String, List<String>> parameters = parameters(exchange.getRequestURI().getRawQuery());
+                query = handler.query(exchange.getRequestURI().getPath(), parameters);
+                timeout = timeout(parameters);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, json.error(e.getMessage()));
+                return;
+            } catch (NoSuchMethodException e) {
+                send(exchange, 404, json.error(e.getMessage()));
+                return;
+            }
+            execute(exchange, query, timeout);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            send(exchange, 500, json.error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void execute(HttpExchange exchange, Callable<Object> query, long timeout) throws IOException {
+        if (!slots.tryAcquire()) {
+            shedRequests.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 503, json.error("Too many queries in flight"));
+            return;
+        }
+        // Whoever claims the query first releases its slot: the query when it finishes, or the request
+        // when it gives up on a query that has not started.
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<Object> result;
+        try {
+            result = queries.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return query.call();
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            send(exchange, 503, json.error("Server is stopping"));
+            return;
+        }
+        try {
+            send(exchange, 200, json.write(result.get(timeout, TimeUnit.MILLISECONDS)));
+        } catch (TimeoutException e) {
+            timedOutQueries.incrementAndGet();
+            abandon(result, claimed);
+            send(exchange, 504, json.error("Query did not finish in " + timeout + " ms"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(result, claimed);
+            send(exchange, 503, json.error("Server is stopping"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof InvocationTargetException
+                    ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IllegalArgumentException) {
+                send(exchange, 400, json.error(cause.getMessage()));
+            } else {
+                cause.printStackTrace();
+                send(exchange, 500, json.error(String.valueOf(cause.getMessage())));
+            }
+        }
+    }
+
+    private void abandon(Future<Object> result, AtomicBoolean claimed) {
+        if (claimed.compareAndSet(false, true)) {
+            slots.release();
+        }
+        result.cancel(true);
+    }
+
+    private Callable<Object> qlQuery(String path, Map<String, List<String>> parameters) {
+        String text = single(parameters, "q");
+        if (text == null) {
+            throw new IllegalArgumentException("Missing query parameter q");
+        }
+        Object[] values = parameters.getOrDefault("p", Collections.emptyList()).toArray();
+        return () -> parser.execute(text, values);
+    }
+
+    private Callable<Object> typedQuery(String path, Map<String, List<String>> parameters)
+            throws NoSuchMethodException {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        List<String> arguments = parameters.getOrDefault("arg", Collections.emptyList());
+        Method method = null;
+        for (Method candidate : methods.getOrDefault(name, Collections.emptyList())) {
+            if (argumentCount(candidate) == arguments.size()) {
+                method = candidate;
+            }
+        }
+        if (method == null) {
+            throw new NoSuchMethodException("No query method " + name + " with " + arguments.size()
+                    + " arguments");
+        }
+        Class<?>[] types = method.getParameterTypes();
+        Object[] values = new Object[types.length];
+        Iterator<String> next = arguments.iterator();
+        boolean after = true;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Date.class) {
+                values[i] = date(single(parameters, after ? "after" : "before"));
+                after = false;
+            } else {
+                values[i] = convert(types[i], next.next());
+            }
+        }
+        Method target = method;
+        return () -> target.invoke(parser, values);
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", getQueriesInFlight());
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("shed", getShedRequests());
+        stats.put("timedOut", getTimedOutQueries());
+        return stats;
+    }
+
+    private long timeout(Map<String, List<String>> parameters) {
+        String timeout = single(parameters, "timeout");
+        return timeout == null ? timeoutMillis : Math.min(timeoutMillis, Math.max(0, Long.parseLong(timeout)));
+    }
+
+    private Object convert(Class<?> type, String value) {
+        if (type == int.class) {
+            return Integer.parseInt(value);
+        }
+        if (type == long.class) {
+            return Long.parseLong(value);
+        }
+        if (type == Event.class) {
+            return Event.valueOf(value);
+        }
+        if (type == Status.class) {
+            return Status.valueOf(value);
+        }
+        return value;
+    }
+
+    private Date date(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (value.chars().allMatch(Character::isDigit)) {
+            return new Date(Long.parseLong(value));
+        }
+        try {
+            return new Date(timestampDecoder.decode(value));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private static String single(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return values == null ? null : values.get(values.size() - 1);
+    }
+
+    private static Map<String, List<String>> parameters(String query) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the typed query methods by name; overloads differ in the number of arguments besides the dates.
+     */
+    private static Map<String, List<Method>> queryMethods(LogQuery parser) {
+        List<Method> candidates = new ArrayList<>(Arrays.asList(LogQuery.class.getMethods()));
+        if (parser instanceof TopQuery) {
+            candidates.addAll(Arrays.asList(TopQuery.class.getMethods()));
+        }
+        if (parser instanceof ActivityQuery) {
+            candidates.addAll(Arrays.asList(ActivityQuery.class.getMethods()));
+        }
+        Map<String, List<Method>> methods = new HashMap<>();
+        for (Method method : candidates) {
+            if (method.getDeclaringClass() != QLQuery.class) {
+                methods.computeIfAbsent(method.getName(), name -> new ArrayList<>()).add(method);
+            }
+        }
+        return methods;
+    }
+
+    private static int argumentCount(Method method) {
+        int count = 0;
+        for (Class<?> type : method.getParameterTypes()) {
+            if (type != Date.class) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private interface Handler {
+        Callable<Object> query(String path, Map<String, List<String>> parameters) throws NoSuchMethodException;
+    }
+}
@@ -0,0 +1,73 @@
+package logparser.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps distinct strings (users, IPs) to dense int ids so that columns can store ids instead of references.
+ * <p>
+ * Ids are only ever appended, so a {@link #view()} shares the lookup structures with the dictionary that keeps
+ * growing and simply ignores ids at or beyond its own size. Views may be read from any thread while one
+ * thread interns new values.
+ */
+public class Dictionary {
+    public static final int NOT_FOUND = -1;
+
+    private final Map<String, Integer> ids;
+    private final boolean readOnly;
+    private String[] values;
+    private int size;
+
+    public Dictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.readOnly = false;
+        this.values = new String[16];
+    }
+
+    private Dictionary(Map<String, Integer> ids, String[] values, int size) {
+        this.ids = ids;
+        this.readOnly = true;
+        this.values = values;
+        this.size = size;
+    }
+
+    public int intern(String value) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Dictionary view is read-only");
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            id = size;
+            values[size++] = value;
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        return id == null || id >= size ? NOT_FOUND : id;
+    }
+
+    public String get(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("Id " + id + " out of bounds for size " + size);
+        }
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only dictionary of the values interned so far.
+     */
+    public Dictionary view() {
+        return new Dictionary(ids, values, size);
+    }
+}
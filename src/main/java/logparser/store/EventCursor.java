@@ -0,0 +1,24 @@
+package logparser.store;
+
+/**
+ * A flyweight over one row of an {@link EventStore}: it is moved from row to row instead of creating an object
+ * per row, and reads the columns of its current row. Loops that read several columns of each row use one
+ * cursor for all of them. A cursor reads the rows the store had when the cursor was created.
+ */
+public interface EventCursor {
+    EventCursor moveTo(int row);
+
+    long getTimestamp();
+
+    int getUserId();
+
+    int getIpId();
+
+    int getEventCode();
+
+    int getStatusCode();
+
+    int getTask();
+
+    int getSourceId();
+}
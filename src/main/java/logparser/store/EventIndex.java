@@ -0,0 +1,633 @@
+package logparser.store;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Inverted indexes over an {@link EventStore}: one bitmap of row numbers per user, IP, event, status and task.
+ * Rows must be added in ascending order, which keeps every bitmap append-only; rows that have to move are
+ * removed from their row on with {@link #removeRows} and added again.
+ * <p>
+ * Alongside the bitmaps the index keeps per-day and per-hour rollups of the event, status and task counts.
+ * A count over a row range adds up the whole days and hours inside it and only scans the rows at the ends.
+ * The day rollup also keeps {@link HyperLogLog} sketches of the distinct users and IP addresses, which
+ * estimate distinct counts over a range the same way, and the most frequent users, IP addresses and tasks of
+ * each day, which answer top-K queries over long ranges.
+ * <p>
+ * Each user's events are also kept in per-event postings with their tasks, so that one user's events are
+ * found without intersecting bitmaps that span the whole log.
+ * <p>
+ * A {@link #view()} is a read-only index of the rows added so far. It shares the bitmaps; when rows are added
+ * afterwards, each bitmap that belongs to an earlier view is replaced by a copy before it is appended to, so
+ * views may be read from any thread while one thread keeps adding rows.
+ */
+public class EventIndex {
+    public static final int DEFAULT_SKETCH_PRECISION = 12;
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    /**
+     * Summing a bucket costs about as much as scanning this many rows.
+     */
+    private static final int MIN_BUCKET_ROWS = 16;
+    /**
+     * Top-K queries over at most this many rows count them exactly.
+     */
+    private static final int EXACT_TOP_ROWS = 1 << 16;
+    /**
+     * Top-K queries whose daily sums leave more candidates than this scan their range instead.
+     */
+    private static final int MAX_TOP_CANDIDATES = 4 * TopCounts.CAPACITY;
+
+    private final List<RoaringBitmap> users = new ArrayList<>();
+    private final List<RoaringBitmap> ips = new ArrayList<>();
+    private final RoaringBitmap[] events = new RoaringBitmap[EventStore.eventCount()];
+    private final RoaringBitmap[] statuses = new RoaringBitmap[EventStore.statusCount()];
+    private final Map<Integer, RoaringBitmap> tasks = new HashMap<>();
+    private IpIndex ipAddresses = new IpIndex();
+    private UserPostings postings = new UserPostings();
+    private final int sketchPrecision;
+    private TimeRollup[] rollups;
+    private int size;
+    private int generation;
+    private boolean readOnly;
+
+    public EventIndex() {
+        this(DEFAULT_SKETCH_PRECISION);
+    }
+
+    /**
+     * @param sketchPrecision precision of the distinct-value sketches, see {@link HyperLogLog}
+     */
+    public EventIndex(int sketchPrecision) {
+        this.sketchPrecision = sketchPrecision;
+        this.rollups = new TimeRollup[]{new TimeRollup(DAY_MILLIS, sketchPrecision, true),
+                new TimeRollup(HOUR_MILLIS)};
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new RoaringBitmap();
+        }
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new RoaringBitmap();
+        }
+    }
+
+    public static EventIndex build(EventStore store) {
+        return build(store, DEFAULT_SKETCH_PRECISION);
+    }
+
+    public static EventIndex build(EventStore store, int sketchPrecision) {
+        EventIndex index = new EventIndex(sketchPrecision);
+        index.addRows(store, store.size());
+        return index;
+    }
+
+    /**
+     * Indexes the rows of the store that were appended since the previous call.
+     */
+    public void addRows(EventStore store, int to) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Index view is read-only");
+        }
+        EventCursor cursor = store.cursor();
+        for (int row = size; row < to; row++) {
+            cursor.moveTo(row);
+            int userId = cursor.getUserId();
+            bitmap(users, userId).add(row);
+            bitmap(ips, cursor.getIpId()).add(row);
+            int eventCode = cursor.getEventCode();
+            events[eventCode] = writable(events[eventCode]);
+            events[eventCode].add(row);
+            int statusCode = cursor.getStatusCode();
+            statuses[statusCode] = writable(statuses[statusCode]);
+            statuses[statusCode].add(row);
+            int task = cursor.getTask();
+            postings.add(userId, eventCode, task, row);
+            if (task != EventStore.NO_TASK) {
+                RoaringBitmap rows = tasks.get(task);
+                if (rows == null || rows.generation != generation) {
+                    rows = rows == null ? newBitmap() : writable(rows);
+                    tasks.put(task, rows);
+                }
+                rows.add(row);
+            }
+        }
+        for (TimeRollup rollup : rollups) {
+            rollup.add(store, to);
+        }
+        size = Math.max(size, to);
+        ipAddresses.update(store.getIpDictionary());
+    }
+
+    /**
+     * Removes the rows from {@code row} on, which the store must still hold as they were indexed, so that they
+     * can be added again after the store has merged late rows in among them. Only the bitmaps and postings of
+     * those rows and the rollup buckets they fall in are cut back, each copied first if a view shares it.
+     */
+    public void removeRows(EventStore store, int row) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Index view is read-only");
+        }
+        if (row >= size) {
+            return;
+        }
+        EventCursor cursor = store.cursor();
+        for (int removed = row; removed < size; removed++) {
+            cursor.moveTo(removed);
+            int userId = cursor.getUserId();
+            users.set(userId, removeFrom(users.get(userId), row));
+            int ipId = cursor.getIpId();
+            ips.set(ipId, removeFrom(ips.get(ipId), row));
+            postings.removeFrom(userId, cursor.getEventCode(), row);
+            int task = cursor.getTask();
+            if (task != EventStore.NO_TASK) {
+                tasks.put(task, removeFrom(tasks.get(task), row));
+            }
+        }
+        for (int i = 0; i < events.length; i++) {
+            events[i] = removeFrom(events[i], row);
+        }
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = removeFrom(statuses[i], row);
+        }
+        for (TimeRollup rollup : rollups) {
+            rollup.removeFrom(row);
+        }
+        size = row;
+    }
+
+    /**
+     * Returns the bitmap itself if it has no rows at or above {@code row}, otherwise a writable one without them.
+     */
+    private RoaringBitmap removeFrom(RoaringBitmap bitmap, int row) {
+        if (bitmap.first(row, Integer.MAX_VALUE) < 0) {
+            return bitmap;
+        }
+        RoaringBitmap cut = writable(bitmap);
+        cut.removeFrom(row);
+        return cut;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        writeTo(out, users);
+        writeTo(out, ips);
+        writeTo(out, List.of(events));
+        writeTo(out, List.of(statuses));
+        out.writeInt(tasks.size());
+        for (Map.Entry<Integer, RoaringBitmap> task : tasks.entrySet()) {
+            out.writeInt(task.getKey());
+            task.getValue().writeTo(out);
+        }
+    }
+
+    private static void writeTo(DataOutput out, List<RoaringBitmap> bitmaps) throws IOException {
+        out.writeInt(bitmaps.size());
+        for (RoaringBitmap bitmap : bitmaps) {
+            bitmap.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads the bitmaps written by {@link #writeTo(DataOutput)}; the rollups, sketches and user postings are
+     * rebuilt from the store.
+     */
+    static EventIndex readFrom(ByteBuffer in, EventStore store, int sketchPrecision) {
+        EventIndex index = new EventIndex(sketchPrecision);
+        index.size = in.getInt();
+        readFrom(in, index.users);
+        readFrom(in, index.ips);
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        readFrom(in, bitmaps);
+        bitmaps.toArray(index.events);
+        bitmaps.clear();
+        readFrom(in, bitmaps);
+        bitmaps.toArray(index.statuses);
+        int tasks = in.getInt();
+        for (int i = 0; i < tasks; i++) {
+            int task = in.getInt();
+            index.tasks.put(task, RoaringBitmap.readFrom(in));
+        }
+        index.ipAddresses.update(store.getIpDictionary());
+        for (TimeRollup rollup : index.rollups) {
+            rollup.add(store, index.size);
+        }
+        EventCursor cursor = store.cursor();
+        for (int row = 0; row < index.size; row++) {
+            cursor.moveTo(row);
+            index.postings.add(cursor.getUserId(), cursor.getEventCode(), cursor.getTask(), row);
+        }
+        return index;
+    }
+
+    private static void readFrom(ByteBuffer in, List<RoaringBitmap> bitmaps) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            bitmaps.add(RoaringBitmap.readFrom(in));
+        }
+    }
+
+    private RoaringBitmap bitmap(List<RoaringBitmap> bitmaps, int id) {
+        while (bitmaps.size() <= id) {
+            bitmaps.add(newBitmap());
+        }
+        RoaringBitmap bitmap = bitmaps.get(id);
+        if (bitmap.generation != generation) {
+            bitmap = writable(bitmap);
+            bitmaps.set(id, bitmap);
+        }
+        return bitmap;
+    }
+
+    private RoaringBitmap newBitmap() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.generation = generation;
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap itself if this version of the index owns it, otherwise a copy to append to.
+     */
+    private RoaringBitmap writable(RoaringBitmap bitmap) {
+        if (bitmap.generation == generation) {
+            return bitmap;
+        }
+        RoaringBitmap copy = bitmap.copyForAppend();
+        copy.generation = generation;
+        return copy;
+    }
+
+    /**
+     * Returns a read-only index of the rows added so far. Later calls to {@link #addRows} leave it unchanged.
+     */
+    public EventIndex view() {
+        EventIndex view = new EventIndex(sketchPrecision);
+        view.users.addAll(users);
+        view.ips.addAll(ips);
+        System.arraycopy(events, 0, view.events, 0, events.length);
+        System.arraycopy(statuses, 0, view.statuses, 0, statuses.length);
+        view.tasks.putAll(tasks);
+        view.ipAddresses = ipAddresses.view();
+        view.postings = postings.view();
+        view.rollups = new TimeRollup[rollups.length];
+        for (int i = 0; i < rollups.length; i++) {
+            view.rollups[i] = rollups[i].view();
+        }
+        view.size = size;
+        view.readOnly = true;
+        generation++;
+        return view;
+    }
+
+    /**
+     * Cuts {@code [from, to)} at day boundaries into at most {@code parts} ranges of about equal numbers of
+     * rows and returns their bounds, {@code from} first and {@code to} last.
+     */
+    public int[] partitions(int from, int to, int parts) {
+        TimeRollup days = rollups[0];
+        int[] bounds = new int[parts + 1];
+        int count = 0;
+        bounds[count++] = from;
+        for (int part = 1; part < parts; part++) {
+            int day = days.firstBucketFrom((int) (from + (long) (to - from) * part / parts));
+            int bound = day < days.size() ? days.start(day) : to;
+            if (bound > bounds[count - 1] && bound < to) {
+                bounds[count++] = bound;
+            }
+        }
+        bounds[count++] = to;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    public RoaringBitmap byUser(int userId) {
+        return userId >= 0 && userId < users.size() ? users.get(userId) : EMPTY;
+    }
+
+    public RoaringBitmap byIp(int ipId) {
+        return ipId >= 0 && ipId < ips.size() ? ips.get(ipId) : EMPTY;
+    }
+
+    /**
+     * Returns the rows of every IP inside the range. The result must be treated as read-only.
+     */
+    public RoaringBitmap byIpRange(IpRange range) {
+        RoaringBitmap rows = EMPTY;
+        for (int ipId : ipAddresses.idsInRange(range)) {
+            rows = RoaringBitmap.or(rows, ips.get(ipId));
+        }
+        return rows;
+    }
+
+    public int[] ipIdsInRange(IpRange range) {
+        return ipAddresses.idsInRange(range);
+    }
+
+    public RoaringBitmap byEvent(int eventCode) {
+        return events[eventCode];
+    }
+
+    public RoaringBitmap byStatus(int statusCode) {
+        return statuses[statusCode];
+    }
+
+    public RoaringBitmap byTask(int task) {
+        return tasks.getOrDefault(task, EMPTY);
+    }
+
+    /**
+     * Returns the first row in {@code [from, to)} of the user with the event and, unless it is
+     * {@link EventStore#NO_TASK}, the task, or -1 when there is none.
+     */
+    public int firstUserEvent(int userId, int eventCode, int task, int from, int to) {
+        return postings.first(userId, eventCode, task, from, to);
+    }
+
+    /**
+     * Passes the rows in {@code [from, to)} of the user with the event to the consumer in ascending order.
+     */
+    public void forEachUserEvent(int userId, int eventCode, int from, int to, IntConsumer rows) {
+        postings.forEach(userId, eventCode, from, to, rows);
+    }
+
+    /**
+     * Returns the number of rows in {@code [from, to)} with the event.
+     */
+    public int countEvent(int eventCode, int from, int to) {
+        int[] count = new int[1];
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                for (int bucket = first; bucket < last; bucket++) {
+                    count[0] += rollup.eventCount(bucket, eventCode);
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                count[0] += events[eventCode].rangeCardinality(from, to);
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Returns the number of rows in {@code [from, to)} with the status.
+     */
+    public int countStatus(int statusCode, int from, int to) {
+        int[] count = new int[1];
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                for (int bucket = first; bucket < last; bucket++) {
+                    count[0] += rollup.statusCount(bucket, statusCode);
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                count[0] += statuses[statusCode].rangeCardinality(from, to);
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Returns the number of rows in {@code [from, to)} with both the event and the task.
+     */
+    public int countEventTask(EventStore store, int eventCode, int task, int from, int to) {
+        int[] count = new int[1];
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                for (int bucket = first; bucket < last; bucket++) {
+                    IntCounts tasks = rollup.taskCounts(bucket, eventCode);
+                    if (tasks != null) {
+                        count[0] += tasks.get(task);
+                    }
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                byTask(task).forEach(from, to, row -> {
+                    if (store.getEventCode(row) == eventCode) {
+                        count[0]++;
+                    }
+                });
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Counts the rows in {@code [from, to)} with the event per task.
+     */
+    public IntCounts countTasks(EventStore store, int eventCode, int from, int to) {
+        IntCounts counts = new IntCounts();
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                for (int bucket = first; bucket < last; bucket++) {
+                    IntCounts tasks = rollup.taskCounts(bucket, eventCode);
+                    if (tasks != null) {
+                        counts.addAll(tasks);
+                    }
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                events[eventCode].forEach(from, to, row -> {
+                    int task = store.getTask(row);
+                    if (task != EventStore.NO_TASK) {
+                        counts.increment(task);
+                    }
+                });
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Estimates the number of distinct users in {@code [from, to)}.
+     */
+    public long estimateDistinctUsers(EventStore store, int from, int to) {
+        return estimateDistinct(TimeRollup.USERS, store::getUserId, from, to);
+    }
+
+    /**
+     * Estimates the number of distinct IP addresses in {@code [from, to)}.
+     */
+    public long estimateDistinctIps(EventStore store, int from, int to) {
+        return estimateDistinct(TimeRollup.IPS, store::getIpId, from, to);
+    }
+
+    private long estimateDistinct(int column, IntUnaryOperator ids, int from, int to) {
+        HyperLogLog sketch = new HyperLogLog(sketchPrecision);
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                if (rollup.hasSketches()) {
+                    rollup.mergeSketches(column, first, last, sketch);
+                } else {
+                    rows(rollup.start(first), rollup.end(last - 1));
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    sketch.add(HyperLogLog.hash(ids.applyAsInt(row)));
+                }
+            }
+        });
+        return sketch.estimate();
+    }
+
+    /**
+     * Returns the {@code k} users with the most rows in {@code [from, to)}, counting only rows with the status
+     * unless the status code is negative.
+     */
+    public TopCounts topUsers(EventStore store, int statusCode, int k, int from, int to) {
+        return top(TimeRollup.USERS, store::getUserId, this::byUser, statusCode, k, from, to);
+    }
+
+    /**
+     * Returns the {@code k} IP addresses with the most rows in {@code [from, to)}, like {@link #topUsers}.
+     */
+    public TopCounts topIps(EventStore store, int statusCode, int k, int from, int to) {
+        return top(TimeRollup.IPS, store::getIpId, this::byIp, statusCode, k, from, to);
+    }
+
+    /**
+     * Returns the {@code k} tasks with the most rows in {@code [from, to)}, like {@link #topUsers}.
+     */
+    public TopCounts topTasks(EventStore store, int statusCode, int k, int from, int to) {
+        return top(TimeRollup.TASKS, store::getTask, this::byTask, statusCode, k, from, to);
+    }
+
+    /**
+     * Returns the {@code k} events with the most rows in {@code [from, to)}, like {@link #topUsers}. Event
+     * counts are always exact.
+     */
+    public TopCounts topEvents(int statusCode, int k, int from, int to) {
+        IntCounts counts = new IntCounts();
+        for (int eventCode = 0; eventCode < events.length; eventCode++) {
+            counts.add(eventCode, statusCode < 0 ? countEvent(eventCode, from, to)
+                    : RoaringBitmap.and(events[eventCode], statuses[statusCode]).rangeCardinality(from, to));
+        }
+        return TopCounts.of(counts, k);
+    }
+
+    /**
+     * Counts small ranges exactly. Larger ones add up the daily top counts of the whole days inside them and
+     * count the rows at the ends, as long as {@code k} fits in the daily top counts. A value's sum falls short
+     * of its count by at most the sum of the daily cutoffs, so only the values whose sum comes within that of
+     * the {@code k}-th sum can rank among the first {@code k}; those are counted exactly from their bitmaps.
+     * When a value left out of every day could rank, or too many values could, the range is scanned.
+     */
+    private TopCounts top(int column, IntUnaryOperator values, IntFunction<RoaringBitmap> rows, int statusCode,
+                          int k, int from, int to) {
+        IntCounts counts = new IntCounts();
+        if (to - from <= EXACT_TOP_ROWS || k > TopCounts.CAPACITY) {
+            count(values, statusCode, from, to, counts);
+            return TopCounts.of(counts, k);
+        }
+        long[] cutoffs = new long[1];
+        visit(0, from, to, new RangeVisitor() {
+            @Override
+            public void buckets(TimeRollup rollup, int first, int last) {
+                if (rollup.hasTopCounts()) {
+                    cutoffs[0] += rollup.addTopCounts(column, statusCode, first, last, counts);
+                } else {
+                    rows(rollup.start(first), rollup.end(last - 1));
+                }
+            }
+
+            @Override
+            public void rows(int from, int to) {
+                count(values, statusCode, from, to, counts);
+            }
+        });
+        TopCounts sums = TopCounts.of(counts, k);
+        if (cutoffs[0] == 0 || k == 0) {
+            return sums;
+        }
+        long least = sums.size() < k ? 0 : sums.getCount(k - 1);
+        if (cutoffs[0] < least) {
+            IntCounts candidates = new IntCounts();
+            counts.forEach((value, sum) -> {
+                if (sum + cutoffs[0] >= least && candidates.size() <= MAX_TOP_CANDIDATES) {
+                    RoaringBitmap bitmap = statusCode < 0 ? rows.apply(value)
+                            : RoaringBitmap.and(rows.apply(value), statuses[statusCode]);
+                    candidates.add(value, bitmap.rangeCardinality(from, to));
+                }
+            });
+            if (candidates.size() <= MAX_TOP_CANDIDATES) {
+                return TopCounts.of(candidates, k);
+            }
+        }
+        IntCounts exact = new IntCounts();
+        count(values, statusCode, from, to, exact);
+        return TopCounts.of(exact, k);
+    }
+
+    private void count(IntUnaryOperator values, int statusCode, int from, int to, IntCounts counts) {
+        IntConsumer counter = row -> {
+            int value = values.applyAsInt(row);
+            if (value >= 0) {
+                counts.increment(value);
+            }
+        };
+        if (statusCode < 0) {
+            for (int row = from; row < to; row++) {
+                counter.accept(row);
+            }
+        } else {
+            statuses[statusCode].forEach(from, to, counter);
+        }
+    }
+
+    private interface RangeVisitor {
+        void buckets(TimeRollup rollup, int first, int last);
+
+        void rows(int from, int to);
+    }
+
+    /**
+     * Splits {@code [from, to)} into whole buckets of the coarsest rollup, handing the ends down to the next
+     * finer rollup and finally to a row scan. Sparse buckets are not worth summing, and the finer rollups are
+     * sparser still, so a range whose whole buckets hold few rows is scanned instead.
+     */
+    private void visit(int level, int from, int to, RangeVisitor visitor) {
+        if (from >= to) {
+            return;
+        }
+        if (level == rollups.length) {
+            visitor.rows(from, to);
+            return;
+        }
+        TimeRollup rollup = rollups[level];
+        int first = rollup.firstBucketFrom(from);
+        int last = rollup.lastBucketTo(to);
+        if (first >= last) {
+            visit(level + 1, from, to, visitor);
+            return;
+        }
+        if ((long) (last - first) * MIN_BUCKET_ROWS > rollup.end(last - 1) - rollup.start(first)) {
+            visitor.rows(from, to);
+            return;
+        }
+        visit(level + 1, from, rollup.start(first), visitor);
+        visitor.buckets(rollup, first, last);
+        visit(level + 1, rollup.end(last - 1), to, visitor);
+    }
+}
@@ -0,0 +1,326 @@
+package logparser.store;
+
+import logparser.Event;
+import logparser.Status;
+
+/**
+ * Column-oriented storage of parsed log lines. Every line is a row spread across parallel columns: epoch
+ * millis, dictionary ids for user and IP, byte codes for event and status, the task number and the dictionary
+ * id of the source file name. Columns are primitive arrays on the heap or, in an off-heap store, fixed-width
+ * regions of direct buffers, which the garbage collector never traces or copies. The dictionaries stay on the
+ * heap in both, as they grow with the distinct values rather than with the lines.
+ * After {@link #sortByTime()} rows are ordered by timestamp, so a date window maps to a contiguous row range.
+ * <p>
+ * A {@link #view()} is a read-only store of the rows added so far. It shares the rows with the store, which
+ * only writes past the end of the view or into new storage, so views may be read from any thread while one
+ * thread keeps adding and sorting rows.
+ */
+public class EventStore {
+    public static final int NO_TASK = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Event[] EVENTS = Event.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private final Dictionary userDictionary;
+    private final Dictionary ipDictionary;
+    private final Dictionary sourceDictionary;
+
+    private final boolean offHeap;
+    private RowStorage rows;
+    private int size;
+    private boolean sorted = true;
+    private boolean readOnly;
+
+    public EventStore() {
+        this(false);
+    }
+
+    /**
+     * Creates a store that keeps its rows outside the Java heap when {@code offHeap} is set.
+     */
+    public EventStore(boolean offHeap) {
+        this.userDictionary = new Dictionary();
+        this.ipDictionary = new Dictionary();
+        this.sourceDictionary = new Dictionary();
+        this.offHeap = offHeap;
+        this.rows = offHeap ? new OffHeapColumns(INITIAL_CAPACITY) : new HeapColumns(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a store over already sorted rows, as read back from a segment file.
+     */
+    EventStore(Dictionary userDictionary, Dictionary ipDictionary, Dictionary sourceDictionary, RowStorage rows,
+               int size) {
+        this.userDictionary = userDictionary;
+        this.ipDictionary = ipDictionary;
+        this.sourceDictionary = sourceDictionary;
+        this.offHeap = rows instanceof OffHeapColumns;
+        this.rows = rows;
+        this.size = size;
+    }
+
+    /**
+     * Returns a read-only store of the rows added so far, which must be sorted.
+     */
+    public EventStore view() {
+        if (!sorted) {
+            throw new IllegalStateException("Rows are not sorted by time");
+        }
+        EventStore view = new EventStore(userDictionary.view(), ipDictionary.view(), sourceDictionary.view(), rows,
+                size);
+        view.readOnly = true;
+        return view;
+    }
+
+    /**
+     * Returns a new store of the same kind with the rows in {@code [from, to)}, whose dictionaries hold only the
+     * values of those rows.
+     */
+    public EventStore copyRows(int from, int to) {
+        EventStore copy = new EventStore(offHeap);
+        EventCursor cursor = cursor();
+        for (int row = from; row < to; row++) {
+            cursor.moveTo(row);
+            copy.add(ipDictionary.get(cursor.getIpId()), userDictionary.get(cursor.getUserId()),
+                    cursor.getTimestamp(), EVENTS[cursor.getEventCode()], cursor.getTask(),
+                    STATUSES[cursor.getStatusCode()], sourceDictionary.get(cursor.getSourceId()));
+        }
+        return copy;
+    }
+
+    public void add(String ip, String user, long timestamp, Event event, int task, Status status, String source) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Store view is read-only");
+        }
+        if (size == rows.capacity()) {
+            rows = rows.grow(Math.max(size * 2, INITIAL_CAPACITY));
+        }
+        if (size > 0 && timestamp < rows.timestamp(size - 1)) {
+            sorted = false;
+        }
+        rows.set(size, timestamp, userDictionary.intern(user), ipDictionary.intern(ip), event.ordinal(),
+                status.ordinal(), task, sourceDictionary.intern(source));
+        size++;
+    }
+
+    /**
+     * Reorders rows by timestamp. The sort is stable, so rows with equal timestamps keep their ingest order.
+     */
+    public void sortByTime() {
+        if (sorted) {
+            return;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+
+        RowStorage sortedRows = rows.allocate(rows.capacity());
+        EventCursor cursor = rows.cursor();
+        for (int i = 0; i < size; i++) {
+            cursor.moveTo(order[i]);
+            sortedRows.set(i, cursor.getTimestamp(), cursor.getUserId(), cursor.getIpId(), cursor.getEventCode(),
+                    cursor.getStatusCode(), cursor.getTask(), cursor.getSourceId());
+        }
+        rows = sortedRows;
+        sorted = true;
+    }
+
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle);
+        mergeSort(order, buffer, middle, to);
+        if (rows.timestamp(order[middle - 1]) <= rows.timestamp(order[middle])) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && rows.timestamp(buffer[left]) <= rows.timestamp(buffer[right]))) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Returns the first row before {@code from} whose timestamp is later than that of a row added since, which
+     * is where {@link #mergeFrom(int)} starts to move rows. The rows before {@code from} must be sorted.
+     */
+    public int mergePoint(int from) {
+        long earliest = Long.MAX_VALUE;
+        for (int row = from; row < size; row++) {
+            earliest = Math.min(earliest, rows.timestamp(row));
+        }
+        return search(earliest, true, from);
+    }
+
+    /**
+     * Sorts the rows added since {@code from} by timestamp and merges them into the sorted rows before it, in
+     * the order {@link #sortByTime()} would give them. Rows before {@link #mergePoint(int)} stay where they are;
+     * the rows from there on are written into storage that shares or copies the rows below, so the cost grows
+     * with the rows that move rather than with the whole store.
+     */
+    public void mergeFrom(int from) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Store view is read-only");
+        }
+        int first = mergePoint(from);
+        int count = size - from;
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = from + i;
+        }
+        mergeSort(order, new int[count], 0, count);
+
+        RowStorage mergedRows = rows.copyBelow(first);
+        EventCursor cursor = rows.cursor();
+        int old = first;
+        int added = 0;
+        for (int row = first; row < size; row++) {
+            if (added == count || (old < from && rows.timestamp(old) <= rows.timestamp(order[added]))) {
+                cursor.moveTo(old++);
+            } else {
+                cursor.moveTo(order[added++]);
+            }
+            mergedRows.set(row, cursor.getTimestamp(), cursor.getUserId(), cursor.getIpId(), cursor.getEventCode(),
+                    cursor.getStatusCode(), cursor.getTask(), cursor.getSourceId());
+        }
+        rows = mergedRows;
+        sorted = true;
+    }
+
+    /**
+     * Returns the first row whose timestamp is strictly greater than the given one.
+     */
+    public int firstRowAfter(long timestamp) {
+        return search(timestamp, true);
+    }
+
+    /**
+     * Returns the first row whose timestamp is greater than or equal to the given one.
+     */
+    public int firstRowAtOrAfter(long timestamp) {
+        return search(timestamp, false);
+    }
+
+    private int search(long timestamp, boolean strict) {
+        if (!sorted) {
+            throw new IllegalStateException("Rows are not sorted by time");
+        }
+        return search(timestamp, strict, size);
+    }
+
+    private int search(long timestamp, boolean strict, int to) {
+        int low = 0;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long current = rows.timestamp(middle);
+            if (current < timestamp || (strict && current == timestamp)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a cursor over the rows added so far.
+     */
+    public EventCursor cursor() {
+        return rows.cursor();
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Dictionary getUserDictionary() {
+        return userDictionary;
+    }
+
+    public Dictionary getIpDictionary() {
+        return ipDictionary;
+    }
+
+    public Dictionary getSourceDictionary() {
+        return sourceDictionary;
+    }
+
+    public long getTimestamp(int row) {
+        return rows.timestamp(row);
+    }
+
+    public int getUserId(int row) {
+        return rows.user(row);
+    }
+
+    public int getIpId(int row) {
+        return rows.ip(row);
+    }
+
+    public int getEventCode(int row) {
+        return rows.event(row);
+    }
+
+    public int getStatusCode(int row) {
+        return rows.status(row);
+    }
+
+    public int getTask(int row) {
+        return rows.task(row);
+    }
+
+    public int getSourceId(int row) {
+        return rows.source(row);
+    }
+
+    public String getUser(int row) {
+        return userDictionary.get(rows.user(row));
+    }
+
+    public String getIp(int row) {
+        return ipDictionary.get(rows.ip(row));
+    }
+
+    public Event getEvent(int row) {
+        return EVENTS[rows.event(row)];
+    }
+
+    public Status getStatus(int row) {
+        return STATUSES[rows.status(row)];
+    }
+
+    public static int eventCount() {
+        return EVENTS.length;
+    }
+
+    public static int statusCount() {
+        return STATUSES.length;
+    }
+
+    public static Event eventOf(int code) {
+        return EVENTS[code];
+    }
+
+    public static Status statusOf(int code) {
+        return STATUSES[code];
+    }
+}
@@ -0,0 +1,160 @@
+package logparser.store;
+
+import java.util.Arrays;
+
+/**
+ * Rows as parallel primitive arrays on the heap, one per column, so a scan over one column reads only that
+ * column.
+ */
+class HeapColumns implements RowStorage {
+    private final long[] timestamps;
+    private final int[] users;
+    private final int[] ips;
+    private final byte[] events;
+    private final byte[] statuses;
+    private final int[] tasks;
+    private final int[] sources;
+
+    HeapColumns(int capacity) {
+        this(new long[capacity], new int[capacity], new int[capacity], new byte[capacity], new byte[capacity],
+                new int[capacity], new int[capacity]);
+    }
+
+    HeapColumns(long[] timestamps, int[] users, int[] ips, byte[] events, byte[] statuses, int[] tasks,
+                int[] sources) {
+        this.timestamps = timestamps;
+        this.users = users;
+        this.ips = ips;
+        this.events = events;
+        this.statuses = statuses;
+        this.tasks = tasks;
+        this.sources = sources;
+    }
+
+    @Override
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    @Override
+    public RowStorage grow(int capacity) {
+        return new HeapColumns(Arrays.copyOf(timestamps, capacity), Arrays.copyOf(users, capacity),
+                Arrays.copyOf(ips, capacity), Arrays.copyOf(events, capacity), Arrays.copyOf(statuses, capacity),
+                Arrays.copyOf(tasks, capacity), Arrays.copyOf(sources, capacity));
+    }
+
+    @Override
+    public RowStorage allocate(int capacity) {
+        return new HeapColumns(capacity);
+    }
+
+    /**
+     * Copies the rows below {@code row} into new arrays, as {@link #grow(int)} copies all of them.
+     */
+    @Override
+    public RowStorage copyBelow(int row) {
+        HeapColumns copy = new HeapColumns(capacity());
+        System.arraycopy(timestamps, 0, copy.timestamps, 0, row);
+        System.arraycopy(users, 0, copy.users, 0, row);
+        System.arraycopy(ips, 0, copy.ips, 0, row);
+        System.arraycopy(events, 0, copy.events, 0, row);
+        System.arraycopy(statuses, 0, copy.statuses, 0, row);
+        System.arraycopy(tasks, 0, copy.tasks, 0, row);
+        System.arraycopy(sources, 0, copy.sources, 0, row);
+        return copy;
+    }
+
+    @Override
+    public void set(int row, long timestamp, int user, int ip, int event, int status, int task, int source) {
+        timestamps[row] = timestamp;
+        users[row] = user;
+        ips[row] = ip;
+        events[row] = (byte) event;
+        statuses[row] = (byte) status;
+        tasks[row] = task;
+        sources[row] = source;
+    }
+
+    @Override
+    public long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    @Override
+    public int user(int row) {
+        return users[row];
+    }
+
+    @Override
+    public int ip(int row) {
+        return ips[row];
+    }
+
+    @Override
+    public int event(int row) {
+        return events[row];
+    }
+
+    @Override
+    public int status(int row) {
+        return statuses[row];
+    }
+
+    @Override
+    public int task(int row) {
+        return tasks[row];
+    }
+
+    @Override
+    public int source(int row) {
+        return sources[row];
+    }
+
+    @Override
+    public EventCursor cursor() {
+        return new EventCursor() {
+            private int row;
+
+            @Override
+            public EventCursor moveTo(int row) {
+                this.row = row;
+                return this;
+            }
+
+            @Override
+            public long getTimestamp() {
+                return timestamps[row];
+            }
+
+            @Override
+            public int getUserId() {
+                return users[row];
+            }
+
+            @Override
+            public int getIpId() {
+                return ips[row];
+            }
+
+            @Override
+            public int getEventCode() {
+                return events[row];
+            }
+
+            @Override
+            public int getStatusCode() {
+                return statuses[row];
+            }
+
+            @Override
+            public int getTask() {
+                return tasks[row];
+            }
+
+            @Override
+            public int getSourceId() {
+                return sources[row];
+            }
+        };
+    }
+}
@@ -0,0 +1,141 @@
+package logparser.store;
+
+/**
+ * A HyperLogLog sketch: estimates the number of distinct values added to it in {@code 2^precision} bytes,
+ * whatever that number is, with a relative standard error of about {@code 1.04 / sqrt(2^precision)}.
+ * Sketches of the same precision merge into the sketch of the union of their values, so sketches kept per
+ * time bucket add up to the sketch of any run of buckets.
+ * <p>
+ * Values are added as 64-bit hashes; {@link #hash(long)} spreads dictionary ids and other small integers.
+ */
+public class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Returns the smallest precision whose standard error is at most {@code error}, within the supported range.
+     */
+    public static int precisionFor(double error) {
+        if (!(error > 0)) {
+            throw new IllegalArgumentException("Error must be positive: " + error);
+        }
+        int precision = MIN_PRECISION;
+        while (precision < MAX_PRECISION && errorOf(precision) > error) {
+            precision++;
+        }
+        return precision;
+    }
+
+    /**
+     * Returns the relative standard error of estimates at the precision.
+     */
+    public static double errorOf(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * Spreads a value over 64 bits: a golden-ratio offset, so that zero does not hash to zero, then the
+     * finalizer of MurmurHash3, in which every input bit affects every output bit.
+     */
+    public static long hash(long value) {
+        value += 0x9e3779b97f4a7c15L;
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // The marker bit caps the rank at 64 - precision + 1 when the remaining bits are all zero.
+        byte rank = (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+        if (registers[register] < rank) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch of the same precision to this one.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into " + precision);
+        }
+        byte[] otherRegisters = other.registers;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < otherRegisters[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values. Uses the improved estimator of Ertl, "New cardinality
+     * estimation algorithms for HyperLogLog sketches" (2017), which is unbiased across the whole range without
+     * the empirical corrections of the original estimator.
+     */
+    public long estimate() {
+        int m = registers.length;
+        int q = 64 - precision;
+        int[] counts = new int[q + 2];
+        for (byte register : registers) {
+            counts[register]++;
+        }
+        double z = m * tau(1 - (double) counts[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + counts[k]);
+        }
+        z += m * sigma((double) counts[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
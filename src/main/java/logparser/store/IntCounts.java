@@ -0,0 +1,89 @@
+package logparser.store;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open-addressing hash map from int keys to positive counts, for aggregating a column in one pass without
+ * boxing. A slot with a zero count is empty.
+ */
+public class IntCounts {
+    private int[] keys = new int[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    public interface Visitor {
+        void accept(int key, int count);
+    }
+
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    public void add(int key, int count) {
+        if (count == 0) {
+            return;
+        }
+        int slot = slot(key);
+        if (counts[slot] == 0) {
+            keys[slot] = key;
+            size++;
+            counts[slot] = count;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+        } else {
+            counts[slot] += count;
+        }
+    }
+
+    public void addAll(IntCounts other) {
+        other.forEach(this::add);
+    }
+
+    public int get(int key) {
+        return counts[slot(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                visitor.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    public Map<Integer, Integer> toMap() {
+        Map<Integer, Integer> map = new HashMap<>();
+        forEach(map::put);
+        return map;
+    }
+
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (counts[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
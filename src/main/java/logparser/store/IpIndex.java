@@ -0,0 +1,85 @@
+package logparser.store;
+
+import java.util.Arrays;
+
+/**
+ * IP dictionary ids sorted by their packed IPv4 address, so that the ids of a subnet or an address range
+ * are found with two binary searches. Strings that are not IPv4 addresses are left out.
+ */
+public class IpIndex {
+    private static final long SIGN_BIT = 0x8000_0000L;
+
+    private long[] addresses = new long[0];
+    private int[] ids = new int[0];
+    private int indexedIds;
+
+    /**
+     * Returns an index of the entries added so far. {@link #update} replaces the arrays rather than writing to
+     * them, so they are shared.
+     */
+    public IpIndex view() {
+        IpIndex view = new IpIndex();
+        view.addresses = addresses;
+        view.ids = ids;
+        view.indexedIds = indexedIds;
+        return view;
+    }
+
+    /**
+     * Adds the dictionary entries created since the previous call.
+     */
+    public void update(Dictionary ipDictionary) {
+        if (indexedIds == ipDictionary.size()) {
+            return;
+        }
+        long[] entries = new long[ids.length + ipDictionary.size() - indexedIds];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            entries[size++] = entry(addresses[i], ids[i]);
+        }
+        for (int id = indexedIds; id < ipDictionary.size(); id++) {
+            long address = IpRange.pack(ipDictionary.get(id));
+            if (address != IpRange.NOT_IPV4) {
+                entries[size++] = entry(address, id);
+            }
+        }
+        Arrays.sort(entries, 0, size);
+        addresses = new long[size];
+        ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            addresses[i] = (entries[i] >>> 32) ^ SIGN_BIT;
+            ids[i] = (int) entries[i];
+        }
+        indexedIds = ipDictionary.size();
+    }
+
+    /**
+     * Packs address and id into one long whose signed order is the unsigned order of the addresses.
+     */
+    private static long entry(long address, int id) {
+        return ((address ^ SIGN_BIT) << 32) | id;
+    }
+
+    /**
+     * Returns the dictionary ids of all known IPs inside the range, ordered by address.
+     */
+    public int[] idsInRange(IpRange range) {
+        int from = lowerBound(range.getFirst());
+        int to = lowerBound(range.getLast() + 1);
+        return Arrays.copyOfRange(ids, from, to);
+    }
+
+    private int lowerBound(long address) {
+        int low = 0;
+        int high = addresses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (addresses[middle] < address) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,99 @@
+package logparser.store;
+
+/**
+ * Inclusive range of IPv4 addresses packed as unsigned 32-bit values. Parsed from a single address
+ * ({@code 146.34.15.5}), a CIDR block ({@code 146.34.0.0/16}) or a dash-separated range
+ * ({@code 10.0.0.1-10.0.0.255}).
+ */
+public class IpRange {
+    public static final long NOT_IPV4 = -1;
+
+    private final long first;
+    private final long last;
+
+    public IpRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    public static IpRange parse(String text) {
+        int slash = text.indexOf('/');
+        if (slash >= 0) {
+            long network = requireAddress(text.substring(0, slash));
+            int prefix;
+            try {
+                prefix = Integer.parseInt(text.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CIDR prefix: " + text);
+            }
+            if (prefix < 0 || prefix > 32) {
+                throw new IllegalArgumentException("Invalid CIDR prefix: " + text);
+            }
+            long hostMask = (1L << (32 - prefix)) - 1;
+            return new IpRange(network & ~hostMask, network | hostMask);
+        }
+        int dash = text.indexOf('-');
+        if (dash >= 0) {
+            return of(text.substring(0, dash).trim(), text.substring(dash + 1).trim());
+        }
+        long address = requireAddress(text);
+        return new IpRange(address, address);
+    }
+
+    public static IpRange of(String first, String last) {
+        long from = requireAddress(first);
+        long to = requireAddress(last);
+        if (from > to) {
+            throw new IllegalArgumentException("Empty IP range: " + first + " - " + last);
+        }
+        return new IpRange(from, to);
+    }
+
+    private static long requireAddress(String text) {
+        long address = pack(text);
+        if (address == NOT_IPV4) {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + text);
+        }
+        return address;
+    }
+
+    /**
+     * Packs a dotted-quad IPv4 address into an unsigned 32-bit value, returns {@link #NOT_IPV4} if the text
+     * is not an IPv4 address.
+     */
+    public static long pack(String text) {
+        long address = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++octets > 4) {
+                    return NOT_IPV4;
+                }
+                address = (address << 8) | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return NOT_IPV4;
+                }
+            } else {
+                return NOT_IPV4;
+            }
+        }
+        return octets == 4 ? address : NOT_IPV4;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public boolean contains(long address) {
+        return address >= first && address <= last;
+    }
+}
@@ -0,0 +1,173 @@
+package logparser.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Rows in direct buffers outside the Java heap, so the loaded rows add nothing for the garbage collector to
+ * trace or copy. Rows are kept in chunks of 32768 that are allocated as the storage grows; a larger storage
+ * shares the chunks it already has instead of copying them. Within a chunk every column is a fixed-width
+ * region of its own, so a scan over one column reads only that column, as with {@link HeapColumns}.
+ * <p>
+ * The memory of a chunk is released once no storage refers to it any more, when the collector clears its
+ * buffer. It counts against {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+class OffHeapColumns implements RowStorage {
+    private static final int CHUNK_SHIFT = 15;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    private static final int TIMESTAMP = 0;
+    private static final int USER = TIMESTAMP + CHUNK_ROWS * Long.BYTES;
+    private static final int IP = USER + CHUNK_ROWS * Integer.BYTES;
+    private static final int TASK = IP + CHUNK_ROWS * Integer.BYTES;
+    private static final int SOURCE = TASK + CHUNK_ROWS * Integer.BYTES;
+    private static final int EVENT = SOURCE + CHUNK_ROWS * Integer.BYTES;
+    private static final int STATUS = EVENT + CHUNK_ROWS;
+    private static final int CHUNK_BYTES = STATUS + CHUNK_ROWS;
+
+    private final ByteBuffer[] chunks;
+
+    OffHeapColumns(int capacity) {
+        this(new ByteBuffer[0], capacity);
+    }
+
+    private OffHeapColumns(ByteBuffer[] chunks, int capacity) {
+        int count = (int) (((long) capacity + CHUNK_MASK) >>> CHUNK_SHIFT);
+        this.chunks = Arrays.copyOf(chunks, Math.max(count, chunks.length));
+        for (int i = chunks.length; i < this.chunks.length; i++) {
+            this.chunks[i] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return (int) Math.min((long) chunks.length << CHUNK_SHIFT, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public RowStorage grow(int capacity) {
+        return new OffHeapColumns(chunks, capacity);
+    }
+
+    @Override
+    public RowStorage allocate(int capacity) {
+        return new OffHeapColumns(capacity);
+    }
+
+    /**
+     * Shares the chunks below the one that holds {@code row} and copies that one, so only the rows of one chunk
+     * are copied however many rows lie below.
+     */
+    @Override
+    public RowStorage copyBelow(int row) {
+        int shared = row >>> CHUNK_SHIFT;
+        OffHeapColumns copy = new OffHeapColumns(Arrays.copyOf(chunks, shared), capacity());
+        if ((row & CHUNK_MASK) != 0) {
+            copy.chunks[shared].put(0, chunks[shared], 0, CHUNK_BYTES);
+        }
+        return copy;
+    }
+
+    @Override
+    public void set(int row, long timestamp, int user, int ip, int event, int status, int task, int source) {
+        ByteBuffer chunk = chunks[row >>> CHUNK_SHIFT];
+        int index = row & CHUNK_MASK;
+        chunk.putLong(TIMESTAMP + index * Long.BYTES, timestamp);
+        chunk.putInt(USER + index * Integer.BYTES, user);
+        chunk.putInt(IP + index * Integer.BYTES, ip);
+        chunk.putInt(TASK + index * Integer.BYTES, task);
+        chunk.putInt(SOURCE + index * Integer.BYTES, source);
+        chunk.put(EVENT + index, (byte) event);
+        chunk.put(STATUS + index, (byte) status);
+    }
+
+    @Override
+    public long timestamp(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getLong(TIMESTAMP + (row & CHUNK_MASK) * Long.BYTES);
+    }
+
+    @Override
+    public int user(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(USER + (row & CHUNK_MASK) * Integer.BYTES);
+    }
+
+    @Override
+    public int ip(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(IP + (row & CHUNK_MASK) * Integer.BYTES);
+    }
+
+    @Override
+    public int event(int row) {
+        return chunks[row >>> CHUNK_SHIFT].get(EVENT + (row & CHUNK_MASK));
+    }
+
+    @Override
+    public int status(int row) {
+        return chunks[row >>> CHUNK_SHIFT].get(STATUS + (row & CHUNK_MASK));
+    }
+
+    @Override
+    public int task(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(TASK + (row & CHUNK_MASK) * Integer.BYTES);
+    }
+
+    @Override
+    public int source(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(SOURCE + (row & CHUNK_MASK) * Integer.BYTES);
+    }
+
+    /**
+     * Returns a cursor that finds the chunk of a row once per move rather than once per column.
+     */
+    @Override
+    public EventCursor cursor() {
+        return new EventCursor() {
+            private ByteBuffer chunk;
+            private int index;
+
+            @Override
+            public EventCursor moveTo(int row) {
+                chunk = chunks[row >>> CHUNK_SHIFT];
+                index = row & CHUNK_MASK;
+                return this;
+            }
+
+            @Override
+            public long getTimestamp() {
+                return chunk.getLong(TIMESTAMP + index * Long.BYTES);
+            }
+
+            @Override
+            public int getUserId() {
+                return chunk.getInt(USER + index * Integer.BYTES);
+            }
+
+            @Override
+            public int getIpId() {
+                return chunk.getInt(IP + index * Integer.BYTES);
+            }
+
+            @Override
+            public int getEventCode() {
+                return chunk.get(EVENT + index);
+            }
+
+            @Override
+            public int getStatusCode() {
+                return chunk.get(STATUS + index);
+            }
+
+            @Override
+            public int getTask() {
+                return chunk.getInt(TASK + index * Integer.BYTES);
+            }
+
+            @Override
+            public int getSourceId() {
+                return chunk.getInt(SOURCE + index * Integer.BYTES);
+            }
+        };
+    }
+}
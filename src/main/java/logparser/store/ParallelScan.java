@@ -0,0 +1,52 @@
+package logparser.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Scans a row range on the threads of the common fork-join pool. The range is cut at day boundaries into one
+ * part per thread, each part is scanned into an accumulator of its own and the accumulators are merged in row
+ * order. Ranges too small to pay for the hand-off are scanned on the calling thread.
+ */
+public class ParallelScan {
+    private static final int MIN_PART_ROWS = 1 << 16;
+
+    public interface RangeScan<T> {
+        void scan(T accumulator, int from, int to);
+    }
+
+    /**
+     * @param accumulators creates an empty accumulator per part
+     * @param scan         adds the rows of a part to its accumulator
+     * @param merge        adds the second accumulator to the first
+     */
+    public static <T> T scan(EventIndex index, int from, int to, Supplier<T> accumulators, RangeScan<T> scan,
+                             BiConsumer<T, T> merge) {
+        T result = accumulators.get();
+        long parts = Math.min(ForkJoinPool.getCommonPoolParallelism(), (long) (to - from) / MIN_PART_ROWS);
+        if (parts <= 1) {
+            scan.scan(result, from, to);
+            return result;
+        }
+        int[] bounds = index.partitions(from, to, (int) parts);
+        List<ForkJoinTask<T>> tasks = new ArrayList<>();
+        for (int part = 1; part + 1 < bounds.length; part++) {
+            int first = bounds[part];
+            int last = bounds[part + 1];
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                T accumulator = accumulators.get();
+                scan.scan(accumulator, first, last);
+                return accumulator;
+            }));
+        }
+        scan.scan(result, bounds[0], bounds[1]);
+        for (ForkJoinTask<T> task : tasks) {
+            merge.accept(result, task.join());
+        }
+        return result;
+    }
+}
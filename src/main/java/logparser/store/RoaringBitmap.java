@@ -0,0 +1,565 @@
+package logparser.store;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the style of Roaring bitmaps. Values are split by their high 16 bits
+ * into chunks; sparse chunks are kept as sorted arrays, dense chunks as 65536-bit bitmaps.
+ */
+public class RoaringBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+    /**
+     * The {@link EventIndex} version that owns this bitmap and may append to it.
+     */
+    int generation;
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = indexOf(key);
+        if (index >= 0) {
+            containers[index] = containers[index].add((char) value);
+            return;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = new ArrayContainer().add((char) value);
+        size++;
+    }
+
+    public boolean contains(int value) {
+        int index = indexOf((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the number of values in {@code [from, to)}.
+     */
+    public int rangeCardinality(int from, int to) {
+        int cardinality = 0;
+        for (int i = firstChunk(from); i < size && chunkBase(i) < to; i++) {
+            int base = chunkBase(i);
+            cardinality += containers[i].rangeCardinality(Math.max(from - base, 0), Math.min(to - base, CHUNK_SIZE));
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the smallest value in {@code [from, to)}, or -1 if there is none.
+     */
+    public int first(int from, int to) {
+        for (int i = firstChunk(from); i < size && chunkBase(i) < to; i++) {
+            int base = chunkBase(i);
+            int low = containers[i].next(Math.max(from - base, 0));
+            if (low >= 0) {
+                int value = base + low;
+                return value < to ? value : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes every value in {@code [from, to)} to the consumer in ascending order.
+     */
+    public void forEach(int from, int to, IntConsumer consumer) {
+        for (int i = firstChunk(from); i < size && chunkBase(i) < to; i++) {
+            int base = chunkBase(i);
+            containers[i].forEach(base, Math.max(from - base, 0), Math.min(to - base, CHUNK_SIZE), consumer);
+        }
+    }
+
+    public static RoaringBitmap and(RoaringBitmap first, RoaringBitmap second) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < first.size && j < second.size) {
+            if (first.keys[i] < second.keys[j]) {
+                i++;
+            } else if (first.keys[i] > second.keys[j]) {
+                j++;
+            } else {
+                Container container = first.containers[i].and(second.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(first.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the union of two bitmaps. The result may share containers with its operands, so it must be
+     * treated as read-only.
+     */
+    public static RoaringBitmap or(RoaringBitmap first, RoaringBitmap second) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < first.size || j < second.size) {
+            if (j == second.size || (i < first.size && first.keys[i] < second.keys[j])) {
+                result.append(first.keys[i], first.containers[i]);
+                i++;
+            } else if (i == first.size || first.keys[i] > second.keys[j]) {
+                result.append(second.keys[j], second.containers[j]);
+                j++;
+            } else {
+                result.append(first.keys[i], first.containers[i].or(second.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy to append larger values to while this bitmap stays unchanged. Appends only touch the last
+     * container, so the others are shared.
+     */
+    RoaringBitmap copyForAppend() {
+        RoaringBitmap copy = new RoaringBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(size + 1, 4));
+        copy.containers = Arrays.copyOf(containers, copy.keys.length);
+        copy.size = size;
+        if (size > 0) {
+            copy.containers[size - 1] = containers[size - 1].copy();
+        }
+        return copy;
+    }
+
+    /**
+     * Removes the values at or above {@code from}. The container that is cut is replaced by a cut copy and the
+     * others are only dropped, so a bitmap from {@link #copyForAppend()} leaves the original unchanged.
+     */
+    void removeFrom(int from) {
+        int index = firstChunk(from);
+        int kept = index;
+        if (index < size && chunkBase(index) < from) {
+            Container cut = containers[index].removeFrom(from - chunkBase(index));
+            if (cut.cardinality() > 0) {
+                containers[index] = cut;
+                kept++;
+            }
+        }
+        Arrays.fill(containers, kept, size, null);
+        size = kept;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].writeTo(out);
+        }
+    }
+
+    static RoaringBitmap readFrom(ByteBuffer in) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int size = in.getInt();
+        for (int i = 0; i < size; i++) {
+            char key = in.getChar();
+            bitmap.append(key, in.get() == ARRAY ? ArrayContainer.readFrom(in) : BitmapContainer.readFrom(in));
+        }
+        return bitmap;
+    }
+
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private int indexOf(char key) {
+        // Row ids usually arrive in ascending order, so check the last chunk before searching.
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private int firstChunk(int from) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (Math.max(from, 0) >>> 16));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private int chunkBase(int index) {
+        return keys[index] << 16;
+    }
+
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container copy();
+
+        /**
+         * Returns a copy without the values at or above {@code from}.
+         */
+        abstract Container removeFrom(int from);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract int rangeCardinality(int from, int to);
+
+        abstract int next(int from);
+
+        abstract void forEach(int base, int from, int to, IntConsumer consumer);
+
+        abstract Container and(Container other);
+
+        /**
+         * Returns the union as a new container; neither operand is modified.
+         */
+        abstract Container or(Container other);
+
+        abstract void writeTo(DataOutput out) throws IOException;
+    }
+
+    private static class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int cardinality;
+
+        @Override
+        Container add(char value) {
+            int index = cardinality > 0 && values[cardinality - 1] < value
+                    ? -cardinality - 1
+                    : Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), ARRAY_LIMIT));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = values.clone();
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container removeFrom(int from) {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = values.clone();
+            copy.cardinality = lowerBound(from);
+            return copy;
+        }
+
+        static ArrayContainer readFrom(ByteBuffer in) {
+            ArrayContainer container = new ArrayContainer();
+            container.cardinality = in.getInt();
+            container.values = new char[Math.max(container.cardinality, 4)];
+            in.asCharBuffer().get(container.values, 0, container.cardinality);
+            in.position(in.position() + container.cardinality * Character.BYTES);
+            return container;
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            out.writeByte(ARRAY);
+            out.writeInt(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int rangeCardinality(int from, int to) {
+            return lowerBound(to) - lowerBound(from);
+        }
+
+        @Override
+        int next(int from) {
+            int index = lowerBound(from);
+            return index < cardinality ? values[index] : -1;
+        }
+
+        @Override
+        void forEach(int base, int from, int to, IntConsumer consumer) {
+            for (int i = lowerBound(from); i < cardinality && values[i] < to; i++) {
+                consumer.accept(base + values[i]);
+            }
+        }
+
+        private int lowerBound(int value) {
+            if (value >= CHUNK_SIZE) {
+                return cardinality;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) value);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_LIMIT) {
+                BitmapContainer result = toBitmap();
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.add(array.values[i]);
+                }
+                return result;
+            }
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[cardinality + array.cardinality];
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                char value;
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    value = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    value = array.values[j++];
+                } else {
+                    value = values[i++];
+                    j++;
+                }
+                result.values[result.cardinality++] = value;
+            }
+            return result;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[cardinality];
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result.values[result.cardinality++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result.values[result.cardinality++] = values[i];
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words = new long[CHUNK_SIZE / 64];
+        private int cardinality;
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container removeFrom(int from) {
+            BitmapContainer copy = new BitmapContainer();
+            int word = from >>> 6;
+            System.arraycopy(words, 0, copy.words, 0, word);
+            copy.words[word] = words[word] & ~(-1L << from);
+            for (int i = 0; i <= word; i++) {
+                copy.cardinality += Long.bitCount(copy.words[i]);
+            }
+            return copy;
+        }
+
+        static BitmapContainer readFrom(ByteBuffer in) {
+            BitmapContainer container = new BitmapContainer();
+            container.cardinality = in.getInt();
+            in.asLongBuffer().get(container.words);
+            in.position(in.position() + container.words.length * Long.BYTES);
+            return container;
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            out.writeByte(BITMAP);
+            out.writeInt(cardinality);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            long word = words[value >>> 6];
+            long updated = word | (1L << value);
+            if (word != updated) {
+                words[value >>> 6] = updated;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int rangeCardinality(int from, int to) {
+            if (from >= to) {
+                return 0;
+            }
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> (63 - ((to - 1) & 63));
+            if (firstWord == lastWord) {
+                return Long.bitCount(words[firstWord] & firstMask & lastMask);
+            }
+            int result = Long.bitCount(words[firstWord] & firstMask);
+            for (int i = firstWord + 1; i < lastWord; i++) {
+                result += Long.bitCount(words[i]);
+            }
+            return result + Long.bitCount(words[lastWord] & lastMask);
+        }
+
+        @Override
+        int next(int from) {
+            if (from >= CHUNK_SIZE) {
+                return -1;
+            }
+            int index = from >>> 6;
+            long word = words[index] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return index * 64 + Long.numberOfTrailingZeros(word);
+                }
+                if (++index == words.length) {
+                    return -1;
+                }
+                word = words[index];
+            }
+        }
+
+        @Override
+        void forEach(int base, int from, int to, IntConsumer consumer) {
+            for (int value = next(from); value >= 0 && value < to; value = next(value + 1)) {
+                consumer.accept(base + value);
+            }
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.add(array.values[i]);
+                }
+                return result;
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            result.cardinality = 0;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] |= bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            if (result.cardinality > ARRAY_LIMIT) {
+                return result;
+            }
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[result.cardinality];
+            result.forEach(0, 0, CHUNK_SIZE, value -> array.values[array.cardinality++] = (char) value);
+            return array;
+        }
+    }
+}
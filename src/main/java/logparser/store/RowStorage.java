@@ -0,0 +1,44 @@
+package logparser.store;
+
+/**
+ * Fixed-capacity storage behind an {@link EventStore}: one row per parsed line, written once at an index below
+ * the capacity and read any number of times. A larger storage is a new object, so a store view keeps reading
+ * the storage it was created with while the store grows into the next one.
+ */
+interface RowStorage {
+    int capacity();
+
+    /**
+     * Returns a storage of the given capacity that holds the same rows.
+     */
+    RowStorage grow(int capacity);
+
+    /**
+     * Returns an empty storage of the same kind.
+     */
+    RowStorage allocate(int capacity);
+
+    /**
+     * Returns a storage of the same capacity that holds the same rows below {@code row} and whose rows from
+     * {@code row} on may be written without changing this one.
+     */
+    RowStorage copyBelow(int row);
+
+    void set(int row, long timestamp, int user, int ip, int event, int status, int task, int source);
+
+    long timestamp(int row);
+
+    int user(int row);
+
+    int ip(int row);
+
+    int event(int row);
+
+    int status(int row);
+
+    int task(int row);
+
+    int source(int row);
+
+    EventCursor cursor();
+}
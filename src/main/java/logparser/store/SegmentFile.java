@@ -0,0 +1,343 @@
+package logparser.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of an {@link EventStore} and its {@link EventIndex}. The file holds a manifest of the source
+ * files with their size and modification time, the user, IP and source dictionaries, the time-ordered columns
+ * and the serialized bitmaps, followed by a CRC-32 of everything before it. Reading checks the CRC over the
+ * whole file, maps it and copies the columns in bulk, or record by record into an off-heap store. A start with
+ * unchanged logs skips parsing the text, sorting the rows and building the bitmaps; the time rollups, sketches
+ * and user postings are not stored and are rebuilt from the restored rows, so a restore still reads every row
+ * a few times and takes time linear in their number.
+ */
+public class SegmentFile {
+    public static final String DEFAULT_NAME = ".logparser.segment";
+
+    private static final int MAGIC = 0x4C505347;
+    private static final int VERSION = 2;
+    private static final int CHECKSUM_REGION = 1 << 26;
+
+    private final Path path;
+    private final int sketchPrecision;
+    private final boolean offHeap;
+
+    public SegmentFile(Path path) {
+        this(path, EventIndex.DEFAULT_SKETCH_PRECISION, false);
+    }
+
+    /**
+     * @param sketchPrecision precision of the distinct-value sketches of a restored index
+     * @param offHeap         whether the restored store keeps its rows outside the Java heap
+     */
+    public SegmentFile(Path path, int sketchPrecision, boolean offHeap) {
+        this.path = path;
+        this.sketchPrecision = sketchPrecision;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Reads the rows of every source file that has not changed since the segment was written. Returns null if
+     * there is no usable segment, including one whose CRC does not match. The index is restored only when the
+     * segment covers exactly the given files; otherwise it is null and the caller has to rebuild it after adding
+     * the remaining rows.
+     *
+     * @throws IOException if the segment cannot be read or does not decode
+     */
+    public Restored restore(List<SourceFile> currentFiles) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (!hasValidChecksum(channel)) {
+                return null;
+            }
+            return restore(channel, currentFiles);
+        } catch (RuntimeException e) {
+            // A segment that passes the CRC but fails to decode was written by a broken or different build.
+            throw new IOException("Corrupt segment file " + path, e);
+        }
+    }
+
+    private Restored restore(FileChannel channel, List<SourceFile> currentFiles) throws IOException {
+        Reader reader = new Reader(channel);
+        ByteBuffer header = reader.section(5 * Integer.BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != EventStore.eventCount() || header.getInt() != EventStore.statusCount()) {
+            return null;
+        }
+        int rows = header.getInt();
+
+        Map<String, SourceFile> current = new HashMap<>();
+        for (SourceFile file : currentFiles) {
+            current.put(file.getName(), file);
+        }
+        ByteBuffer manifest = reader.variableSection();
+        int savedFiles = manifest.getInt();
+        Set<String> unchanged = new HashSet<>();
+        for (int i = 0; i < savedFiles; i++) {
+            SourceFile saved = new SourceFile(readString(manifest), manifest.getLong(), manifest.getLong());
+            if (saved.isSameAs(current.get(saved.getName()))) {
+                unchanged.add(saved.getName());
+            }
+        }
+        if (unchanged.isEmpty()) {
+            return null;
+        }
+
+        Dictionary userDictionary = readDictionary(reader.variableSection());
+        Dictionary ipDictionary = readDictionary(reader.variableSection());
+        Dictionary sourceDictionary = readDictionary(reader.variableSection());
+        RowStorage storage = offHeap ? readRecords(reader, rows) : readColumns(reader, rows);
+        EventStore saved = new EventStore(userDictionary, ipDictionary, sourceDictionary, storage, rows);
+
+        if (unchanged.size() == savedFiles && unchanged.size() == currentFiles.size()) {
+            EventIndex index = EventIndex.readFrom(reader.section(channel.size() - Long.BYTES - reader.position),
+                    saved, sketchPrecision);
+            return new Restored(saved, index, unchanged);
+        }
+        return new Restored(copyRows(saved, unchanged), null, unchanged);
+    }
+
+    private static boolean hasValidChecksum(FileChannel channel) throws IOException {
+        long length = channel.size() - Long.BYTES;
+        if (length < 0) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        for (long position = 0; position < length; position += CHECKSUM_REGION) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHECKSUM_REGION,
+                    length - position)));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, length, Long.BYTES).getLong() == crc.getValue();
+    }
+
+    private static RowStorage readColumns(Reader reader, int rows) throws IOException {
+        long[] timestamps = new long[rows];
+        reader.section((long) rows * Long.BYTES).asLongBuffer().get(timestamps);
+        int[] users = new int[rows];
+        reader.section((long) rows * Integer.BYTES).asIntBuffer().get(users);
+        int[] ips = new int[rows];
+        reader.section((long) rows * Integer.BYTES).asIntBuffer().get(ips);
+        byte[] events = new byte[rows];
+        reader.section(rows).get(events);
+        byte[] statuses = new byte[rows];
+        reader.section(rows).get(statuses);
+        int[] tasks = new int[rows];
+        reader.section((long) rows * Integer.BYTES).asIntBuffer().get(tasks);
+        int[] sources = new int[rows];
+        reader.section((long) rows * Integer.BYTES).asIntBuffer().get(sources);
+        return new HeapColumns(timestamps, users, ips, events, statuses, tasks, sources);
+    }
+
+    /**
+     * Reads the columns into off-heap storage without copying them to the heap first.
+     */
+    private static RowStorage readRecords(Reader reader, int rows) throws IOException {
+        ByteBuffer timestamps = reader.section((long) rows * Long.BYTES);
+        ByteBuffer users = reader.section((long) rows * Integer.BYTES);
+        ByteBuffer ips = reader.section((long) rows * Integer.BYTES);
+        ByteBuffer events = reader.section(rows);
+        ByteBuffer statuses = reader.section(rows);
+        ByteBuffer tasks = reader.section((long) rows * Integer.BYTES);
+        ByteBuffer sources = reader.section((long) rows * Integer.BYTES);
+        RowStorage columns = new OffHeapColumns(rows);
+        for (int row = 0; row < rows; row++) {
+            columns.set(row, timestamps.getLong(), users.getInt(), ips.getInt(), events.get(), statuses.get(),
+                    tasks.getInt(), sources.getInt());
+        }
+        return columns;
+    }
+
+    private static EventStore copyRows(EventStore saved, Set<String> sources) {
+        EventStore store = new EventStore(saved.isOffHeap());
+        EventCursor cursor = saved.cursor();
+        for (int row = 0; row < saved.size(); row++) {
+            String source = saved.getSourceDictionary().get(cursor.moveTo(row).getSourceId());
+            if (sources.contains(source)) {
+                store.add(saved.getIpDictionary().get(cursor.getIpId()),
+                        saved.getUserDictionary().get(cursor.getUserId()), cursor.getTimestamp(),
+                        EventStore.eventOf(cursor.getEventCode()), cursor.getTask(),
+                        EventStore.statusOf(cursor.getStatusCode()), source);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Writes the store, which must be sorted by time, and its index. The file is written next to the target
+     * and moved into place, so a crash never leaves a truncated segment behind.
+     */
+    public void write(EventStore store, EventIndex index, List<SourceFile> sourceFiles) throws IOException {
+        Map<String, SourceFile> files = new HashMap<>();
+        for (SourceFile file : sourceFiles) {
+            files.put(file.getName(), file);
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(Files.newOutputStream(temporary), crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(EventStore.eventCount());
+            out.writeInt(EventStore.statusCount());
+            out.writeInt(store.size());
+
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            DataOutputStream manifest = new DataOutputStream(manifestBytes);
+            Dictionary sources = store.getSourceDictionary();
+            manifest.writeInt(sources.size());
+            for (int id = 0; id < sources.size(); id++) {
+                SourceFile file = files.get(sources.get(id));
+                writeString(manifest, sources.get(id));
+                // A source without a known size and time never matches, so its rows are parsed again.
+                manifest.writeLong(file == null ? -1 : file.getSize());
+                manifest.writeLong(file == null ? -1 : file.getLastModified());
+            }
+            writeSection(out, manifestBytes);
+            writeDictionary(out, store.getUserDictionary());
+            writeDictionary(out, store.getIpDictionary());
+            writeDictionary(out, sources);
+
+            for (int row = 0; row < store.size(); row++) {
+                out.writeLong(store.getTimestamp(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeInt(store.getUserId(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeInt(store.getIpId(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeByte(store.getEventCode(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeByte(store.getStatusCode(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeInt(store.getTask(row));
+            }
+            for (int row = 0; row < store.size(); row++) {
+                out.writeInt(store.getSourceId(row));
+            }
+            index.writeTo(out);
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeDictionary(DataOutputStream out, Dictionary dictionary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream section = new DataOutputStream(bytes);
+        section.writeInt(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            writeString(section, dictionary.get(id));
+        }
+        writeSection(out, bytes);
+    }
+
+    private static void writeSection(DataOutputStream out, ByteArrayOutputStream section) throws IOException {
+        out.writeLong(section.size());
+        section.writeTo(out);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Dictionary readDictionary(ByteBuffer in) {
+        Dictionary dictionary = new Dictionary();
+        int size = in.getInt();
+        for (int i = 0; i < size; i++) {
+            dictionary.intern(readString(in));
+        }
+        return dictionary;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps consecutive sections of the file one at a time, so the file as a whole may exceed 2 GB.
+     */
+    private static class Reader {
+        private final FileChannel channel;
+        private long position;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        MappedByteBuffer section(long length) throws IOException {
+            if (position + length > channel.size()) {
+                throw new IOException("Truncated segment file");
+            }
+            MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return section;
+        }
+
+        ByteBuffer variableSection() throws IOException {
+            return section(section(Long.BYTES).getLong());
+        }
+    }
+
+    public static class Restored {
+        private final EventStore store;
+        private final EventIndex index;
+        private final Set<String> sources;
+
+        Restored(EventStore store, EventIndex index, Set<String> sources) {
+            this.store = store;
+            this.index = index;
+            this.sources = sources;
+        }
+
+        public EventStore getStore() {
+            return store;
+        }
+
+        /**
+         * Returns the restored index, or null if some source files changed and the index must be rebuilt.
+         */
+        public EventIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the names of the source files whose rows were restored.
+         */
+        public Set<String> getSources() {
+            return sources;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package logparser.store;
+
+/**
+ * An immutable version of the loaded data: read-only views of a store and its index, numbered by an epoch
+ * that grows with every version published. Queries read one snapshot from start to end, so they never see
+ * part of a batch that is being added.
+ */
+public class Snapshot {
+    private final long epoch;
+    private final EventStore store;
+    private final EventIndex index;
+
+    private Snapshot(long epoch, EventStore store, EventIndex index) {
+        this.epoch = epoch;
+        this.store = store;
+        this.index = index;
+    }
+
+    /**
+     * Takes views of the store, which must be sorted, and of its index. The store and the index can keep
+     * growing without changing the snapshot.
+     */
+    public static Snapshot of(long epoch, EventStore store, EventIndex index) {
+        return new Snapshot(epoch, store.view(), index.view());
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public EventStore getStore() {
+        return store;
+    }
+
+    public EventIndex getIndex() {
+        return index;
+    }
+}
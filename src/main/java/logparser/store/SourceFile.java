@@ -0,0 +1,33 @@
+package logparser.store;
+
+/**
+ * Name, size and modification time of a log file, used to tell whether rows saved in a segment are still
+ * current.
+ */
+public class SourceFile {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+
+    public SourceFile(String name, long size, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    boolean isSameAs(SourceFile other) {
+        return other != null && name.equals(other.name) && size == other.size && lastModified == other.lastModified;
+    }
+}
@@ -0,0 +1,331 @@
+package logparser.store;
+
+import java.util.Arrays;
+
+/**
+ * Row counts per fixed-size time bucket by event, status and, for events that carry one, task. Rows are added
+ * in time order, so every bucket covers a contiguous run of rows and a row range can be split into whole
+ * buckets plus partial ends.
+ * <p>
+ * A rollup created with a sketch precision also keeps {@link HyperLogLog} sketches of the distinct users and
+ * IP addresses in each bucket, and of each run of {@link #SKETCH_BLOCK} buckets once the run is complete, so
+ * a long run of buckets merges about one sketch per block. It also keeps, for every complete bucket, the
+ * {@link TopCounts} of users, IP addresses and tasks, over all rows and over the rows of each status.
+ */
+class TimeRollup {
+    static final int USERS = 0;
+    static final int IPS = 1;
+    static final int TASKS = 2;
+    private static final int SKETCH_BLOCK = 32;
+
+    private final long bucketMillis;
+    private final int sketchPrecision;
+    private final int eventCount = EventStore.eventCount();
+    private final int statusCount = EventStore.statusCount();
+    private final int slices = statusCount + 1;
+    private long[] buckets = new long[16];
+    private int[] startRows = new int[16];
+    private int[] events = new int[16 * eventCount];
+    private int[] statuses = new int[16 * statusCount];
+    private IntCounts[] tasks = new IntCounts[16 * eventCount];
+    private HyperLogLog[][] sketches;
+    private HyperLogLog[][] blockSketches;
+    private int blocks;
+    /**
+     * Per column and slice, the top counts of each complete bucket; slice 0 is every row and slice
+     * {@code 1 + status} the rows of a status.
+     */
+    private TopCounts[][] topCounts;
+    private IntCounts[] openCounts;
+    private int size;
+    private int rows;
+
+    TimeRollup(long bucketMillis) {
+        this(bucketMillis, 0, false);
+    }
+
+    /**
+     * @param sketchPrecision precision of the distinct-value sketches, or 0 to keep none
+     * @param topCounts       whether to keep the top counts of each bucket
+     */
+    TimeRollup(long bucketMillis, int sketchPrecision, boolean topCounts) {
+        this.bucketMillis = bucketMillis;
+        this.sketchPrecision = sketchPrecision;
+        if (sketchPrecision > 0) {
+            sketches = new HyperLogLog[][]{new HyperLogLog[16], new HyperLogLog[16]};
+            blockSketches = new HyperLogLog[][]{new HyperLogLog[1], new HyperLogLog[1]};
+        }
+        if (topCounts) {
+            this.topCounts = new TopCounts[3 * slices][16];
+            openCounts = new IntCounts[3 * slices];
+        }
+    }
+
+    /**
+     * Returns a read-only rollup of the buckets that are complete so far. The last bucket is left out, as it
+     * is the only one that later rows can still add to; the view's rows from its start on are scanned instead.
+     * New buckets are written past the end of the view or into new arrays, so the arrays are shared.
+     */
+    TimeRollup view() {
+        TimeRollup view = new TimeRollup(bucketMillis);
+        view.buckets = buckets;
+        view.startRows = startRows;
+        view.events = events;
+        view.statuses = statuses;
+        view.tasks = tasks;
+        view.size = Math.max(size - 1, 0);
+        view.rows = size > 0 ? startRows[size - 1] : rows;
+        if (sketches != null) {
+            view.sketches = sketches.clone();
+            view.blockSketches = blockSketches.clone();
+            view.blocks = Math.min(blocks, view.size / SKETCH_BLOCK);
+        }
+        if (topCounts != null) {
+            view.topCounts = topCounts.clone();
+        }
+        return view;
+    }
+
+    /**
+     * Adds the rows of the store from the first one not yet added up to {@code to}.
+     */
+    void add(EventStore store, int to) {
+        EventCursor cursor = store.cursor();
+        for (int row = rows; row < to; row++) {
+            cursor.moveTo(row);
+            long bucket = Math.floorDiv(cursor.getTimestamp(), bucketMillis);
+            if (size == 0 || buckets[size - 1] != bucket) {
+                newBucket(bucket, row);
+            }
+            int slot = size - 1;
+            int eventCode = cursor.getEventCode();
+            int statusCode = cursor.getStatusCode();
+            events[slot * eventCount + eventCode]++;
+            statuses[slot * statusCount + statusCode]++;
+            int task = cursor.getTask();
+            if (task != EventStore.NO_TASK) {
+                int taskSlot = slot * eventCount + eventCode;
+                if (tasks[taskSlot] == null) {
+                    tasks[taskSlot] = new IntCounts();
+                }
+                tasks[taskSlot].increment(task);
+            }
+            if (sketches != null) {
+                sketches[USERS][slot].add(HyperLogLog.hash(cursor.getUserId()));
+                sketches[IPS][slot].add(HyperLogLog.hash(cursor.getIpId()));
+            }
+            if (topCounts != null) {
+                int slice = 1 + statusCode;
+                count(USERS, slice, cursor.getUserId());
+                count(IPS, slice, cursor.getIpId());
+                if (task != EventStore.NO_TASK) {
+                    count(TASKS, slice, task);
+                }
+            }
+        }
+        rows = Math.max(rows, to);
+    }
+
+    /**
+     * Removes the buckets that hold rows at or above {@code row}, so that {@link #add} counts their rows again
+     * from the start of the first of them. The arrays are copied first, since a view may still read the
+     * buckets that are about to be written again.
+     */
+    void removeFrom(int row) {
+        if (row >= rows) {
+            return;
+        }
+        int kept = firstBucketFrom(row + 1) - 1;
+        rows = startRows[kept];
+        buckets = buckets.clone();
+        startRows = startRows.clone();
+        events = events.clone();
+        Arrays.fill(events, kept * eventCount, events.length, 0);
+        statuses = statuses.clone();
+        Arrays.fill(statuses, kept * statusCount, statuses.length, 0);
+        tasks = tasks.clone();
+        Arrays.fill(tasks, kept * eventCount, tasks.length, null);
+        if (sketches != null) {
+            for (int column = 0; column < sketches.length; column++) {
+                sketches[column] = sketches[column].clone();
+                blockSketches[column] = blockSketches[column].clone();
+            }
+            // A block that ends at the first removed bucket is merged again when that bucket is added.
+            blocks = Math.min(blocks, Math.max(kept - 1, 0) / SKETCH_BLOCK);
+        }
+        if (topCounts != null) {
+            for (int i = 0; i < topCounts.length; i++) {
+                topCounts[i] = topCounts[i].clone();
+                Arrays.fill(topCounts[i], kept, topCounts[i].length, null);
+            }
+            // The counts of the last kept bucket were taken when the next one started.
+            Arrays.fill(openCounts, null);
+        }
+        size = kept;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int start(int bucket) {
+        return startRows[bucket];
+    }
+
+    int end(int bucket) {
+        return bucket + 1 < size ? startRows[bucket + 1] : rows;
+    }
+
+    /**
+     * Returns the first bucket that starts at or after the row, or {@link #size()}.
+     */
+    int firstBucketFrom(int row) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startRows[middle] < row) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns one past the last bucket that ends at or before the row.
+     */
+    int lastBucketTo(int row) {
+        int next = firstBucketFrom(row + 1);
+        return next == size && rows <= row ? next : Math.max(next - 1, 0);
+    }
+
+    int eventCount(int bucket, int eventCode) {
+        return events[bucket * eventCount + eventCode];
+    }
+
+    int statusCount(int bucket, int statusCode) {
+        return statuses[bucket * statusCount + statusCode];
+    }
+
+    /**
+     * Returns the task counts of the event in the bucket, or null if it has none.
+     */
+    IntCounts taskCounts(int bucket, int eventCode) {
+        return tasks[bucket * eventCount + eventCode];
+    }
+
+    boolean hasSketches() {
+        return sketches != null;
+    }
+
+    /**
+     * Merges the sketches of a column, {@link #USERS} or {@link #IPS}, in buckets {@code [first, last)} into
+     * the target.
+     */
+    void mergeSketches(int column, int first, int last, HyperLogLog target) {
+        int bucket = first;
+        while (bucket < last) {
+            int block = bucket / SKETCH_BLOCK;
+            if (bucket % SKETCH_BLOCK == 0 && bucket + SKETCH_BLOCK <= last && block < blocks) {
+                target.merge(blockSketches[column][block]);
+                bucket += SKETCH_BLOCK;
+            } else {
+                target.merge(sketches[column][bucket]);
+                bucket++;
+            }
+        }
+    }
+
+    private void count(int column, int slice, int value) {
+        openCounts[column * slices].increment(value);
+        openCounts[column * slices + slice].increment(value);
+    }
+
+    boolean hasTopCounts() {
+        return topCounts != null;
+    }
+
+    /**
+     * Adds the top counts of a column, {@link #USERS}, {@link #IPS} or {@link #TASKS}, in buckets
+     * {@code [first, last)} to the target, over the rows with the status or, for a negative status code, over
+     * all rows. The last bucket of a rollup that is still growing adds its exact counts.
+     *
+     * @return the sum of the cutoffs of the buckets, which bounds how far the count added for any value, or
+     *         the count of a value that was not added at all, falls short of its number of rows
+     */
+    long addTopCounts(int column, int statusCode, int first, int last, IntCounts target) {
+        int slice = column * slices + 1 + statusCode;
+        long cutoffs = 0;
+        for (int bucket = first; bucket < last; bucket++) {
+            TopCounts counts = topCounts[slice][bucket];
+            if (counts != null) {
+                counts.addTo(target);
+                cutoffs += counts.getCutoff();
+            } else {
+                openCounts[slice].forEach(target::add);
+            }
+        }
+        return cutoffs;
+    }
+
+    private void newBucket(long bucket, int row) {
+        if (size == buckets.length) {
+            int capacity = size * 2;
+            buckets = Arrays.copyOf(buckets, capacity);
+            startRows = Arrays.copyOf(startRows, capacity);
+            events = Arrays.copyOf(events, capacity * eventCount);
+            statuses = Arrays.copyOf(statuses, capacity * statusCount);
+            tasks = Arrays.copyOf(tasks, capacity * eventCount);
+            if (sketches != null) {
+                for (int column = 0; column < sketches.length; column++) {
+                    sketches[column] = Arrays.copyOf(sketches[column], capacity);
+                }
+            }
+            if (topCounts != null) {
+                for (int i = 0; i < topCounts.length; i++) {
+                    topCounts[i] = Arrays.copyOf(topCounts[i], capacity);
+                }
+            }
+        }
+        if (topCounts != null) {
+            for (int i = 0; i < openCounts.length; i++) {
+                if (size > 0 && openCounts[i] != null) {
+                    topCounts[i][size - 1] = TopCounts.of(openCounts[i], TopCounts.CAPACITY);
+                }
+                openCounts[i] = new IntCounts();
+            }
+        }
+        buckets[size] = bucket;
+        startRows[size] = row;
+        if (sketches != null) {
+            if (size > 0 && size % SKETCH_BLOCK == 0) {
+                closeBlock();
+            }
+            for (HyperLogLog[] column : sketches) {
+                column[size] = new HyperLogLog(sketchPrecision);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Merges the sketches of the block of buckets that has just been completed.
+     */
+    private void closeBlock() {
+        if (blocks == blockSketches[0].length) {
+            for (int column = 0; column < blockSketches.length; column++) {
+                blockSketches[column] = Arrays.copyOf(blockSketches[column], blocks * 2);
+            }
+        }
+        for (int column = 0; column < sketches.length; column++) {
+            HyperLogLog block = new HyperLogLog(sketchPrecision);
+            for (int bucket = blocks * SKETCH_BLOCK; bucket < (blocks + 1) * SKETCH_BLOCK; bucket++) {
+                block.merge(sketches[column][bucket]);
+            }
+            blockSketches[column][blocks] = block;
+        }
+        blocks++;
+    }
+}
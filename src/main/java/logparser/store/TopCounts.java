@@ -0,0 +1,128 @@
+package logparser.store;
+
+/**
+ * The most frequent values of a column with their counts, most frequent first; ties go to the smaller value.
+ * Values are dictionary ids, task numbers or codes, depending on the column.
+ * <p>
+ * The index also keeps one per day for users, IP addresses and tasks, capped at {@link #CAPACITY} values.
+ * Such a summary also records its {@link #getCutoff() cutoff}, the most a value left out of it can count, so
+ * that a sum of summaries knows how far each of its counts may fall short.
+ */
+public class TopCounts {
+    public static final int CAPACITY = 64;
+
+    private final int[] values;
+    private final int[] counts;
+    private final int cutoff;
+
+    private TopCounts(int[] values, int[] counts, int cutoff) {
+        this.values = values;
+        this.counts = counts;
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Selects the {@code k} most frequent values with a bounded heap, in {@code O(n log k)} for {@code n}
+     * distinct values.
+     */
+    public static TopCounts of(IntCounts counts, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative number of values: " + k);
+        }
+        int capacity = Math.min(k, counts.size());
+        int[] values = new int[capacity];
+        int[] heapCounts = new int[capacity];
+        int[] size = new int[1];
+        // A heap with the least frequent kept value at the root, which a more frequent one replaces.
+        counts.forEach((value, count) -> {
+            if (size[0] < capacity) {
+                int slot = size[0]++;
+                values[slot] = value;
+                heapCounts[slot] = count;
+                siftUp(values, heapCounts, slot);
+            } else if (capacity > 0 && before(value, count, values[0], heapCounts[0])) {
+                values[0] = value;
+                heapCounts[0] = count;
+                siftDown(values, heapCounts, 0, capacity);
+            }
+        });
+        for (int end = capacity - 1; end > 0; end--) {
+            swap(values, heapCounts, 0, end);
+            siftDown(values, heapCounts, 0, end);
+        }
+        int cutoff = capacity == counts.size() ? 0 : capacity > 0 ? heapCounts[capacity - 1] : Integer.MAX_VALUE;
+        return new TopCounts(values, heapCounts, cutoff);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public int getValue(int i) {
+        return values[i];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * Returns an upper bound on the count of any value that was left out: 0 when every value was kept, and
+     * otherwise the count of the least frequent value kept.
+     */
+    public int getCutoff() {
+        return cutoff;
+    }
+
+    void addTo(IntCounts target) {
+        for (int i = 0; i < values.length; i++) {
+            target.add(values[i], counts[i]);
+        }
+    }
+
+    /**
+     * Tells whether the first value ranks before the second.
+     */
+    private static boolean before(int value, int count, int otherValue, int otherCount) {
+        return count > otherCount || count == otherCount && value < otherValue;
+    }
+
+    private static void siftUp(int[] values, int[] counts, int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!before(values[parent], counts[parent], values[slot], counts[slot])) {
+                return;
+            }
+            swap(values, counts, parent, slot);
+            slot = parent;
+        }
+    }
+
+    private static void siftDown(int[] values, int[] counts, int slot, int size) {
+        while (true) {
+            int last = slot;
+            int left = 2 * slot + 1;
+            int right = left + 1;
+            if (left < size && before(values[last], counts[last], values[left], counts[left])) {
+                last = left;
+            }
+            if (right < size && before(values[last], counts[last], values[right], counts[right])) {
+                last = right;
+            }
+            if (last == slot) {
+                return;
+            }
+            swap(values, counts, slot, last);
+            slot = last;
+        }
+    }
+
+    private static void swap(int[] values, int[] counts, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        int count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+    }
+}
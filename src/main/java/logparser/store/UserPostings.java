@@ -0,0 +1,152 @@
+package logparser.store;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Postings of each user and event: the rows of the user's events in time order, with their task numbers.
+ * One user's events are found in time that depends on their number rather than on the size of the log, and
+ * the first of them at or after a row is a binary search.
+ * <p>
+ * Lists only grow at their end and are replaced by a larger copy when full or cut back, so a {@link #view()}
+ * shares them and keeps its own sizes.
+ */
+class UserPostings {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int eventCount = EventStore.eventCount();
+    /**
+     * Per list, at {@code userId * eventCount + eventCode}: its rows, their tasks, which are only allocated
+     * once the list has a task, and its size.
+     */
+    private int[][] rows = new int[0][];
+    private int[][] tasks = new int[0][];
+    private int[] sizes = new int[0];
+
+    /**
+     * Returns the postings of the rows added so far. Later calls to {@link #add} leave it unchanged.
+     */
+    UserPostings view() {
+        UserPostings view = new UserPostings();
+        view.rows = rows.clone();
+        view.tasks = tasks.clone();
+        view.sizes = sizes.clone();
+        return view;
+    }
+
+    /**
+     * Adds a row, which must come after every row added before.
+     */
+    void add(int userId, int eventCode, int task, int row) {
+        int list = userId * eventCount + eventCode;
+        if (list >= sizes.length) {
+            int capacity = Math.max(list + 1, sizes.length * 2);
+            rows = Arrays.copyOf(rows, capacity);
+            tasks = Arrays.copyOf(tasks, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        int size = sizes[list];
+        int[] listRows = rows[list];
+        int[] listTasks = tasks[list];
+        if (listRows == null) {
+            listRows = new int[INITIAL_CAPACITY];
+            rows[list] = listRows;
+        } else if (size == listRows.length) {
+            listRows = Arrays.copyOf(listRows, size * 2);
+            rows[list] = listRows;
+            if (listTasks != null) {
+                listTasks = Arrays.copyOf(listTasks, size * 2);
+                tasks[list] = listTasks;
+            }
+        }
+        if (listTasks == null && task != EventStore.NO_TASK) {
+            listTasks = new int[listRows.length];
+            Arrays.fill(listTasks, 0, size, EventStore.NO_TASK);
+            tasks[list] = listTasks;
+        }
+        listRows[size] = row;
+        if (listTasks != null) {
+            listTasks[size] = task;
+        }
+        sizes[list] = size + 1;
+    }
+
+    /**
+     * Removes the rows at or above {@code row} from the list of the user and event. The list is copied first,
+     * as the rows added after it would otherwise overwrite entries that a view still reads.
+     */
+    void removeFrom(int userId, int eventCode, int row) {
+        int list = list(userId, eventCode);
+        if (list < 0) {
+            return;
+        }
+        int size = lowerBound(rows[list], sizes[list], row);
+        if (size < sizes[list]) {
+            rows[list] = rows[list].clone();
+            if (tasks[list] != null) {
+                tasks[list] = tasks[list].clone();
+            }
+            sizes[list] = size;
+        }
+    }
+
+    /**
+     * Returns the first row in {@code [from, to)} of the user with the event and, unless it is
+     * {@link EventStore#NO_TASK}, the task, or -1 when there is none.
+     */
+    int first(int userId, int eventCode, int task, int from, int to) {
+        int list = list(userId, eventCode);
+        if (list < 0) {
+            return -1;
+        }
+        int[] listRows = rows[list];
+        int[] listTasks = tasks[list];
+        int size = sizes[list];
+        for (int i = lowerBound(listRows, size, from); i < size && listRows[i] < to; i++) {
+            if (task == EventStore.NO_TASK || listTasks != null && listTasks[i] == task) {
+                return listRows[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes the rows in {@code [from, to)} of the user with the event to the consumer in ascending order.
+     */
+    void forEach(int userId, int eventCode, int from, int to, IntConsumer consumer) {
+        int list = list(userId, eventCode);
+        if (list < 0) {
+            return;
+        }
+        int[] listRows = rows[list];
+        int size = sizes[list];
+        for (int i = lowerBound(listRows, size, from); i < size && listRows[i] < to; i++) {
+            consumer.accept(listRows[i]);
+        }
+    }
+
+    /**
+     * Returns the list of the user and event, or -1 when it is empty.
+     */
+    private int list(int userId, int eventCode) {
+        if (userId < 0) {
+            return -1;
+        }
+        int list = userId * eventCount + eventCode;
+        return list < sizes.length && sizes[list] > 0 ? list : -1;
+    }
+
+    private static int lowerBound(int[] rows, int size, int row) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rows[middle] < row) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
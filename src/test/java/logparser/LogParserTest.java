@@ -0,0 +1,502 @@
+package logparser;
+
+import logparser.query.LogQuery;
+import logparser.store.EventIndex;
+import logparser.store.HyperLogLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogParserTest {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * Lines appended a minute apart, which takes the newest event past a day boundary and drops a day.
+     */
+    private static final int TAILED_LINES = 3000;
+    private static final double DISTINCT_COUNT_ERROR = HyperLogLog.errorOf(EventIndex.DEFAULT_SKETCH_PRECISION);
+    /**
+     * Windows long enough to be split into parts; the rows come about one a minute, so the logs span about 140
+     * days.
+     */
+    private static final Date[][] LONG_WINDOWS = {{null, null}, {TestLogs.date(2, 0), TestLogs.date(130, 0)}};
+    private static final String[] LONG_QL = {"get ip", "get status", "get user for event = \"LOGIN\"",
+            "get date for status = \"ERROR\"", "get event for user = \"Amigo\"", "get task for status = \"OK\"",
+            "get count distinct ip for event = \"WRITE_MESSAGE\"", "get ip for date between ? and ?",
+            "get user for status = \"FAILED\" and date between ? and ?"};
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void parallelScansMatchAStreamingPass() throws IOException {
+        assertTrue(ForkJoinPool.getCommonPoolParallelism() > 1,
+                "Run with -Djava.util.concurrent.ForkJoinPool.common.parallelism=4 to split scans");
+        TestLogs.write(logDir, 2, 100_000, 11);
+        assertEquals(longScans(new StreamingLogParser(logDir, 1)), longScans(new LogParser(logDir, 1)));
+    }
+
+    @Test
+    void offHeapRowsAnswerLikeHeapRows() throws IOException {
+        TestLogs.write(logDir, 2, 100_000, 5);
+        LogParser heap = new LogParser(logDir, 1);
+        LogParser offHeap = new LogParser(logDir, 1, false, DISTINCT_COUNT_ERROR, true);
+        assertEquals(QueryResults.of(heap), QueryResults.of(offHeap));
+        assertEquals(longScans(heap), longScans(offHeap));
+        assertEquals(topAndActivity(heap), topAndActivity(offHeap));
+
+        Date after = LONG_WINDOWS[1][0];
+        Date before = LONG_WINDOWS[1][1];
+        QueryBatch batch = offHeap.newBatch();
+        QueryBatch.Result<Set<String>> ips = batch.add(query -> query.getUniqueIPs(null, null));
+        QueryBatch.Result<Set<Date>> failed = batch.add(query -> query.getDatesWhenSomethingFailed(after, before));
+        QueryBatch.Result<Map<Integer, Integer>> solved = batch.add(query ->
+                query.getAllSolvedTasksAndTheirNumber(after, before));
+        QueryBatch.Result<Set<Object>> users = batch.add("get user for event = ?", Event.LOGIN);
+        batch.execute();
+        assertEquals(heap.getUniqueIPs(null, null), ips.get());
+        assertEquals(heap.getDatesWhenSomethingFailed(after, before), failed.get());
+        assertEquals(heap.getAllSolvedTasksAndTheirNumber(after, before), solved.get());
+        assertEquals(heap.execute("get user for event = ?", Event.LOGIN), users.get());
+    }
+
+    @Test
+    void offHeapRowsKeepUpWithTailingAndRetention() throws Exception {
+        TestLogs.write(logDir, 1, 20_000, 9);
+        LogParser heap = new LogParser(logDir, 1);
+        LogParser offHeap = new LogParser(logDir, 1, false, DISTINCT_COUNT_ERROR, true);
+        heap.setRetention(7, TimeUnit.DAYS);
+        offHeap.setRetention(7, TimeUnit.DAYS);
+        heap.startTailing();
+        offHeap.startTailing();
+        try {
+            long newest = heap.execute("get date").stream().mapToLong(date -> ((Date) date).getTime()).max()
+                    .orElseThrow();
+            int retained = count(heap);
+            StringBuilder lines = new StringBuilder();
+            for (int i = 1; i <= TAILED_LINES; i++) {
+                lines.append(tailedLine(i, newest + i * 60_000L));
+            }
+            Files.writeString(logDir.resolve("app-0.log"), lines, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            long deadline = System.currentTimeMillis() + 20_000;
+            // The tailed rows are published before the days they push out of the retention are dropped.
+            while ((tailed(heap) < TAILED_LINES || tailed(offHeap) < TAILED_LINES
+                    || count(heap) == retained + TAILED_LINES || count(offHeap) == retained + TAILED_LINES)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(TAILED_LINES, tailed(heap));
+            assertEquals(TAILED_LINES, tailed(offHeap));
+            assertTrue(count(heap) < retained + TAILED_LINES);
+            assertEquals(QueryResults.of(heap), QueryResults.of(offHeap));
+            assertEquals(topAndActivity(heap), topAndActivity(offHeap));
+        } finally {
+            heap.stopTailing();
+            offHeap.stopTailing();
+        }
+    }
+
+    @Test
+    void lateTailedRowsAnswerLikeAFullLoad() throws Exception {
+        TestLogs.write(logDir, 1, 20_000, 13);
+        LogParser heap = new LogParser(logDir, 1);
+        LogParser offHeap = new LogParser(logDir, 1, false, DISTINCT_COUNT_ERROR, true);
+        long first = heap.execute("get date").stream().mapToLong(date -> ((Date) date).getTime()).min()
+                .orElseThrow();
+        heap.startTailing();
+        offHeap.startTailing();
+        try {
+            // Two batches from another host, each scattered over the days already loaded, so the second one
+            // also lands among the rows of the first.
+            Random random = new Random(13);
+            Path late = logDir.resolve("late.log");
+            for (int batch = 1; batch <= 2; batch++) {
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < TAILED_LINES / 2; i++) {
+                    lines.append(tailedLine(i, first + (long) (random.nextDouble() * 14 * DAY_MILLIS)));
+                }
+                Files.writeString(late, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+                int expected = batch * TAILED_LINES / 2;
+                long deadline = System.currentTimeMillis() + 20_000;
+                while ((tailed(heap) < expected || tailed(offHeap) < expected)
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertEquals(expected, tailed(heap));
+                assertEquals(expected, tailed(offHeap));
+            }
+        } finally {
+            heap.stopTailing();
+            offHeap.stopTailing();
+        }
+        LogParser loaded = new LogParser(logDir, 1);
+        assertEquals(QueryResults.of(loaded), QueryResults.of(heap));
+        assertEquals(QueryResults.of(loaded), QueryResults.of(offHeap));
+        assertEquals(longScans(loaded), longScans(heap));
+        // Tied top values follow dictionary ids, which tailing hands out in a different order than a load.
+        assertEquals(topAndActivity(heap), topAndActivity(offHeap));
+    }
+
+    @Test
+    void readersKeepGettingTheLoadedAnswersWhileLateRowsAreMergedIn() throws Exception {
+        TestLogs.write(logDir, 1, 20_000, 23);
+        LogParser parser = new LogParser(logDir, 1);
+        long first = parser.execute("get date").stream().mapToLong(date -> ((Date) date).getTime()).min()
+                .orElseThrow();
+        String expected = loadedUserAnswers(parser);
+        AtomicBoolean done = new AtomicBoolean();
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicInteger reads = new AtomicInteger();
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                int lastTailed = 0;
+                while (!done.get()) {
+                    String answers = loadedUserAnswers(parser);
+                    if (!answers.equals(expected)) {
+                        failures.add(answers);
+                    }
+                    int tailed = tailed(parser);
+                    if (tailed < lastTailed) {
+                        failures.add("tailed rows went from " + lastTailed + " to " + tailed);
+                    }
+                    lastTailed = tailed;
+                    reads.incrementAndGet();
+                }
+            });
+            readers[i].start();
+        }
+        parser.startTailing();
+        try {
+            // Batches of late rows, each landing among the rows the readers query.
+            Random random = new Random(23);
+            Path late = logDir.resolve("late.log");
+            for (int batch = 0; batch < 10; batch++) {
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < TAILED_LINES / 10; i++) {
+                    lines.append(tailedLine(i, first + (long) (random.nextDouble() * 14 * DAY_MILLIS)));
+                }
+                Files.writeString(late, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+                Thread.sleep(100);
+            }
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (tailed(parser) < TAILED_LINES && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            parser.stopTailing();
+        }
+        assertEquals(TAILED_LINES, tailed(parser));
+        assertTrue(reads.get() > readers.length, "Only " + reads.get() + " reads");
+        assertEquals(List.of(), List.copyOf(failures));
+        assertEquals(expected, loadedUserAnswers(parser));
+    }
+
+    @Test
+    void distinctCountsAreExactUnlessAnEstimateIsAskedFor() throws IOException {
+        // About 60 days of rows with tens of thousands of users and addresses, so the estimates merge whole
+        // blocks of day sketches as well as single days and rows.
+        Random random = new Random(5);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            log.append("10.").append(random.nextInt(4)).append('.').append(random.nextInt(250)).append('.')
+                    .append(random.nextInt(50)).append("\tuser").append(random.nextInt(40_000)).append('\t')
+                    .append(TestLogs.START.plusSeconds(i * 50L).format(DateTimeFormatter.ofPattern("d.M.yyyy H:m:s")))
+                    .append("\tLOGIN\tOK\n");
+        }
+        Files.writeString(logDir.resolve("app.log"), log, StandardCharsets.UTF_8);
+        double error = 0.02;
+        LogParser parser = new LogParser(logDir, 1, false, error);
+        double tolerance = 3 * HyperLogLog.errorOf(HyperLogLog.precisionFor(error));
+
+        for (Date[] window : new Date[][]{{null, null}, {TestLogs.date(3, 5), TestLogs.date(50, 17)}}) {
+            Object[] dates = {window[0] == null ? new Date(0) : window[0],
+                    window[1] == null ? new Date(Long.MAX_VALUE) : window[1]};
+            String dateCondition = " for date between ? and ?";
+            int users = parser.getNumberOfUsers(window[0], window[1]);
+            int ips = parser.getNumberOfUniqueIPs(window[0], window[1]);
+            assertTrue(users > 10_000 && ips > 10_000, users + " users, " + ips + " addresses");
+            assertEquals(Set.of(users), parser.execute("get count distinct user" + dateCondition, dates));
+            assertEquals(Set.of(ips), parser.execute("get count distinct ip" + dateCondition, dates));
+
+            int estimatedUsers = parser.estimateNumberOfUsers(window[0], window[1]);
+            int estimatedIps = parser.estimateNumberOfUniqueIPs(window[0], window[1]);
+            assertEquals(Set.of(estimatedUsers), parser.execute("get approx count distinct user" + dateCondition,
+                    dates));
+            assertEquals(Set.of(estimatedIps), parser.execute("get approx count distinct ip" + dateCondition, dates));
+            assertTrue(Math.abs(estimatedUsers - users) <= tolerance * users, estimatedUsers + " for " + users);
+            assertTrue(Math.abs(estimatedIps - ips) <= tolerance * ips, estimatedIps + " for " + ips);
+        }
+    }
+
+    @Test
+    void firstDatesFunnelsAndSessionsMatchAScanOfTheRows() throws IOException {
+        // Every row has its own second, so the first of anything is the same in time and in row order. The
+        // lines are written up to two hours out of order, and gaps of three hours split the sessions.
+        Random random = new Random(8);
+        List<Row> rows = new ArrayList<>();
+        long time = TestLogs.date(0, 0).getTime();
+        for (int i = 0; i < 40_000; i++) {
+            time += 1000L * (random.nextInt(30) == 0 ? 3 * 3600 : 1 + random.nextInt(300));
+            Event event = Event.values()[random.nextInt(Event.values().length)];
+            int task = event == Event.SOLVE_TASK || event == Event.DONE_TASK ? 1 + random.nextInt(5) : -1;
+            rows.add(new Row(time, "user" + random.nextInt(50), event, task, random.nextInt(2),
+                    time + random.nextInt(2 * 3600_000)));
+        }
+        List<Row> written = new ArrayList<>(rows);
+        written.sort(Comparator.comparingLong(row -> row.writtenAt));
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("d.M.yyyy H:m:s");
+        StringBuilder[] files = {new StringBuilder(), new StringBuilder()};
+        for (Row row : written) {
+            files[row.file].append("10.0.0.1\t").append(row.user).append('\t')
+                    .append(LocalDateTime.ofInstant(Instant.ofEpochMilli(row.timestamp), ZoneId.systemDefault())
+                            .format(format))
+                    .append('\t').append(row.event).append(row.task < 0 ? "" : " " + row.task).append("\tOK\n");
+        }
+        for (int file = 0; file < files.length; file++) {
+            Files.writeString(logDir.resolve("app-" + file + ".log"), files[file], StandardCharsets.UTF_8);
+        }
+        LogParser parser = new LogParser(logDir, 1);
+
+        Date[][] windows = {{null, null}, {new Date(rows.get(5000).timestamp), new Date(rows.get(30_000).timestamp)}};
+        for (Date[] window : windows) {
+            List<Row> inWindow = new ArrayList<>();
+            for (Row row : rows) {
+                if ((window[0] == null || row.timestamp > window[0].getTime())
+                        && (window[1] == null || row.timestamp < window[1].getTime())) {
+                    inWindow.add(row);
+                }
+            }
+            for (int user = 0; user < 50; user++) {
+                String name = "user" + user;
+                assertEquals(dateOf(inWindow, first(inWindow, 0, name, Event.LOGIN, -1)),
+                        parser.getDateWhenUserLoggedFirstTime(name, window[0], window[1]));
+                for (int task = 1; task <= 6; task++) {
+                    assertEquals(dateOf(inWindow, first(inWindow, 0, name, Event.SOLVE_TASK, task)),
+                            parser.getDateWhenUserSolvedTask(name, task, window[0], window[1]));
+                    assertEquals(dateOf(inWindow, first(inWindow, 0, name, Event.DONE_TASK, task)),
+                            parser.getDateWhenUserDoneTask(name, task, window[0], window[1]));
+                }
+                assertEquals(sessions(inWindow, name, 3600_000), parser.getUserSessions(name, 3600_000, window[0],
+                        window[1]));
+            }
+            for (int task = 1; task <= 5; task++) {
+                Map<String, Long> times = new HashMap<>();
+                for (int user = 0; user < 50; user++) {
+                    String name = "user" + user;
+                    int login = first(inWindow, 0, name, Event.LOGIN, -1);
+                    int solve = login < 0 ? -1 : first(inWindow, login + 1, name, Event.SOLVE_TASK, task);
+                    int done = solve < 0 ? -1 : first(inWindow, solve + 1, name, Event.DONE_TASK, task);
+                    if (done >= 0) {
+                        times.put(name, inWindow.get(done).timestamp - inWindow.get(login).timestamp);
+                    }
+                }
+                assertTrue(times.size() > 10, times.toString());
+                assertEquals(times, parser.getTaskConversionTimes(task, window[0], window[1]), "task " + task);
+            }
+        }
+    }
+
+    @Test
+    void retentionKeepsTheAnswersOfTheRetainedDays() throws IOException {
+        TestLogs.write(logDir, 2, 40_000, 3);
+        LogParser full = new LogParser(logDir, 1);
+        LogParser retained = new LogParser(logDir, 1);
+        retained.setRetention(20, TimeUnit.DAYS);
+
+        long newest = full.execute("get date").stream().mapToLong(date -> ((Date) date).getTime()).max().orElseThrow();
+        long kept = Math.floorDiv(newest - TimeUnit.DAYS.toMillis(20), DAY_MILLIS) * DAY_MILLIS;
+        Date start = new Date(kept - 1);
+        assertTrue(full.getNumberOfAllEvents(null, start) > 0);
+        assertEquals(0, retained.getNumberOfAllEvents(null, start));
+        assertEquals(QueryResults.after(full, start), QueryResults.after(retained, start));
+    }
+
+    /**
+     * Collects the top values and the activity queries, which {@link QueryResults} leaves out as they are not
+     * part of {@link LogQuery}. Top values keep their order, ties included.
+     */
+    private static Map<String, String> topAndActivity(LogParser parser) {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (Date[] window : LONG_WINDOWS) {
+            String prefix = window[0] + ".." + window[1] + ".";
+            for (Status status : new Status[]{null, Status.OK, Status.ERROR}) {
+                for (int k : new int[]{1, 10, 100}) {
+                    String top = prefix + status + "." + k + ".";
+                    results.put(top + "getTopUsers", parser.getTopUsers(k, status, window[0], window[1]).toString());
+                    results.put(top + "getTopIPs", parser.getTopIPs(k, status, window[0], window[1]).toString());
+                    results.put(top + "getTopTasks", parser.getTopTasks(k, status, window[0], window[1]).toString());
+                    results.put(top + "getTopEvents",
+                            parser.getTopEvents(k, status, window[0], window[1]).toString());
+                }
+            }
+            for (int task : TestLogs.TASKS) {
+                results.put(prefix + task + ".getTaskConversionTimes",
+                        new TreeMap<>(parser.getTaskConversionTimes(task, window[0], window[1])).toString());
+            }
+            for (String user : TestLogs.USERS) {
+                results.put(prefix + user + ".getUserSessions",
+                        parser.getUserSessions(user, TimeUnit.HOURS.toMillis(1), window[0], window[1]).toString());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a line by one of the users {@link #tailed(LogParser)} counts, with the event, status and address
+     * picked by {@code i}.
+     */
+    private static String tailedLine(int i, long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        Event event = Event.values()[i % Event.values().length];
+        return "10.0.0." + i % 7 + "\tTailer " + i % 3 + "\t"
+                + time.format(DateTimeFormatter.ofPattern("d.M.yyyy H:m:s")) + "\t" + event
+                + (event == Event.SOLVE_TASK || event == Event.DONE_TASK ? " 5" : "") + "\t"
+                + Status.values()[i % Status.values().length] + "\n";
+    }
+
+    /**
+     * Collects answers about users of the loaded logs, which rows tailed for other users must leave unchanged.
+     */
+    private static String loadedUserAnswers(LogParser parser) {
+        StringBuilder answers = new StringBuilder();
+        for (String user : new String[]{"Amigo", "Vasya Pupkin", "Nobody"}) {
+            answers.append(user).append(new TreeSet<>(parser.getIPsForUser(user, null, null)))
+                    .append(parser.getNumberOfUserEvents(user, null, null))
+                    .append(parser.getDateWhenUserLoggedFirstTime(user, null, null).getTime())
+                    .append(parser.execute("get count for user = ?", user))
+                    .append(parser.getUserSessions(user, TimeUnit.HOURS.toMillis(1), null, null).size());
+            for (Event event : Event.values()) {
+                answers.append(event).append(new TreeSet<>(parser.getDatesForUserAndEvent(user, event, null, null)));
+            }
+            answers.append('\n');
+        }
+        return answers.toString();
+    }
+
+    /**
+     * Returns the index of the first row of the user's event from {@code from} on, with the task unless it is
+     * -1, or -1.
+     */
+    private static int first(List<Row> rows, int from, String user, Event event, int task) {
+        for (int i = from; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (row.user.equals(user) && row.event == event && (task < 0 || row.task == task)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Date dateOf(List<Row> rows, int index) {
+        return index < 0 ? null : new Date(rows.get(index).timestamp);
+    }
+
+    private static Map<Date, Date> sessions(List<Row> rows, String user, long maxGapMillis) {
+        Map<Date, Date> sessions = new LinkedHashMap<>();
+        long first = -1;
+        long last = -1;
+        for (Row row : rows) {
+            if (!row.user.equals(user)) {
+                continue;
+            }
+            if (first >= 0 && row.timestamp - last > maxGapMillis) {
+                sessions.put(new Date(first), new Date(last));
+                first = -1;
+            }
+            if (first < 0) {
+                first = row.timestamp;
+            }
+            last = row.timestamp;
+        }
+        if (first >= 0) {
+            sessions.put(new Date(first), new Date(last));
+        }
+        return sessions;
+    }
+
+    private static int tailed(LogParser parser) {
+        int rows = 0;
+        for (int user = 0; user < 3; user++) {
+            rows += (Integer) parser.execute("get count for user = ?", "Tailer " + user).iterator().next();
+        }
+        return rows;
+    }
+
+    private static int count(LogParser parser) {
+        return (Integer) parser.execute("get count").iterator().next();
+    }
+
+    private static Map<String, String> longScans(LogQuery parser) {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (Date[] window : LONG_WINDOWS) {
+            String prefix = window[0] + ".." + window[1] + ".";
+            results.put(prefix + "getNumberOfUniqueIPs", String.valueOf(parser.getNumberOfUniqueIPs(window[0],
+                    window[1])));
+            results.put(prefix + "getUniqueIPs", new TreeSet<>(parser.getUniqueIPs(window[0], window[1])).toString());
+            results.put(prefix + "getNumberOfUsers", String.valueOf(parser.getNumberOfUsers(window[0], window[1])));
+        }
+        Date after = LONG_WINDOWS[1][0];
+        Date before = LONG_WINDOWS[1][1];
+        for (String query : LONG_QL) {
+            results.put(query, new TreeSet<>(query.contains("?") ? parser.execute(query, after, before)
+                    : parser.execute(query)).toString());
+        }
+        return results;
+    }
+
+    /**
+     * A generated row and where it is written: the file and the time that orders the lines of the file.
+     */
+    private static final class Row {
+        private final long timestamp;
+        private final String user;
+        private final Event event;
+        private final int task;
+        private final int file;
+        private final long writtenAt;
+
+        Row(long timestamp, String user, Event event, int task, int file, long writtenAt) {
+            this.timestamp = timestamp;
+            this.user = user;
+            this.event = event;
+            this.task = task;
+            this.file = file;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
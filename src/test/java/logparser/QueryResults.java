@@ -0,0 +1,152 @@
+package logparser;
+
+import logparser.query.LogQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs every {@link LogQuery} method over a set of date windows and arguments and collects the results as
+ * text, sets sorted and dates as epoch millis, so the answers of two parsers compare with one
+ * {@code assertEquals}.
+ */
+public class QueryResults {
+    private static final Date[][] WINDOWS = {{null, null}, {TestLogs.date(20, 0), TestLogs.date(60, 0)},
+            {TestLogs.date(30, 10), TestLogs.date(30, 22)}, {null, TestLogs.date(10, 0)},
+            {TestLogs.date(45, 0), null}, {TestLogs.date(-10, 0), TestLogs.date(-1, 0)}};
+    private static final String[] QL = {"get ip", "get user for event = \"LOGIN\"",
+            "get event for user = \"Amigo\" and date between ? and ?", "get date for status = \"ERROR\"",
+            "get count for ip = \"146.34.15.5\"", "get count distinct user for status = \"FAILED\"",
+            "get status for date between ? and ?", "get user for ip = \"10.0.0.1\" and date between ? and ?"};
+
+    private final Map<String, String> results = new LinkedHashMap<>();
+
+    public static Map<String, String> of(LogQuery parser) {
+        return new QueryResults().collect(parser, null);
+    }
+
+    /**
+     * Collects the results over the parts of the windows after the given date, leaving out the queries that
+     * take no window.
+     */
+    public static Map<String, String> after(LogQuery parser, Date start) {
+        return new QueryResults().collect(parser, start);
+    }
+
+    private Map<String, String> collect(LogQuery parser, Date start) {
+        for (int w = 0; w < WINDOWS.length; w++) {
+            Date after = WINDOWS[w][0];
+            Date before = WINDOWS[w][1];
+            if (start != null && (after == null || after.before(start))) {
+                after = start;
+            }
+            String window = "w" + w + ".";
+            put(window + "getNumberOfUniqueIPs", parser.getNumberOfUniqueIPs(after, before));
+            put(window + "getUniqueIPs", parser.getUniqueIPs(after, before));
+            put(window + "getNumberOfUsers", parser.getNumberOfUsers(after, before));
+            put(window + "getLoggedUsers", parser.getLoggedUsers(after, before));
+            put(window + "getDownloadedPluginUsers", parser.getDownloadedPluginUsers(after, before));
+            put(window + "getWroteMessageUsers", parser.getWroteMessageUsers(after, before));
+            put(window + "getSolvedTaskUsers", parser.getSolvedTaskUsers(after, before));
+            put(window + "getDoneTaskUsers", parser.getDoneTaskUsers(after, before));
+            put(window + "getDatesWhenSomethingFailed", parser.getDatesWhenSomethingFailed(after, before));
+            put(window + "getDatesWhenErrorHappened", parser.getDatesWhenErrorHappened(after, before));
+            put(window + "getNumberOfAllEvents", parser.getNumberOfAllEvents(after, before));
+            put(window + "getAllEvents", parser.getAllEvents(after, before));
+            put(window + "getFailedEvents", parser.getFailedEvents(after, before));
+            put(window + "getErrorEvents", parser.getErrorEvents(after, before));
+            put(window + "getAllSolvedTasksAndTheirNumber", parser.getAllSolvedTasksAndTheirNumber(after, before));
+            put(window + "getAllDoneTasksAndTheirNumber", parser.getAllDoneTasksAndTheirNumber(after, before));
+            for (Event event : Event.values()) {
+                put(window + "getIPsForEvent." + event, parser.getIPsForEvent(event, after, before));
+            }
+            for (Status status : Status.values()) {
+                put(window + "getIPsForStatus." + status, parser.getIPsForStatus(status, after, before));
+            }
+            for (int task : TestLogs.TASKS) {
+                put(window + "getSolvedTaskUsers." + task, parser.getSolvedTaskUsers(after, before, task));
+                put(window + "getDoneTaskUsers." + task, parser.getDoneTaskUsers(after, before, task));
+                put(window + "getNumberOfAttemptToSolveTask." + task,
+                        parser.getNumberOfAttemptToSolveTask(task, after, before));
+                put(window + "getNumberOfSuccessfulAttemptToSolveTask." + task,
+                        parser.getNumberOfSuccessfulAttemptToSolveTask(task, after, before));
+            }
+            for (String user : TestLogs.USERS) {
+                String prefix = window + user + ".";
+                put(prefix + "getIPsForUser", parser.getIPsForUser(user, after, before));
+                put(prefix + "getNumberOfUserEvents", parser.getNumberOfUserEvents(user, after, before));
+                put(prefix + "getEventsForUser", parser.getEventsForUser(user, after, before));
+                put(prefix + "getDateWhenUserLoggedFirstTime",
+                        parser.getDateWhenUserLoggedFirstTime(user, after, before));
+                put(prefix + "getDatesWhenUserWroteMessage", parser.getDatesWhenUserWroteMessage(user, after, before));
+                put(prefix + "getDatesWhenUserDownloadedPlugin",
+                        parser.getDatesWhenUserDownloadedPlugin(user, after, before));
+                for (int task : TestLogs.TASKS) {
+                    put(prefix + "getDateWhenUserSolvedTask." + task,
+                            parser.getDateWhenUserSolvedTask(user, task, after, before));
+                    put(prefix + "getDateWhenUserDoneTask." + task,
+                            parser.getDateWhenUserDoneTask(user, task, after, before));
+                }
+                for (Event event : Event.values()) {
+                    put(prefix + "getDatesForUserAndEvent." + event,
+                            parser.getDatesForUserAndEvent(user, event, after, before));
+                }
+            }
+            for (String ip : TestLogs.IPS) {
+                put(window + ip + ".getUsersForIP", parser.getUsersForIP(ip, after, before));
+                put(window + ip + ".getEventsForIP", parser.getEventsForIP(ip, after, before));
+            }
+            for (String subnet : TestLogs.SUBNETS) {
+                put(window + subnet + ".getIPsForSubnet", parser.getIPsForSubnet(subnet, after, before));
+                put(window + subnet + ".getUsersForSubnet", parser.getUsersForSubnet(subnet, after, before));
+                put(window + subnet + ".getEventsForSubnet", parser.getEventsForSubnet(subnet, after, before));
+            }
+            for (String[] range : TestLogs.IP_RANGES) {
+                String prefix = window + range[0] + "-" + range[1] + ".";
+                put(prefix + "getIPsInRange", parser.getIPsInRange(range[0], range[1], after, before));
+                put(prefix + "getUsersForIPRange", parser.getUsersForIPRange(range[0], range[1], after, before));
+                put(prefix + "getEventsForIPRange", parser.getEventsForIPRange(range[0], range[1], after, before));
+            }
+            if (after != null && before != null) {
+                for (String query : QL) {
+                    if (query.contains("?")) {
+                        put(window + query, parser.execute(query, after, before));
+                    } else if (start == null) {
+                        put(window + query, parser.execute(query));
+                    }
+                }
+            }
+        }
+        if (start == null) {
+            put("getAllUsers", parser.getAllUsers());
+        }
+        return results;
+    }
+
+    private void put(String name, Object value) {
+        results.put(name, text(value));
+    }
+
+    private static String text(Object value) {
+        if (value instanceof Date) {
+            return String.valueOf(((Date) value).getTime());
+        }
+        if (value instanceof Collection) {
+            List<String> elements = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                elements.add(text(element));
+            }
+            elements.sort(null);
+            return elements.toString();
+        }
+        if (value instanceof Map) {
+            return new TreeMap<>((Map<?, ?>) value).toString();
+        }
+        return String.valueOf(value);
+    }
+}
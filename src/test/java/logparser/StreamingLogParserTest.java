@@ -0,0 +1,63 @@
+package logparser;
+
+import logparser.ingest.EventSink;
+import logparser.ingest.TimestampDecoder;
+import logparser.ql.PlanCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamingLogParserTest {
+    private static final int ROWS = 500_000;
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void answersEveryQueryLikeTheLoadedParser() throws IOException {
+        TestLogs.write(logDir, 2, 20_000, 21);
+        assertEquals(QueryResults.of(new LogParser(logDir, 1)), QueryResults.of(new StreamingLogParser(logDir, 1)));
+    }
+
+    @Test
+    void aBatchAnswersItsQueriesInOnePass() throws IOException {
+        // A source that makes up its rows as it goes, so nothing but the accumulators can hold them.
+        AtomicInteger passes = new AtomicInteger();
+        RowSource source = sink -> {
+            passes.incrementAndGet();
+            generate(sink);
+        };
+        PlanCache planCache = new PlanCache(16, new TimestampDecoder());
+        StreamingLogParser parser = new StreamingLogParser(source, planCache, null);
+        assertEquals(100, parser.getNumberOfUsers(null, null));
+        assertEquals(1, passes.get());
+
+        QueryBatch batch = new QueryBatch(source, planCache);
+        QueryBatch.Result<Integer> users = batch.add(query -> query.getNumberOfUsers(null, null));
+        QueryBatch.Result<Set<String>> ips = batch.add(query -> query.getIPsForUser("user7", null, null));
+        QueryBatch.Result<Date> firstLogin = batch.add(query -> query.getDateWhenUserLoggedFirstTime("user7",
+                null, null));
+        QueryBatch.Result<Set<Object>> count = batch.add("get count for event = ?", Event.LOGIN);
+        batch.execute();
+        assertEquals(2, passes.get());
+        assertEquals(100, users.get());
+        assertEquals(parser.getIPsForUser("user7", null, null), ips.get());
+        assertEquals(parser.getDateWhenUserLoggedFirstTime("user7", null, null), firstLogin.get());
+        assertEquals(parser.execute("get count for event = ?", Event.LOGIN), count.get());
+        assertEquals(Set.of(ROWS / Event.values().length), count.get());
+    }
+
+    private static void generate(EventSink sink) {
+        for (int row = 0; row < ROWS; row++) {
+            sink.add("10.0." + row % 3 + "." + row % 200, "user" + row % 100, (row + 1) * 1000L,
+                    Event.values()[row % Event.values().length], -1, Status.OK, "generated.log");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package logparser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Writes deterministic log directories for tests: skewed users and addresses in a few subnets, every event and
+ * status, tasks for task events, and timestamps from the start of 2013 that mostly increase but jump back now
+ * and then, so rows arrive out of order.
+ */
+public class TestLogs {
+    public static final LocalDateTime START = LocalDateTime.of(2013, 1, 1, 0, 0);
+    public static final String[] USERS = {"Amigo", "Vasya Pupkin", "Eduard Petrovich Morozko", "Nobody"};
+    public static final String[] IPS = {"127.0.0.1", "146.34.15.5", "192.168.100.2", "10.0.0.1"};
+    public static final String[] SUBNETS = {"146.34.0.0/16", "192.168.0.0/16", "10.0.0.0/8", "8.8.8.0/24"};
+    public static final String[][] IP_RANGES = {{"10.0.0.0", "10.0.255.255"}, {"146.34.15.0", "192.168.100.2"},
+            {"1.1.1.1", "1.1.1.2"}};
+    public static final int[] TASKS = {1, 5, 18, 40, 99};
+
+    private static final int USER_COUNT = 300;
+    private static final int IP_COUNT = 400;
+
+    /**
+     * Writes {@code files} files of {@code lines} lines each.
+     */
+    public static void write(Path dir, int files, int lines, long seed) throws IOException {
+        write(dir, files, lines, seed, false);
+    }
+
+    /**
+     * Writes {@code files} files of {@code lines} lines each, with every user and address about as frequent as
+     * the others if {@code flat} is set.
+     */
+    public static void write(Path dir, int files, int lines, long seed, boolean flat) throws IOException {
+        Random random = new Random(seed);
+        LocalDateTime time = START;
+        for (int file = 0; file < files; file++) {
+            try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("app-" + file + ".log"),
+                    StandardCharsets.UTF_8)) {
+                for (int line = 0; line < lines; line++) {
+                    time = time.plusSeconds(random.nextInt(120));
+                    LocalDateTime lineTime = random.nextInt(50) == 0 ? time.minusHours(random.nextInt(48)) : time;
+                    Event event = Event.values()[random.nextInt(Event.values().length)];
+                    String task = event == Event.SOLVE_TASK || event == Event.DONE_TASK
+                            ? " " + (1 + pick(random, 40, flat)) : "";
+                    int status = random.nextInt(10);
+                    out.write(ip(pick(random, IP_COUNT, flat)) + "\t" + user(pick(random, USER_COUNT, flat)) + "\t"
+                            + lineTime.getDayOfMonth() + "." + lineTime.getMonthValue() + "." + lineTime.getYear()
+                            + " " + lineTime.getHour() + ":" + lineTime.getMinute() + ":" + lineTime.getSecond()
+                            + "\t" + event + task + "\t" + (status < 7 ? Status.OK : status < 9 ? Status.FAILED
+                            : Status.ERROR) + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the date the given number of days and hours after {@link #START}.
+     */
+    public static Date date(int days, int hours) {
+        return Date.from(START.plusDays(days).plusHours(hours).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static int pick(Random random, int count, boolean flat) {
+        return flat ? random.nextInt(count) : (int) (count * Math.pow(random.nextDouble(), 3));
+    }
+
+    private static String user(int index) {
+        return index < USERS.length ? USERS[index] : "user" + index;
+    }
+
+    private static String ip(int index) {
+        if (index < IPS.length) {
+            return IPS[index];
+        }
+        switch (index % 3) {
+            case 0:
+                return "10.0." + (index / 250) + "." + (index % 250);
+            case 1:
+                return "146.34." + (index / 250) + "." + (index % 250);
+            default:
+                return "192.168." + (index / 250) + "." + (index % 250);
+        }
+    }
+}
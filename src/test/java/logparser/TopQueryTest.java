@@ -0,0 +1,125 @@
+package logparser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopQueryTest {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("d.M.yyyy H:m:s");
+    private static final Status[] STATUSES = {null, Status.OK, Status.FAILED, Status.ERROR};
+    private static final int[] KS = {1, 5, 20, 64};
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void topValuesOverLongRangesAreExactWhenFewValuesLead() throws IOException {
+        TestLogs.write(logDir, 2, 100_000, 7);
+        check();
+    }
+
+    @Test
+    void topValuesOverLongRangesAreExactWhenAllValuesAreAboutAsFrequent() throws IOException {
+        TestLogs.write(logDir, 2, 100_000, 7, true);
+        check();
+    }
+
+    private void check() throws IOException {
+        List<String[]> lines = read();
+        LogParser parser = new LogParser(logDir, 1);
+        Date[][] windows = {{null, null}, {TestLogs.date(3, 5), TestLogs.date(120, 17)},
+                {TestLogs.date(30, 0), null}};
+        for (Date[] window : windows) {
+            for (Status status : STATUSES) {
+                for (int k : KS) {
+                    String query = " k=" + k + " status=" + status + " window=" + window[0] + ".." + window[1];
+                    check("users" + query, k, parser.getTopUsers(k, status, window[0], window[1]),
+                            exact(lines, 1, status, window));
+                    check("ips" + query, k, parser.getTopIPs(k, status, window[0], window[1]),
+                            exact(lines, 0, status, window));
+                    check("tasks" + query, k, parser.getTopTasks(k, status, window[0], window[1]),
+                            exact(lines, 3, status, window));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the result holds the exact count of each of its values and that no value left out has more
+     * rows than the least frequent value in it. Ties may go either way.
+     */
+    private static void check(String query, int k, Map<?, Integer> top, Map<String, Integer> exact) {
+        assertEquals(Math.min(k, exact.size()), top.size(), query);
+        Set<String> values = new HashSet<>();
+        int least = Integer.MAX_VALUE;
+        for (Map.Entry<?, Integer> entry : top.entrySet()) {
+            assertEquals(exact.get(entry.getKey().toString()), entry.getValue(), query + " " + entry.getKey());
+            values.add(entry.getKey().toString());
+            least = Math.min(least, entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : exact.entrySet()) {
+            if (!values.contains(entry.getKey())) {
+                assertTrue(entry.getValue() <= least, query + " misses " + entry.getKey());
+            }
+        }
+    }
+
+    private static Map<String, Integer> exact(List<String[]> lines, int column, Status status, Date[] window) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String[] line : lines) {
+            long time = Long.parseLong(line[2]);
+            if (window[0] != null && time <= window[0].getTime() || window[1] != null && time >= window[1].getTime()
+                    || status != null && !status.name().equals(line[4])) {
+                continue;
+            }
+            String value = line[column];
+            if (column == 3) {
+                int space = value.indexOf(' ');
+                if (space < 0) {
+                    continue;
+                }
+                value = value.substring(space + 1);
+            }
+            counts.merge(value, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the fields of every line, with the date as epoch millis.
+     */
+    private List<String[]> read() throws IOException {
+        try (Stream<Path> files = Files.list(logDir)) {
+            return files.flatMap(file -> {
+                try {
+                    return Files.readAllLines(file, StandardCharsets.UTF_8).stream();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).map(line -> {
+                String[] fields = line.split("\t");
+                fields[2] = Long.toString(LocalDateTime.parse(fields[2], FORMAT).atZone(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli());
+                return fields;
+            }).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package logparser.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResultCacheTest {
+    private final ResultCache cache = new ResultCache(16, 1, TimeUnit.HOURS);
+
+    @Test
+    void datesInsideCachedSetsAndMapsCannotBeChangedByCallers() {
+        Set<Date> dates = cache.get("dates", 0, 0, 100, () -> new TreeSet<>(List.of(new Date(10), new Date(20))));
+        dates.iterator().next().setTime(99);
+        dates = cache.get("dates", 0, 0, 100, () -> new TreeSet<>(List.of(new Date(-1))));
+        dates.iterator().next().setTime(99);
+        assertEquals(Set.of(new Date(10), new Date(20)), cache.get("dates", 0, 0, 100, TreeSet::new));
+
+        Map<Date, Date> sessions = cache.get("sessions", 0, 0, 100, () -> {
+            Map<Date, Date> result = new LinkedHashMap<>();
+            result.put(new Date(10), new Date(20));
+            return result;
+        });
+        sessions.keySet().iterator().next().setTime(99);
+        sessions.values().iterator().next().setTime(99);
+        assertEquals(Map.of(new Date(10), new Date(20)), cache.get("sessions", 0, 0, 100, LinkedHashMap::new));
+
+        cache.get("first", 0, 0, 100, () -> new Date(10)).setTime(99);
+        assertEquals(new Date(10), cache.get("first", 0, 0, 100, () -> new Date(-1)));
+        assertEquals(3, cache.size());
+        assertEquals(4, cache.getHits());
+    }
+}
@@ -0,0 +1,120 @@
+package logparser.cluster;
+
+import logparser.LogParser;
+import logparser.QueryResults;
+import logparser.TestLogs;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FederatedLogParserTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void mergedAnswersMatchOneParserOverAllTheLogsAndClosedWorkersAreLeftOut() throws IOException {
+        Path first = Files.createDirectory(dir.resolve("first"));
+        Path second = Files.createDirectory(dir.resolve("second"));
+        Path all = Files.createDirectory(dir.resolve("all"));
+        TestLogs.write(first, 1, 20_000, 1);
+        TestLogs.write(second, 1, 20_000, 2);
+        Files.copy(first.resolve("app-0.log"), all.resolve("first.log"));
+        Files.copy(second.resolve("app-0.log"), all.resolve("second.log"));
+        LogParser firstParser = new LogParser(first, 1);
+
+        try (WorkerServer firstWorker = start(firstParser);
+             WorkerServer secondWorker = start(new LogParser(second, 1));
+             FederatedLogParser federated = new FederatedLogParser(
+                     List.of(firstWorker.getAddress(), secondWorker.getAddress()), 30, TimeUnit.SECONDS)) {
+            LogParser allParser = new LogParser(all, 1);
+            assertEquals(QueryResults.of(allParser), QueryResults.of(federated));
+            assertEquals(Map.of(), federated.getLastFailures());
+            // The estimates of the workers cannot be added up, so an approximate count is answered exactly.
+            assertEquals(allParser.execute("get count distinct ip"), federated.execute("get approx count distinct ip"));
+
+            // The coordinator holds idle connections to both workers, which must not outlive the worker.
+            secondWorker.close();
+            assertEquals(firstParser.getAllUsers(), federated.getAllUsers());
+            assertEquals(List.of(secondWorker.getAddress()), List.copyOf(federated.getLastFailures().keySet()));
+        }
+    }
+
+    @Test
+    void aRejectedArgumentStillRecordsTheWorkersThatFailed() throws IOException {
+        TestLogs.write(dir, 1, 1000, 3);
+        try (WorkerServer firstWorker = start(new LogParser(dir, 1));
+             WorkerServer secondWorker = start(new LogParser(dir, 1));
+             FederatedLogParser federated = new FederatedLogParser(
+                     List.of(firstWorker.getAddress(), secondWorker.getAddress()), 30, TimeUnit.SECONDS)) {
+            federated.getAllUsers();
+            assertEquals(Map.of(), federated.getLastFailures());
+
+            secondWorker.close();
+            assertThrows(IllegalArgumentException.class,
+                    () -> federated.execute("get user for event = ?", "LOGON"));
+            assertEquals(List.of(secondWorker.getAddress()), List.copyOf(federated.getLastFailures().keySet()));
+        }
+    }
+
+    @Test
+    void aCallAnsweredAfterCloseClosesItsConnection() throws Exception {
+        // A worker that answers its first request only when let go and then waits for the connection to end.
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch answer = new CountDownLatch(1);
+        try (ServerSocket worker = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Boolean> connectionClosed = CompletableFuture.supplyAsync(() -> {
+                try (Socket connection = worker.accept();
+                     DataInputStream in = new DataInputStream(connection.getInputStream());
+                     DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
+                    connection.setSoTimeout(10_000);
+                    Wire.readString(in);
+                    for (int i = in.readInt(); i > 0; i--) {
+                        Wire.read(in);
+                    }
+                    requested.countDown();
+                    answer.await();
+                    out.writeByte(Wire.OK);
+                    Wire.write(out, Set.of("Amigo"));
+                    out.flush();
+                    return in.read() < 0;
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            FederatedLogParser federated = new FederatedLogParser(
+                    List.of((InetSocketAddress) worker.getLocalSocketAddress()), 30, TimeUnit.SECONDS);
+            CompletableFuture<Set<String>> users = CompletableFuture.supplyAsync(federated::getAllUsers);
+            assertTrue(requested.await(10, TimeUnit.SECONDS));
+            federated.close();
+            answer.countDown();
+
+            assertEquals(Set.of("Amigo"), users.get(10, TimeUnit.SECONDS));
+            assertTrue(connectionClosed.get(20, TimeUnit.SECONDS));
+        }
+    }
+
+    private static WorkerServer start(LogParser parser) throws IOException {
+        WorkerServer worker = new WorkerServer(parser, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        worker.start();
+        return worker;
+    }
+}
@@ -0,0 +1,76 @@
+package logparser.cluster;
+
+import logparser.Event;
+import logparser.Status;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WireTest {
+    @Test
+    void valuesOfEveryKindComeBackEqualAndInOrder() throws IOException {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put(new Date(1_356_998_400_000L), new Date(1_357_002_000_000L));
+        map.put(40, 7);
+        map.put(Event.DONE_TASK, null);
+        Set<Object> set = new LinkedHashSet<>(List.of("Vasya Pupkin", "Amigo", "Ёжик", ""));
+        Object[] values = {null, 0, Integer.MIN_VALUE, Long.MAX_VALUE, -1L, "146.34.15.5", new Date(-1),
+                Event.values()[Event.values().length - 1], Status.ERROR, set, map,
+                new AbstractMap.SimpleImmutableEntry<>("Amigo", 3), new ArrayList<>(List.of(Status.OK, "x"))};
+        for (Object value : values) {
+            Object read = roundTrip(value);
+            assertEquals(value instanceof List ? new LinkedHashSet<>((List<?>) value) : value, read);
+            if (value instanceof Set || value instanceof Map) {
+                assertEquals(value.toString(), read.toString());
+            }
+        }
+        Object[] arguments = {"Amigo", 18, null, new Date(5)};
+        assertArrayEquals(arguments, (Object[]) roundTrip(arguments));
+    }
+
+    @Test
+    void requestsCarryTheMethodAndItsArguments() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Wire.writeRequest(new DataOutputStream(bytes), "getIPsForUser", new Object[]{"Amigo", null, new Date(9)});
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("getIPsForUser", Wire.readString(in));
+        assertEquals(3, in.readInt());
+        assertEquals("Amigo", Wire.read(in));
+        assertEquals(null, Wire.read(in));
+        assertEquals(new Date(9), Wire.read(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void rejectsValuesItCannotSendAndTagsItDoesNotKnow() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Wire.write(new DataOutputStream(new ByteArrayOutputStream()), 1.5));
+        assertThrows(IOException.class,
+                () -> Wire.read(new DataInputStream(new ByteArrayInputStream(new byte[]{99}))));
+    }
+
+    private static Object roundTrip(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Wire.write(new DataOutputStream(bytes), value);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object read = Wire.read(in);
+        assertEquals(-1, in.read());
+        return read;
+    }
+}
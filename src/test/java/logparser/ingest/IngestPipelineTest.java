@@ -0,0 +1,122 @@
+package logparser.ingest;
+
+import logparser.TestLogs;
+import logparser.store.EventStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestPipelineTest {
+    private static final String LINE = "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n";
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void aLineLongerThanTheLargestRegionFailsOnlyItsFile() throws IOException {
+        Path good = logDir.resolve("good.log");
+        Path longLine = logDir.resolve("long.log");
+        Files.writeString(good, LINE.repeat(3), StandardCharsets.UTF_8);
+        Files.writeString(longLine, LINE + "x".repeat(1000) + "\n" + LINE, StandardCharsets.UTF_8);
+        EventStore store = new EventStore();
+
+        IngestReport report = new IngestPipeline(2, 64, 256).ingest(List.of(longLine, good), store);
+        assertEquals(4, store.size());
+        assertEquals(List.of(longLine), List.copyOf(report.getFailedFiles().keySet()));
+        assertTrue(report.getFailedFiles().get(longLine).contains("byte " + LINE.length()));
+        assertEquals(LINE.length(), report.getFiles().get(longLine));
+        assertEquals(3 * LINE.length(), report.getFiles().get(good));
+    }
+
+    @Test
+    void aFileThatCannotBeOpenedIsRecordedAndTheOthersAreLoaded() throws IOException {
+        Path good = logDir.resolve("good.log");
+        Path unreadable = Files.createDirectory(logDir.resolve("unreadable.log"));
+        Files.writeString(good, LINE.repeat(2), StandardCharsets.UTF_8);
+        EventStore store = new EventStore();
+
+        IngestReport report = new IngestPipeline(1).ingest(List.of(unreadable, good), store);
+        assertEquals(2, store.size());
+        assertEquals(List.of(unreadable), List.copyOf(report.getFailedFiles().keySet()));
+    }
+
+    @Test
+    void singleAndMultiMemberGzipFilesLoadTheRowsOfThePlainLog() throws IOException {
+        // About 9 MB of text, more than two blocks of the gzip reader.
+        TestLogs.write(logDir, 1, 150_000, 19);
+        Path plain = logDir.resolve("app-0.log");
+        byte[] text = Files.readAllBytes(plain);
+        Path single = logDir.resolve("single.log.gz");
+        Files.write(single, gzip(text));
+        // Members cut in the middle of lines, as when a compressor splits its input at fixed sizes.
+        Path multi = logDir.resolve("multi.log.gz");
+        try (OutputStream out = Files.newOutputStream(multi)) {
+            for (int from = 0; from < text.length; from += 700_001) {
+                out.write(gzip(Arrays.copyOfRange(text, from, Math.min(from + 700_001, text.length))));
+            }
+        }
+
+        List<String> expected = rows(plain);
+        assertEquals(150_000, expected.size());
+        assertEquals(expected, rows(single));
+        assertEquals(expected, rows(multi));
+    }
+
+    @Test
+    void aTruncatedGzipFileFailsOnlyItsFile() throws IOException {
+        Path good = logDir.resolve("good.log");
+        Path truncated = logDir.resolve("truncated.log.gz");
+        Files.writeString(good, LINE.repeat(2), StandardCharsets.UTF_8);
+        byte[] compressed = gzip(LINE.repeat(1000).getBytes(StandardCharsets.UTF_8));
+        Files.write(truncated, Arrays.copyOf(compressed, compressed.length / 2));
+        EventStore store = new EventStore();
+
+        IngestReport report = new IngestPipeline(2).ingest(List.of(truncated, good), store);
+        assertEquals(List.of(truncated), List.copyOf(report.getFailedFiles().keySet()));
+        int goodRows = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if (store.getSourceDictionary().get(store.getSourceId(row)).endsWith("good.log")) {
+                goodRows++;
+            }
+        }
+        assertEquals(2, goodRows);
+        assertEquals(2 * LINE.length(), report.getFiles().get(good));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Loads the file and returns its rows as text, sorted, as blocks are parsed in no fixed order.
+     */
+    private static List<String> rows(Path file) throws IOException {
+        EventStore store = new EventStore();
+        IngestReport report = new IngestPipeline(3).ingest(List.of(file), store);
+        assertTrue(report.getFailedFiles().isEmpty(), report.getFailedFiles().toString());
+        List<String> rows = new ArrayList<>();
+        for (int row = 0; row < store.size(); row++) {
+            rows.add(store.getTimestamp(row) + " " + store.getIp(row) + " " + store.getUser(row) + " "
+                    + store.getEvent(row) + " " + store.getTask(row) + " " + store.getStatus(row));
+        }
+        rows.sort(null);
+        return rows;
+    }
+}
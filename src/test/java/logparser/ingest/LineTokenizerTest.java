@@ -0,0 +1,33 @@
+package logparser.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LineTokenizerTest {
+    private final LineTokenizer tokenizer = new LineTokenizer(StandardCharsets.UTF_8, new TimestampDecoder());
+
+    @Test
+    void readsTaskNumbers() {
+        assertNull(parse("127.0.0.1\tAmigo\t30.08.2012 16:08:13\tSOLVE_TASK 18\tOK"));
+        assertNull(parse("127.0.0.1\tAmigo\t30.08.2012 16:08:13\tDONE_TASK  0 \tOK"));
+        assertNull(parse("127.0.0.1\tAmigo\t30.08.2012 16:08:13\tDONE_TASK 999999999\tOK"));
+    }
+
+    @Test
+    void rejectsTasksThatAreNotPlainNonNegativeNumbers() {
+        for (String task : new String[]{"-1", "-18", "+5", "1-", "1000000000", "x", ""}) {
+            assertEquals(LineError.TASK, parse("127.0.0.1\tAmigo\t30.08.2012 16:08:13\tSOLVE_TASK " + task + "\tOK"),
+                    task);
+        }
+    }
+
+    private LineError parse(String line) {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        return tokenizer.parse(buffer, 0, buffer.limit(), "test.log", new EventBatch(16));
+    }
+}
@@ -0,0 +1,74 @@
+package logparser.ingest;
+
+import logparser.LogParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogTailerTest {
+    private static final long WAIT_MILLIS = 20_000;
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void readsALineThatWasHalfWrittenDuringTheInitialLoadOnceItIsFinished() throws Exception {
+        Path log = logDir.resolve("app.log");
+        write(log, "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n146.34.15.5\tZorro\t30.08.2012 16:09:00\tLOG");
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of("Amigo"), parser.getAllUsers());
+
+        parser.startTailing();
+        try {
+            write(log, "IN\tOK\n");
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (!parser.getAllUsers().contains("Zorro") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Set.of("Amigo", "Zorro"), parser.getAllUsers());
+            assertEquals(Set.of(2), parser.execute("get count for event = \"LOGIN\""));
+        } finally {
+            parser.stopTailing();
+        }
+    }
+
+    @Test
+    void finishesALogThatWasRotatedAwayBeforeItsLastLinesWereRead() throws Exception {
+        Path log = logDir.resolve("app.log");
+        write(log, "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n");
+        LogParser parser = new LogParser(logDir, 1);
+
+        parser.startTailing();
+        try {
+            // The writer keeps its handle across the rename, so its last line lands in the rotated file.
+            try (FileChannel writer = FileChannel.open(log, StandardOpenOption.APPEND)) {
+                Files.move(log, logDir.resolve("app.log.1"));
+                writer.write(ByteBuffer.wrap("146.34.15.5\tZorro\t30.08.2012 16:09:00\tLOGIN\tOK\n"
+                        .getBytes(StandardCharsets.UTF_8)));
+            }
+            write(log, "192.168.100.2\tBender\t30.08.2012 16:10:00\tLOGIN\tOK\n");
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (parser.getAllUsers().size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Set.of("Amigo", "Zorro", "Bender"), parser.getAllUsers());
+            assertEquals(Set.of(3), parser.execute("get count for event = \"LOGIN\""));
+        } finally {
+            parser.stopTailing();
+        }
+    }
+
+    private static void write(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,79 @@
+package logparser.ingest;
+
+import logparser.LogParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TimestampDecoderTest {
+    private static final String[] ZONES = {"UTC", "Europe/Berlin", "America/New_York", "America/Sao_Paulo",
+            "America/Santiago", "Asia/Tehran", "America/Havana", "Asia/Beirut"};
+    private static final String[] TIMES = {"0:0:0", "0:30:15", "1:0:0", "1:30:0", "2:30:0", "3:0:1", "12:0:0",
+            "23:0:0", "23:59:59"};
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void matchesSimpleDateFormatOnEveryDayIncludingOffsetChanges() throws ParseException {
+        for (String id : ZONES) {
+            ZoneId zone = ZoneId.of(id);
+            TimestampDecoder decoder = new TimestampDecoder(zone);
+            SimpleDateFormat format = new SimpleDateFormat("d.M.yyyy H:m:s");
+            format.setTimeZone(TimeZone.getTimeZone(zone));
+            for (LocalDate date = LocalDate.of(2005, 1, 1); date.getYear() <= 2020; date = date.plusDays(1)) {
+                for (String time : TIMES) {
+                    String text = date.getDayOfMonth() + "." + date.getMonthValue() + "." + date.getYear() + " "
+                            + time;
+                    assertEquals(format.parse(text).getTime(), decoder.decode(text), id + " " + text);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsOutOfRangeFieldsEvenWhenAValidDayIsCached() throws ParseException {
+        TimestampDecoder decoder = new TimestampDecoder(ZoneId.of("UTC"));
+        decoder.decode("1.1.2014 10:00:00");
+        decoder.decode("1.1.2013 10:00:00");
+        assertThrows(ParseException.class, () -> decoder.decode("33.1.2014 10:00:00"));
+        assertThrows(ParseException.class, () -> decoder.decode("1.17.2013 10:00:00"));
+        assertThrows(ParseException.class, () -> decoder.decode("32.12.2013 10:00:00"));
+        assertThrows(ParseException.class, () -> decoder.decode("1.1.2014 24:00:00"));
+        assertThrows(ParseException.class, () -> decoder.decode("1.1.2014 10:00"));
+    }
+
+    @Test
+    void rejectsYearsWhoseEpochMillisOverflow() throws ParseException {
+        for (String id : new String[]{"UTC", "Europe/Berlin"}) {
+            TimestampDecoder decoder = new TimestampDecoder(ZoneId.of(id));
+            assertThrows(ParseException.class, () -> decoder.decode("1.1.300000000 0:0:0"), id);
+            assertThrows(ParseException.class, () -> decoder.decode("31.12.999999999 23:59:59"), id);
+            assertEquals(LocalDate.of(2013, 1, 1).atStartOfDay(ZoneId.of(id)).toInstant().toEpochMilli(),
+                    decoder.decode("1.1.2013 0:0:0"), id);
+        }
+    }
+
+    @Test
+    void aLineWithAnOverflowingYearIsSkippedAndTheRestIsLoaded() throws IOException {
+        Files.writeString(logDir.resolve("app.log"), "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n"
+                + "127.0.0.1\tZorro\t1.1.300000000 0:0:0\tLOGIN\tOK\n", StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of("Amigo"), parser.getAllUsers());
+        assertEquals(1, parser.getIngestReport().getSkippedLines(LineError.DATE));
+    }
+}
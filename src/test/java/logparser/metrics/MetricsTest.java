@@ -0,0 +1,98 @@
+package logparser.metrics;
+
+import logparser.Event;
+import logparser.LogParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    private static final String LOG = "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n"
+            + "127.0.0.1\tAmigo\t30.08.2012 16:08:40\tWRITE_MESSAGE\tOK\n"
+            + "146.34.15.5\tZorro\t30.08.2012 16:09:00\tDOWNLOAD_PLUGIN\tFAILED\n"
+            + "146.34.15.5\tZorro\t30.08.2012 16:10:00\tLOGIN\n"
+            + "146.34.15.5\tZorro\tyesterday\tLOGIN\tOK\n";
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void recordsIngestAndEachQueryMethodUnderItsOwnName() throws Exception {
+        Files.writeString(logDir.resolve("app.log"), LOG, StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of(), parser.getDatesWhenUserWroteMessage("Zorro", null, null));
+        assertEquals(1, parser.getDatesWhenUserWroteMessage("Amigo", null, null).size());
+        assertEquals(1, parser.getDatesWhenUserWroteMessage("Amigo", null, null).size());
+        assertEquals(1, parser.getDatesWhenUserDownloadedPlugin("Zorro", null, null).size());
+        assertEquals(3, parser.getNumberOfAllEvents(null, null));
+        parser.execute("get user for event = \"LOGIN\"");
+        parser.execute("get user for event = ?", Event.WRITE_MESSAGE);
+
+        MetricsSnapshot metrics = parser.getMetrics();
+        assertEquals(3, metrics.getLoadedLines());
+        assertEquals(2, metrics.getSkippedLines());
+        assertEquals(1, metrics.getSkippedLinesByReason().get("FIELD_COUNT"));
+        assertEquals(1, metrics.getSkippedLinesByReason().get("DATE"));
+        assertEquals(1, metrics.getFilesIngested());
+        assertEquals(LOG.length(), metrics.getBytesIngested());
+
+        Map<String, QueryStats> queries = metrics.getQueries();
+        assertFalse(queries.containsKey("getDatesForUserAndEvent"), queries.keySet().toString());
+        assertFalse(queries.containsKey("getAllEvents"), queries.keySet().toString());
+        QueryStats wroteMessage = queries.get("getDatesWhenUserWroteMessage");
+        assertEquals(3, wroteMessage.getCalls());
+        assertEquals(2, wroteMessage.getRowsReturned());
+        assertEquals(1, queries.get("getDatesWhenUserDownloadedPlugin").getCalls());
+        assertEquals(1, queries.get("getNumberOfAllEvents").getCalls());
+        // The repeated call is answered by the cache and scans nothing.
+        assertEquals(2 * 3, wroteMessage.getRowsScanned());
+        assertTrue(metrics.getCacheHits() >= 1);
+
+        assertEquals(Set.of("get user for event = ?"), metrics.getQueryShapes().keySet());
+        assertEquals(2, metrics.getQueryShapes().get("get user for event = ?").getCalls());
+    }
+
+    @Test
+    void theMBeanServesTheLiveCountersAndResetsTheQueryStatistics() throws Exception {
+        Files.writeString(logDir.resolve("app.log"), LOG, StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = parser.registerMBean();
+        try {
+            assertEquals(3L, server.getAttribute(name, "LoadedLines"));
+            assertEquals(1, server.getAttribute(name, "FilesIngested"));
+            parser.getUniqueIPs(null, null);
+            assertEquals(1L, calls(server.getAttribute(name, "Queries"), "getUniqueIPs"));
+            parser.getUniqueIPs(null, null);
+            assertEquals(2L, calls(server.getAttribute(name, "Queries"), "getUniqueIPs"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, calls(server.getAttribute(name, "Queries"), "getUniqueIPs"));
+            assertEquals(3L, server.getAttribute(name, "LoadedLines"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Reads the calls of a method from the open type a map of {@link QueryStats} is served as.
+     */
+    private static Object calls(Object queries, String method) {
+        CompositeData entry = ((TabularData) queries).get(new Object[]{method});
+        return ((CompositeData) entry.get("value")).get("calls");
+    }
+}
@@ -0,0 +1,86 @@
+package logparser.ql;
+
+import logparser.LogParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryPlanTest {
+    @TempDir
+    Path logDir;
+
+    @Test
+    void rejectsADateThatDoesNotParseInsteadOfLeavingTheConditionOut() throws IOException {
+        Files.writeString(logDir.resolve("app.log"), "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n"
+                + "146.34.15.5\tZorro\t31.08.2012 16:09:00\tLOGIN\tOK\n", StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of("127.0.0.1"), parser.execute("get ip for date = \"30.08.2012 16:08:13\""));
+
+        QuerySyntaxException literal = assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get ip for date = \"bad\""));
+        assertEquals(18, literal.getPosition());
+        QuerySyntaxException last = assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get ip for date between \"30.08.2012 00:00:00\" and \"31.08.2012\""));
+        assertEquals(50, last.getPosition());
+        QuerySyntaxException overflow = assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get ip for date = \"1.1.300000000 0:0:0\""));
+        assertEquals(18, overflow.getPosition());
+        QuerySyntaxException parameter = assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for event = ? and date = ?", "LOGIN", "bad"));
+        assertEquals(34, parameter.getPosition());
+    }
+
+    @Test
+    void rejectsAnUnknownEventStatusTaskOrAddressRangeWithItsPosition() throws IOException {
+        Files.writeString(logDir.resolve("app.log"), "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tSOLVE_TASK 5\tOK\n",
+                StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of("Amigo"), parser.execute("get user for task = \"5\""));
+
+        assertEquals(21, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for event = \"LOGON\"")).getPosition());
+        assertEquals(22, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for status = \"ok\"")).getPosition());
+        assertEquals(20, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for task = \"five\"")).getPosition());
+        assertEquals(20, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for task = \"-1\"")).getPosition());
+        assertEquals(18, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for ip = \"10.0.0.0/33\"")).getPosition());
+        assertEquals(33, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for date = ? and task = ?", "30.08.2012 16:08:13", -1))
+                .getPosition());
+        assertEquals(21, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get user for event = ?", "LOGON")).getPosition());
+    }
+
+    @Test
+    void anApproximateDistinctCountTakesUsersOrAddressesWithDateConditionsOnly() throws IOException {
+        Files.writeString(logDir.resolve("app.log"), "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n"
+                + "146.34.15.5\tZorro\t31.08.2012 16:09:00\tLOGIN\tOK\n", StandardCharsets.UTF_8);
+        LogParser parser = new LogParser(logDir, 1);
+        assertEquals(Set.of(2), parser.execute("get approx count distinct user"));
+        assertEquals(Set.of(1), parser.execute("get APPROX count distinct ip for date between ? and ?",
+                "30.08.2012 00:00:00", "31.08.2012 00:00:00"));
+        assertEquals("get approx count distinct ip for date between ? and ?",
+                QueryParser.parse("get approx count distinct ip for date between ? and ?").getShape());
+
+        assertEquals(26, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get approx count distinct event")).getPosition());
+        assertEquals(17, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get approx count ip")).getPosition());
+        assertEquals(33, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get approx count distinct ip for user = ?", "Amigo")).getPosition());
+        assertEquals(60, assertThrows(QuerySyntaxException.class,
+                () -> parser.execute("get approx count distinct user for date between ? and ? and status = \"OK\"",
+                        null, null)).getPosition());
+    }
+}
@@ -0,0 +1,143 @@
+package logparser.server;
+
+import logparser.LogParser;
+import logparser.query.LogQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryServerTest {
+    private static final long WAIT_MILLIS = 10_000;
+
+    @TempDir
+    Path logDir;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private QueryServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void answersQueriesAndRejectsBadRequestsUnknownMethodsAndOtherVerbs() throws Exception {
+        server = start(parser(), 4, 10_000);
+
+        HttpResponse<String> ips = get("/ql?q=" + encode("get ip for user = ?") + "&p=Amigo");
+        assertEquals(200, ips.statusCode());
+        assertEquals("[\"127.0.0.1\"]", ips.body());
+        HttpResponse<String> users = get("/query/getNumberOfUsers?after=30.08.2012%2000:00:00");
+        assertEquals(200, users.statusCode());
+        assertEquals("2", users.body());
+
+        assertEquals(400, get("/ql").statusCode());
+        HttpResponse<String> syntax = get("/ql?q=" + encode("get user for event = \"LOGON\""));
+        assertEquals(400, syntax.statusCode());
+        assertTrue(syntax.body().contains("LOGON"), syntax.body());
+        assertEquals(400, get("/query/getNumberOfUsers?after=yesterday").statusCode());
+        assertEquals(404, get("/query/getEverything").statusCode());
+        assertEquals(404, get("/query/getIPsForUser?arg=Amigo&arg=Zorro").statusCode());
+
+        HttpResponse<String> post = client.send(HttpRequest.newBuilder(uri("/ql?q=" + encode("get ip")))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, post.statusCode());
+        assertEquals("GET", post.headers().firstValue("Allow").orElseThrow());
+    }
+
+    @Test
+    void shedsRequestsWhileFullAndTimesOutSlowQueries() throws Exception {
+        LogParser parser = parser();
+        CountDownLatch slowQueryStarted = new CountDownLatch(1);
+        CountDownLatch neverReleased = new CountDownLatch(1);
+        // Answers the query "slow" only once it is interrupted and everything else from the parser.
+        LogQuery slow = (LogQuery) Proxy.newProxyInstance(LogQuery.class.getClassLoader(),
+                new Class<?>[]{LogQuery.class}, (proxy, method, arguments) -> {
+                    if (method.getName().equals("execute") && "slow".equals(arguments[0])) {
+                        slowQueryStarted.countDown();
+                        neverReleased.await();
+                    }
+                    try {
+                        return method.invoke(parser, arguments);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        server = start(slow, 1, 500);
+
+        CompletableFuture<HttpResponse<String>> slowResponse = client.sendAsync(
+                HttpRequest.newBuilder(uri("/ql?q=slow")).build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(slowQueryStarted.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        HttpResponse<String> shed = get("/ql?q=" + encode("get ip"));
+        assertEquals(503, shed.statusCode());
+        assertEquals("1", shed.headers().firstValue("Retry-After").orElseThrow());
+
+        assertEquals(504, slowResponse.get(WAIT_MILLIS, TimeUnit.MILLISECONDS).statusCode());
+        assertEquals(1, server.getShedRequests());
+        assertEquals(1, server.getTimedOutQueries());
+        // The interrupted query gives its slot back.
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (server.getQueriesInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getQueriesInFlight());
+        assertEquals(200, get("/ql?q=" + encode("get ip")).statusCode());
+        assertEquals(504, get("/ql?q=slow&timeout=50").statusCode());
+        assertEquals("{\"inFlight\":0,\"maxInFlight\":1,\"shed\":1,\"timedOut\":2}", waitForIdleStats());
+    }
+
+    private LogParser parser() throws IOException {
+        Files.writeString(logDir.resolve("app.log"), "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK\n"
+                + "146.34.15.5\tZorro\t30.08.2012 16:09:00\tLOGIN\tOK\n", StandardCharsets.UTF_8);
+        return new LogParser(logDir, 1);
+    }
+
+    private static QueryServer start(LogQuery parser, int maxInFlight, long timeoutMillis) throws IOException {
+        QueryServer server = new QueryServer(parser, new InetSocketAddress("127.0.0.1", 0), maxInFlight,
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        server.start();
+        return server;
+    }
+
+    private String waitForIdleStats() throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        String stats = get("/stats").body();
+        while (!stats.startsWith("{\"inFlight\":0") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            stats = get("/stats").body();
+        }
+        return stats;
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+}
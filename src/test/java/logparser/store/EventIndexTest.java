@@ -0,0 +1,104 @@
+package logparser.store;
+
+import logparser.Event;
+import logparser.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventIndexTest {
+    private static final long MINUTE_MILLIS = 60_000;
+    /**
+     * About 48 days of rows a minute apart, enough for a full block of day sketches and, off the heap, more
+     * than one chunk of rows.
+     */
+    private static final int ROWS = 70_000;
+    private static final int LATE_ROWS = 3000;
+
+    @Test
+    void lateRowsMergeLikeASortAndLeaveEarlierViewsAlone() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            Random random = new Random(17);
+            EventStore store = new EventStore(offHeap);
+            EventStore sorted = new EventStore(offHeap);
+            for (int row = 0; row < ROWS; row++) {
+                add(random, row * MINUTE_MILLIS, store, sorted);
+            }
+            EventIndex index = EventIndex.build(store);
+            EventStore storeView = store.view();
+            EventIndex indexView = index.view();
+            String viewAnswers = answers(storeView, indexView);
+
+            // Most late rows fall on the last days, some reach back to the first.
+            int from = store.size();
+            for (int row = 0; row < LATE_ROWS; row++) {
+                double back = random.nextInt(10) == 0 ? random.nextDouble() : random.nextDouble() * 0.05;
+                add(random, (long) ((1 - back) * ROWS) * MINUTE_MILLIS, store, sorted);
+            }
+            index.removeRows(store, store.mergePoint(from));
+            store.mergeFrom(from);
+            index.addRows(store, store.size());
+            sorted.sortByTime();
+
+            assertEquals(viewAnswers, answers(storeView, indexView), offHeap ? "off heap" : "heap");
+            assertEquals(answers(sorted, EventIndex.build(sorted)), answers(store, index),
+                    offHeap ? "off heap" : "heap");
+        }
+    }
+
+    private static void add(Random random, long timestamp, EventStore... stores) {
+        Event event = Event.values()[random.nextInt(Event.values().length)];
+        int task = event == Event.SOLVE_TASK || event == Event.DONE_TASK
+                ? 1 + random.nextInt(20) : EventStore.NO_TASK;
+        String ip = "10.0.0." + random.nextInt(200);
+        String user = "user" + (int) (300 * Math.pow(random.nextDouble(), 3));
+        Status status = Status.values()[random.nextInt(Status.values().length)];
+        for (EventStore store : stores) {
+            store.add(ip, user, timestamp, event, task, status, "app.log");
+        }
+    }
+
+    /**
+     * Collects the rows and the answers of the index over whole and partial ranges as text.
+     */
+    private static String answers(EventStore store, EventIndex index) {
+        int size = store.size();
+        long rows = 0;
+        EventCursor cursor = store.cursor();
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            rows = rows * 31 + cursor.getTimestamp() + 7L * cursor.getUserId() + 11L * cursor.getTask();
+        }
+        StringBuilder answers = new StringBuilder("rows=").append(size).append(':').append(rows);
+        int[][] ranges = {{0, size}, {size / 3, size - size / 5}, {size - 2 * LATE_ROWS, size}};
+        for (int[] range : ranges) {
+            int from = range[0];
+            int to = range[1];
+            answers.append("\n").append(from).append("..").append(to);
+            for (int event = 0; event < EventStore.eventCount(); event++) {
+                answers.append(" e").append(index.countEvent(event, from, to))
+                        .append('/').append(index.byEvent(event).rangeCardinality(from, to));
+            }
+            for (int status = 0; status < EventStore.statusCount(); status++) {
+                answers.append(" s").append(index.countStatus(status, from, to));
+            }
+            answers.append(" t").append(new TreeMap<>(index.countTasks(store, Event.SOLVE_TASK.ordinal(), from, to)
+                    .toMap()));
+            answers.append(" u").append(index.estimateDistinctUsers(store, from, to))
+                    .append(" i").append(index.estimateDistinctIps(store, from, to));
+            TopCounts top = index.topUsers(store, Status.OK.ordinal(), 5, from, to);
+            for (int i = 0; i < top.size(); i++) {
+                answers.append(" top").append(top.getValue(i)).append('=').append(top.getCount(i));
+            }
+            for (int user = 0; user < store.getUserDictionary().size(); user += 7) {
+                answers.append(" ").append(user).append(':').append(index.byUser(user).rangeCardinality(from, to))
+                        .append(',').append(index.firstUserEvent(user, Event.LOGIN.ordinal(), EventStore.NO_TASK,
+                                from, to));
+            }
+        }
+        return answers.toString();
+    }
+}
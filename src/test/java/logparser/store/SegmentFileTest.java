@@ -0,0 +1,107 @@
+package logparser.store;
+
+import logparser.LogParser;
+import logparser.QueryResults;
+import logparser.TestLogs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SegmentFileTest {
+    private static final double DISTINCT_COUNT_ERROR = HyperLogLog.errorOf(EventIndex.DEFAULT_SKETCH_PRECISION);
+
+    @TempDir
+    Path logDir;
+    private Path segment;
+    private Map<String, String> expected;
+
+    @BeforeEach
+    void writeLogs() throws IOException {
+        TestLogs.write(logDir, 3, 4000, 7);
+        segment = logDir.resolve(SegmentFile.DEFAULT_NAME);
+        expected = QueryResults.of(new LogParser(logDir, 1));
+    }
+
+    @Test
+    void restoresEveryQueryResultOnTheHeapAndOffIt() throws IOException {
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true)));
+        SegmentFile.Restored restored = new SegmentFile(segment).restore(sourceFiles());
+        assertNotNull(restored);
+        assertNotNull(restored.getIndex());
+        assertEquals(12000, restored.getStore().size());
+
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true)));
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true, DISTINCT_COUNT_ERROR, true)));
+    }
+
+    @Test
+    void reparsesOnlyTheChangedFiles() throws IOException {
+        new LogParser(logDir, 1, true);
+        Path changed = logDir.resolve("app-1.log");
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 1000));
+        SegmentFile.Restored restored = new SegmentFile(segment).restore(sourceFiles());
+        assertNotNull(restored);
+        assertNull(restored.getIndex());
+
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true)));
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true, DISTINCT_COUNT_ERROR, true)));
+    }
+
+    @Test
+    void reparsesTheLogsWhenTheSegmentIsTruncated() throws IOException {
+        new LogParser(logDir, 1, true);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        assertNull(new SegmentFile(segment).restore(sourceFiles()));
+
+        assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true)));
+        assertNotNull(new SegmentFile(segment).restore(sourceFiles()));
+    }
+
+    @Test
+    void reparsesTheLogsWhenAByteOfTheSegmentFlipped() throws IOException {
+        new LogParser(logDir, 1, true);
+        long size = Files.size(segment);
+        for (long position : new long[]{30, size / 2, size - 100}) {
+            flip(position);
+            assertNull(new SegmentFile(segment).restore(sourceFiles()));
+            assertEquals(expected, QueryResults.of(new LogParser(logDir, 1, true)));
+        }
+    }
+
+    private void flip(long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) (value.get(0) ^ 0x10));
+            value.rewind();
+            channel.write(value, position);
+        }
+    }
+
+    private List<SourceFile> sourceFiles() throws IOException {
+        List<SourceFile> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path file = logDir.resolve("app-" + i + ".log");
+            files.add(new SourceFile(file.getFileName().toString(), Files.size(file),
+                    Files.getLastModifiedTime(file).toMillis()));
+        }
+        return files;
+    }
+}